@@ -35,8 +35,10 @@ import com.swiftmq.net.SocketFactory;
 import com.swiftmq.net.SocketFactory2;
 import com.swiftmq.net.client.BlockingConnection;
 import com.swiftmq.net.client.ExceptionHandler;
+import com.swiftmq.net.client.NIOConnection;
 import com.swiftmq.net.protocol.ProtocolInputHandler;
 import com.swiftmq.net.protocol.ProtocolOutputHandler;
+import com.swiftmq.net.protocol.raw.RawDirectOutputHandler;
 import com.swiftmq.net.protocol.raw.RawOutputHandler;
 import com.swiftmq.swiftlet.threadpool.AsyncTask;
 import com.swiftmq.swiftlet.threadpool.ThreadPool;
@@ -46,6 +48,7 @@ import com.swiftmq.tools.pipeline.POObject;
 import com.swiftmq.tools.queue.SingleProcessorQueue;
 import com.swiftmq.tools.util.DataStreamOutputStream;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.ArrayList;
@@ -79,6 +82,7 @@ public class Connection implements ExceptionHandler {
     ConnectionQueue connectionQueue = null;
     ConnectionTask connectionTask = null;
     DataStreamOutputStream dos = null;
+    DataOutput out = null;
     volatile boolean closed = false;
     ArrayList localChannels = new ArrayList();
     ArrayList remoteChannels = new ArrayList();
@@ -91,6 +95,7 @@ public class Connection implements ExceptionHandler {
     int inputBufferExtendSize = 65536;
     int outputBufferSize = 131072;
     int outputBufferExtendSize = 65536;
+    boolean nioEnabled = Boolean.valueOf(System.getProperty("swiftmq.socket.nio.enabled", "false")).booleanValue();
     SocketFactory socketFactory = new PlainSocketFactory();
     ExceptionListener exceptionListener = null;
     Fields properties = null;
@@ -328,6 +333,26 @@ public class Connection implements ExceptionHandler {
         this.outputBufferExtendSize = outputBufferExtendSize;
     }
 
+    /**
+     * Returns whether the connection uses the shared NIO selector threads instead of a dedicated reader thread
+     *
+     * @return true if NIO is enabled
+     */
+    public boolean isNioEnabled() {
+        return nioEnabled;
+    }
+
+    /**
+     * Sets whether the connection uses the shared NIO selector threads instead of a dedicated reader thread.
+     * Only supported with the com.swiftmq.net.PlainSocketFactory; other socket factories always use a blocking connection.
+     * Default is the value of system property "swiftmq.socket.nio.enabled" (false).
+     *
+     * @param nioEnabled true to enable NIO
+     */
+    public void setNioEnabled(boolean nioEnabled) {
+        this.nioEnabled = nioEnabled;
+    }
+
     /**
      * Returns the exception listener
      *
@@ -370,25 +395,50 @@ public class Connection implements ExceptionHandler {
         connectionDispatcher = new ConnectionDispatcher(ctx, hostname);
         if (socketFactory instanceof SocketFactory2)
             ((SocketFactory2) socketFactory).setReceiveBufferSize(inputBufferSize);
-        networkConnection = new BlockingConnection(socketFactory.createSocket(hostname, port), connectionDispatcher, this) {
-            protected ProtocolOutputHandler createOutputHandler(int outputBufferSize, int outputExtendSize) {
-                return new RawOutputHandler(outputBufferSize, outputExtendSize) {
-                    public void flush() throws IOException {
-                        super.flush();
-                        invokeOutputListener();
-                    }
-                };
-            }
+        if (nioEnabled && NIOConnection.isSupported(socketFactory, hostname)) {
+            networkConnection = new NIOConnection(NIOConnection.openChannel(hostname, port, true, inputBufferSize), connectionDispatcher, this) {
+                protected ProtocolOutputHandler createOutputHandler(int outputBufferSize, int outputExtendSize) {
+                    if (NIOConnection.isDirectBuffersEnabled())
+                        return new RawDirectOutputHandler(outputBufferSize, outputExtendSize) {
+                            public void flush() throws IOException {
+                                super.flush();
+                                invokeOutputListener();
+                            }
+                        };
+                    return new RawOutputHandler(outputBufferSize, outputExtendSize) {
+                        public void flush() throws IOException {
+                            super.flush();
+                            invokeOutputListener();
+                        }
+                    };
+                }
 
-            protected ProtocolInputHandler createInputHandler() {
-                return connectionDispatcher.getProtocolHandler();
-            }
-        };
+                protected ProtocolInputHandler createInputHandler() {
+                    return connectionDispatcher.getProtocolHandler();
+                }
+            };
+        } else {
+            networkConnection = new BlockingConnection(socketFactory.createSocket(hostname, port), connectionDispatcher, this) {
+                protected ProtocolOutputHandler createOutputHandler(int outputBufferSize, int outputExtendSize) {
+                    return new RawOutputHandler(outputBufferSize, outputExtendSize) {
+                        public void flush() throws IOException {
+                            super.flush();
+                            invokeOutputListener();
+                        }
+                    };
+                }
+
+                protected ProtocolInputHandler createInputHandler() {
+                    return connectionDispatcher.getProtocolHandler();
+                }
+            };
+        }
         if (properties != null)
             connectionDispatcher.setProperties(properties);
         connectionDispatcher.setMyConnection(this);
         networkConnection.start();
         dos = new DataStreamOutputStream(networkConnection.getOutputStream());
+        out = networkConnection.getOutputStream() instanceof DataOutput ? (DataOutput) networkConnection.getOutputStream() : dos;
         connectionPool = ctx.getConnectionPool();
         connectionTask = new ConnectionTask();
         connectionQueue = new ConnectionQueue();
@@ -609,7 +659,7 @@ public class Connection implements ExceptionHandler {
         protected void process(Object[] bulk, int n) {
             try {
                 for (int i = 0; i < n; i++) {
-                    ((Writable) bulk[i]).writeContent(dos);
+                    ((Writable) bulk[i]).writeContent(out);
                     if (fTracer.isEnabled()) {
                         if (bulk[i] instanceof AMQPFrame)
                             fTracer.trace("amqp", "SND[" + ((AMQPFrame) bulk[i]).getChannel() + "] (size=" + ((AMQPFrame) bulk[i]).getPredictedSize() + "): " + bulk[i]);
@@ -42,10 +42,17 @@ public class DefaultPoolManager extends PoolManager {
     public static final String PROP_SESSION_POOL_QUEUE_LEN = "swiftmq.pool.session.queue.length";
     public static final String PROP_SESSION_POOL_THREADS_ADD = "swiftmq.pool.session.threads.add";
     public static final String PROP_SESSION_POOL_IDLE_TIMEOUT = "swiftmq.pool.session.idle.timeout";
+    public static final String PROP_LISTENER_POOL_MIN_THREADS = "swiftmq.pool.listener.threads.min";
+    public static final String PROP_LISTENER_POOL_MAX_THREADS = "swiftmq.pool.listener.threads.max";
+    public static final String PROP_LISTENER_POOL_PRIO = "swiftmq.pool.listener.priority";
+    public static final String PROP_LISTENER_POOL_QUEUE_LEN = "swiftmq.pool.listener.queue.length";
+    public static final String PROP_LISTENER_POOL_THREADS_ADD = "swiftmq.pool.listener.threads.add";
+    public static final String PROP_LISTENER_POOL_IDLE_TIMEOUT = "swiftmq.pool.listener.idle.timeout";
 
     ThreadPool connectionPool = null;
     ThreadPool sessionPool = null;
     ThreadPool connectorPool = null;
+    ThreadPool listenerPool = null;
     boolean JAC_ACTIVE = System.getProperty(PROP_JAC_ACTIVE, "false").equals("true");
 
     public DefaultPoolManager() {
@@ -54,6 +61,7 @@ public class DefaultPoolManager extends PoolManager {
             connectionPool = pool;
             sessionPool = pool;
             connectorPool = pool;
+            listenerPool = pool;
         }
     }
 
@@ -97,6 +105,25 @@ public class DefaultPoolManager extends PoolManager {
 
     }
 
+    public ThreadPool getListenerPool() {
+        lock.writeLock().lock();
+        try {
+            if (listenerPool == null) {
+                int min = Integer.parseInt(SystemProperties.get(PROP_LISTENER_POOL_MIN_THREADS, "0"));
+                int max = Integer.parseInt(SystemProperties.get(PROP_LISTENER_POOL_MAX_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors())));
+                int len = Integer.parseInt(SystemProperties.get(PROP_LISTENER_POOL_QUEUE_LEN, "1"));
+                int add = Integer.parseInt(SystemProperties.get(PROP_LISTENER_POOL_THREADS_ADD, "1"));
+                int prio = Integer.parseInt(SystemProperties.get(PROP_LISTENER_POOL_PRIO, String.valueOf(Thread.NORM_PRIORITY)));
+                long timeout = Long.parseLong(SystemProperties.get(PROP_LISTENER_POOL_IDLE_TIMEOUT, "120000"));
+                listenerPool = new ThreadPoolImpl("ListenerPool", true, min, max, len, add, prio, timeout);
+            }
+            return listenerPool;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+    }
+
     public ThreadPool getConnectorPool() {
         lock.writeLock().lock();
         try {
@@ -43,5 +43,14 @@ public abstract class PoolManager {
     public abstract ThreadPool getConnectionPool();
 
     public abstract ThreadPool getSessionPool();
+
+    /**
+     * Returns the pool that runs MessageListeners of sessions with parallel dispatch.
+     *
+     * @return listener pool, the session pool if not overridden
+     */
+    public ThreadPool getListenerPool() {
+        return getSessionPool();
+    }
 }
 
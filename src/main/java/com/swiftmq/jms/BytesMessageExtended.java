@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.nio.ByteBuffer;
+
+public interface BytesMessageExtended extends BytesMessage {
+    /**
+     * Returns the body as a read-only buffer without copying it.
+     * <p>
+     * With <code>swiftmq.jms.bytesmessage.zerocopy=true</code>, the body of a large received message may refer to
+     * the pooled buffer it was received in. The buffer returns to the pool when <code>releaseBody()</code> is called
+     * or when the returned buffer is garbage collected. Buffers derived from the returned one must not be used
+     * after that anymore.
+     * </p>
+     *
+     * <p>
+     * A zero-copy body is returned as the same buffer on every call, rewound to position 0.
+     * </p>
+     *
+     * @return body, positioned at 0
+     * @throws JMSException if the body has been released
+     */
+    public ByteBuffer getBodyBuffer() throws JMSException;
+
+    /**
+     * Returns a zero-copy body to the buffer pool without waiting for garbage collection. The body can't be read
+     * or sent afterwards, and buffers returned by <code>getBodyBuffer()</code> must not be used anymore. Does
+     * nothing if the body isn't zero-copy.
+     */
+    public void releaseBody();
+}
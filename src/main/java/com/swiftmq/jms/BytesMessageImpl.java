@@ -17,6 +17,8 @@
 
 package com.swiftmq.jms;
 
+import com.swiftmq.net.protocol.util.BufferLease;
+import com.swiftmq.net.protocol.util.ChunkDataInputStream;
 import com.swiftmq.tools.util.DataByteArrayInputStream;
 import com.swiftmq.tools.util.DataByteArrayOutputStream;
 
@@ -25,21 +27,31 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Implementation of a BytesMessage.
  *
  * @author IIT GmbH, Bremen/Germany, Copyright (c) 2000-2002, All Rights Reserved
  */
-public class BytesMessageImpl extends MessageImpl implements BytesMessage {
+public class BytesMessageImpl extends MessageImpl implements BytesMessageExtended {
     static final int WRITE_ONLY = 0;
     static final int READ_ONLY = 1;
+    static final boolean ZERO_COPY = Boolean.valueOf(System.getProperty("swiftmq.jms.bytesmessage.zerocopy", "false")).booleanValue();
+    static final int ZERO_COPY_THRESHOLD = Integer.parseInt(System.getProperty("swiftmq.jms.bytesmessage.zerocopy.threshold", "65536"));
     int mode = WRITE_ONLY;
 
     DataByteArrayOutputStream dos = null;
     DataByteArrayInputStream dis = null;
     byte[] array = null;
+    int offset = 0;
     int cnt = 0;
+    // Zero-copy body: a slice of a leased chunk buffer, released when bodyBuffer is collected or by releaseBody
+    transient ByteBuffer bodyBuffer = null;
+    transient Cleaner.Cleanable cleanable = null;
+    transient boolean released = false;
 
     /**
      * Creates a new BytesMessageImpl.
@@ -68,30 +80,82 @@ public class BytesMessageImpl extends MessageImpl implements BytesMessage {
             array = dos.getBuffer();
             cnt = dos.getCount();
         }
+        if (released)
+            throw new IOException("Message body has been released");
         out.writeInt(cnt);
         if (cnt > 0)
-            out.write(array, 0, cnt);
+            out.write(array, offset, cnt);
     }
 
     protected void readBody(DataInput in) throws IOException {
         mode = READ_ONLY;
         cnt = in.readInt();
+        offset = 0;
         if (cnt > 0) {
+            if (ZERO_COPY && cnt >= ZERO_COPY_THRESHOLD && in instanceof ChunkDataInputStream && slice((ChunkDataInputStream) in))
+                return;
             array = new byte[cnt];
             in.readFully(array);
         } else
             array = null;
     }
 
-    private void checkRead() {
+    private boolean slice(ChunkDataInputStream in) throws IOException {
+        BufferLease lease = in.getLease();
+        if (lease == null || in.available() < cnt || !lease.retain())
+            return false;
+        array = in.getBuffer();
+        offset = in.getPosition();
+        in.skipBytes(cnt);
+        bodyBuffer = ByteBuffer.wrap(array, offset, cnt).slice().asReadOnlyBuffer();
+        cleanable = CleanerHolder.CLEANER.register(bodyBuffer, lease::release);
+        return true;
+    }
+
+    public void releaseBody() {
+        if (cleanable != null) {
+            cleanable.clean();
+            cleanable = null;
+            bodyBuffer = null;
+            array = null;
+            dis = null;
+            released = true;
+        }
+    }
+
+    protected void copyBody(MessageImpl copy) throws IOException {
+        BytesMessageImpl bytesCopy = (BytesMessageImpl) copy;
+        bytesCopy.mode = READ_ONLY;
+        if (dos != null) {
+            bytesCopy.cnt = dos.getCount();
+            if (bytesCopy.cnt > 0) {
+                bytesCopy.array = new byte[bytesCopy.cnt];
+                System.arraycopy(dos.getBuffer(), 0, bytesCopy.array, 0, bytesCopy.cnt);
+            }
+        } else if (cnt > 0) {
+            if (released)
+                throw new IOException("Message body has been released");
+            bytesCopy.cnt = cnt;
+            if (cleanable != null)
+                bytesCopy.array = Arrays.copyOfRange(array, offset, offset + cnt);
+            else {
+                // The array is never modified, writes go to a new output stream
+                bytesCopy.array = array;
+                bytesCopy.offset = offset;
+            }
+        }
+    }
+
+    private void checkRead() throws MessageNotReadableException {
+        if (released)
+            throw new MessageNotReadableException("Message body has been released");
         if (dis == null) {
             dos = null;
-            byte[] b = null;
             if (array != null && cnt > 0) {
-                b = array;
+                dis = new DataByteArrayInputStream();
+                dis.setBuffer(array, offset, cnt);
             } else
-                b = new byte[0];
-            dis = new DataByteArrayInputStream(b);
+                dis = new DataByteArrayInputStream(new byte[0]);
         }
     }
 
@@ -110,18 +174,33 @@ public class BytesMessageImpl extends MessageImpl implements BytesMessage {
             if (mode == WRITE_ONLY) {
                 checkWrite();
                 return dos.getCount();
-            } else {
-                checkRead();
-                return dis.getMax();
-            }
+            } else
+                return dis != null ? dis.getMax() : 0;
         } else
             return cnt;
     }
 
     public byte[] _getBody() {
+        if (array != null && (offset != 0 || array.length != cnt))
+            return Arrays.copyOfRange(array, offset, offset + cnt);
         return array;
     }
 
+    public ByteBuffer getBodyBuffer() throws JMSException {
+        if (mode == WRITE_ONLY)
+            throw new MessageNotReadableException("message is in write-only mode");
+        if (released)
+            throw new MessageNotReadableException("Message body has been released");
+        // The cleaner is registered on this instance, so it is returned itself rather than a duplicate
+        if (bodyBuffer != null)
+            return bodyBuffer.rewind();
+        if (dos != null && array == null)
+            return ByteBuffer.wrap(dos.getBuffer(), 0, dos.getCount()).slice().asReadOnlyBuffer();
+        if (array == null || cnt == 0)
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        return ByteBuffer.wrap(array, offset, cnt).slice().asReadOnlyBuffer();
+    }
+
     // JMS 1.1
     public long getBodyLength() throws JMSException {
         if (mode == WRITE_ONLY) {
@@ -805,11 +884,14 @@ public class BytesMessageImpl extends MessageImpl implements BytesMessage {
      * @throws JMSException if JMS fails to due to some internal JMS error.
      */
     public void clearBody() throws JMSException {
+        releaseBody();
         mode = WRITE_ONLY;
         dis = null;
         dos = null;
         array = null;
+        offset = 0;
         cnt = 0;
+        released = false;
     }
 
     public String toString() {
@@ -821,10 +903,16 @@ public class BytesMessageImpl extends MessageImpl implements BytesMessage {
         b.append(dos);
         b.append(" array=");
         b.append(array);
+        b.append(" offset=");
+        b.append(offset);
+        b.append(" released=");
+        b.append(released);
         b.append("]");
         return b.toString();
     }
-}
-
-
 
+    // Starts the cleaner thread on first use of a zero-copy body
+    private static class CleanerHolder {
+        static final Cleaner CLEANER = Cleaner.create();
+    }
+}
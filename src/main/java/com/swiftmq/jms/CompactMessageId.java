@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+import com.swiftmq.tools.util.LazyUTF8String;
+import com.swiftmq.tools.util.UTFUtils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UTFDataFormatException;
+
+/**
+ * A JMSMessageID that consists of a producer prefix and a counter. The prefix is encoded once per producer;
+ * the id is written to the wire without building a String and has the same format as a LazyUTF8String.
+ * The String is created on the first <code>getString()</code> only.
+ */
+public class CompactMessageId extends LazyUTF8String {
+    static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        long p = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = p;
+            p *= 10;
+        }
+    }
+
+    final Prefix prefix;
+    final long counter;
+    volatile String s = null;
+
+    public CompactMessageId(Prefix prefix, long counter) {
+        if (counter < 0)
+            throw new IllegalArgumentException("counter must not be negative");
+        this.prefix = prefix;
+        this.counter = counter;
+    }
+
+    static int digits(long v) {
+        int n = 1;
+        while (n < POWERS_OF_TEN.length && v >= POWERS_OF_TEN[n])
+            n++;
+        return n;
+    }
+
+    public String getString() {
+        String current = s;
+        if (current == null) {
+            current = prefix.string + counter;
+            s = current;
+        }
+        return current;
+    }
+
+    public String getString(boolean clear) {
+        return getString();
+    }
+
+    public byte[] getBuffer() {
+        int nDigits = digits(counter);
+        int utfLength = prefix.utf8.length + nDigits;
+        byte[] b = new byte[utfLength + 2];
+        b[0] = (byte) ((utfLength >>> 8) & 0xFF);
+        b[1] = (byte) (utfLength & 0xFF);
+        System.arraycopy(prefix.utf8, 0, b, 2, prefix.utf8.length);
+        long v = counter;
+        for (int i = b.length - 1; i >= b.length - nDigits; i--) {
+            b[i] = (byte) ('0' + (int) (v % 10));
+            v /= 10;
+        }
+        return b;
+    }
+
+    public void writeContent(DataOutput out) throws IOException {
+        int nDigits = digits(counter);
+        out.writeShort(prefix.utf8.length + nDigits);
+        out.write(prefix.utf8);
+        for (int i = nDigits - 1; i >= 0; i--)
+            out.write('0' + (int) ((counter / POWERS_OF_TEN[i]) % 10));
+    }
+
+    public String toString() {
+        return "[CompactMessageId, s=" + getString() + "]";
+    }
+
+    /**
+     * The producer part of a message id, "ID:" followed by the producer's id prefix.
+     */
+    public static class Prefix implements Serializable {
+        final String string;
+        final byte[] utf8;
+
+        public Prefix(String idPrefix) {
+            string = "ID:" + idPrefix;
+            int utfLength = UTFUtils.countUTFBytes(string);
+            // Leave room for the digits of the counter
+            if (utfLength > 65535 - 19)
+                throw new IllegalArgumentException(new UTFDataFormatException());
+            utf8 = new byte[utfLength];
+            try {
+                UTFUtils.writeUTFBytesToBuffer(string, utf8, 0);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        public String getString() {
+            return string;
+        }
+    }
+}
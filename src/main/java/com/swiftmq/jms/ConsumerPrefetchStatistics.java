@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+/**
+ * Prefetch state of a message consumer.
+ * <p>
+ * A consumer asks the router for a window of messages which is delivered into the consumer's cache. With adaptive
+ * prefetch the window is sized before every request from the observed consume rate and message size and is capped
+ * by the consumer's share of a memory budget common to all consumers of the connection.
+ * </p>
+ */
+public interface ConsumerPrefetchStatistics {
+    /**
+     * Returns whether the window is sized adaptively or fixed to the SMQP consumer cache size.
+     *
+     * @return true if adaptive
+     */
+    public boolean isAdaptive();
+
+    /**
+     * Returns the number of messages requested with the last window.
+     *
+     * @return window size
+     */
+    public int getWindowSize();
+
+    /**
+     * Returns the size limit of the last window.
+     *
+     * @return window size in KB, -1 if unlimited
+     */
+    public int getWindowSizeKB();
+
+    /**
+     * Returns the upper bound of the window size.
+     *
+     * @return max window size
+     */
+    public int getMaxWindowSize();
+
+    /**
+     * Returns the smoothed rate at which the application consumes messages from the cache.
+     *
+     * @return messages per second, 0 if not yet known
+     */
+    public double getConsumeRate();
+
+    /**
+     * Returns the smoothed size of the consumed messages.
+     *
+     * @return size in bytes, 0 if not yet known
+     */
+    public long getAverageMessageSize();
+
+    /**
+     * Returns the number of windows requested from the router.
+     *
+     * @return window count
+     */
+    public long getWindowCount();
+}
@@ -66,12 +66,15 @@ public class MessageImpl implements Message, Serializable {
     int deliveryCount = 0;
     MessageProperties props = null;
     byte[] propBytes = null;
+    // Property block with dictionary encoded names until resolvePropertyNames is called
+    byte[] encodedPropBytes = null;
     LazyUTF8String userId = null;
     LazyUTF8String clientId = null;
     transient SwiftMQMessageConsumer myConsumer = null;
     transient SwiftMQSession mySession = null;
     transient volatile boolean cancelled = false;
     transient volatile String duplicateId = null;
+    transient volatile long duplicateFingerprint = 0;
     transient long messageLength = -1;
     transient volatile Object persistentKey = null;
     transient volatile Object streamPKey = null;
@@ -150,6 +153,14 @@ public class MessageImpl implements Message, Serializable {
         this.duplicateId = duplicateId;
     }
 
+    public long getDuplicateFingerprint() {
+        return duplicateFingerprint;
+    }
+
+    public void setDuplicateFingerprint(long duplicateFingerprint) {
+        this.duplicateFingerprint = duplicateFingerprint;
+    }
+
     private void writeHeader(DataOutput out) throws IOException {
         out.writeLong(expiration);
         out.writeInt(priority);
@@ -209,8 +220,19 @@ public class MessageImpl implements Message, Serializable {
 
     }
 
-    private void writeProperties(DataOutput out) throws IOException {
-        if (propBytes != null) {
+    private void writeProperties(DataOutput out, PropertyNameDictionary dictionary) throws IOException {
+        if (encodedPropBytes != null)
+            throw new IOException("Property names have not been resolved");
+        if (dictionary != null && (propBytes != null || props != null)) {
+            out.writeByte(2);
+            if (propBytes != null)
+                dictionary.encode(propBytes, 0, propBytes.length, out);
+            else {
+                DataByteArrayOutputStream dos = new DataByteArrayOutputStream(128);
+                props.writeContent(dos);
+                dictionary.encode(dos.getBuffer(), 0, dos.getCount(), out);
+            }
+        } else if (propBytes != null) {
             out.writeByte(1);
             out.writeInt(propBytes.length);
             out.write(propBytes, 0, propBytes.length);
@@ -261,7 +283,7 @@ public class MessageImpl implements Message, Serializable {
     public void writeContent(DataOutput out) throws IOException {
         out.writeInt(getType());
         writeHeader(out);
-        writeProperties(out);
+        writeProperties(out, null);
         writeRouting(out);
         writeBody(out);
     }
@@ -271,7 +293,7 @@ public class MessageImpl implements Message, Serializable {
         DataOutput out = serializer.getDataOutput();
         out.writeInt(getType());
         writeHeader(out);
-        writeProperties(out);
+        writeProperties(out, serializer.getPropertyNameDictionary());
         writeEmptyRouting(out);
         writeBody(out);
     }
@@ -329,15 +351,35 @@ public class MessageImpl implements Message, Serializable {
 
     private void readProperties(DataInput in) throws IOException {
         byte set = in.readByte();
+        encodedPropBytes = null;
         if (set == 0) {
             props = null;
             propBytes = null;
+        } else if (set == 2) {
+            props = null;
+            propBytes = null;
+            encodedPropBytes = new byte[in.readInt()];
+            in.readFully(encodedPropBytes);
         } else {
             propBytes = new byte[in.readInt()];
             in.readFully(propBytes);
         }
     }
 
+    /**
+     * Decodes property names encoded by the sender's dictionary. Must be called in the order the messages
+     * were received on the connection, before the properties are accessed.
+     *
+     * @param dictionary the receiving dictionary of the connection
+     * @throws IOException on an invalid property block
+     */
+    public void resolvePropertyNames(PropertyNameDictionary dictionary) throws IOException {
+        if (encodedPropBytes == null)
+            return;
+        props = dictionary.decode(encodedPropBytes, 0, encodedPropBytes.length);
+        encodedPropBytes = null;
+    }
+
     private void readRouting(DataInput in) throws IOException {
         byte set = in.readByte();
         if (set == 1)
@@ -455,18 +497,75 @@ public class MessageImpl implements Message, Serializable {
         deliveryCount = 0;
     }
 
+    // Properties are decoded on access, one at a time
     private void checkProps() {
-        if (props == null) {
-            props = new MessageProperties();
-            if (propBytes != null) {
-                try {
-                    DataByteArrayInputStream dis = new DataByteArrayInputStream(propBytes);
-                    props.readContent(dis);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        if (props == null)
+            props = propBytes != null ? new MessageProperties(propBytes, 0, propBytes.length) : new MessageProperties();
+    }
+
+    /**
+     * Creates a snapshot of this message that can be handed over by reference, e.g. to an intra-VM router.
+     * The snapshot contains everything that would be serialized. Header values are shared as they are
+     * immutable, properties are copied over the same serialized block and the body is copied by <code>copyBody</code>.
+     *
+     * @return snapshot
+     * @throws IOException on error
+     */
+    public MessageImpl createSnapshot() throws IOException {
+        MessageImpl copy = createInstance(getType());
+        if (copy.getClass() != getClass()) {
+            // Unknown subclass, fall back to an in-memory round trip
+            try {
+                copy = getClass().getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                throw new IOException(e.toString());
             }
+            DataByteArrayOutputStream dos = new DataByteArrayOutputStream();
+            writeContent(dos);
+            DataByteArrayInputStream dis = new DataByteArrayInputStream();
+            dis.setBuffer(dos.getBuffer(), 0, dos.getCount());
+            dis.readInt();
+            copy.readContent(dis);
+            return copy;
         }
+        copy.expiration = expiration;
+        copy.priority = priority;
+        copy.timeStamp = timeStamp;
+        copy.deliveryCount = deliveryCount;
+        copy.deliveryMode = deliveryMode;
+        copy.redelivered = redelivered;
+        copy.messageId = messageId;
+        copy.userId = userId;
+        copy.clientId = clientId;
+        copy.correlationId = correlationId;
+        copy.type = type;
+        copy.replyTo = replyTo;
+        copy.destination = destination;
+        copy.sourceRouter = sourceRouter;
+        copy.destRouter = destRouter;
+        copy.destQueue = destQueue;
+        copy.propBytes = propBytes;
+        copy.encodedPropBytes = encodedPropBytes;
+        // Properties index and cache their values lazily, so the snapshot needs its own instance
+        if (props != null)
+            copy.props = props.copy();
+        copyBody(copy);
+        return copy;
+    }
+
+    /**
+     * Copies the body into a snapshot. The default performs an in-memory round trip through
+     * <code>writeBody</code> and <code>readBody</code>; subclasses override it to share or copy their body directly.
+     *
+     * @param copy snapshot
+     * @throws IOException on error
+     */
+    protected void copyBody(MessageImpl copy) throws IOException {
+        DataByteArrayOutputStream dos = new DataByteArrayOutputStream();
+        writeBody(dos);
+        DataByteArrayInputStream dis = new DataByteArrayInputStream();
+        dis.setBuffer(dos.getBuffer(), 0, dos.getCount());
+        copy.readBody(dis);
     }
 
     private void verifyName(String name) throws JMSException {
@@ -529,8 +628,10 @@ public class MessageImpl implements Message, Serializable {
     }
 
     public void removeProperty(String name) {
-        if (props != null)
+        if (props != null) {
+            checkProps();
             props.remove(name);
+        }
     }
 
     /**
@@ -592,6 +693,15 @@ public class MessageImpl implements Message, Serializable {
             messageId = null;
     }
 
+    /**
+     * Sets a message id generated by a producer, see CompactMessageId.
+     *
+     * @param id the id
+     */
+    public void setCompactMessageId(CompactMessageId id) {
+        messageId = id;
+    }
+
     /**
      * Get the message timestamp.
      * <p/>
@@ -993,6 +1103,7 @@ public class MessageImpl implements Message, Serializable {
     public void clearProperties() throws JMSException {
         props = null;
         propBytes = null;
+        encodedPropBytes = null;
         readOnly = false;
     }
 
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+import com.swiftmq.swiftlet.queue.QueueOutputStream;
+
+import javax.jms.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An input stream over the fragments of one stream sent by a <code>MessageOutputStream</code>. Fragments are
+ * received from the consumer one at a time as the stream is read, so memory use is bounded by the consumer's
+ * prefetch window, whatever the size of the stream.
+ * <p>
+ * The fragments of a stream must arrive in order and without fragments of other streams in between, e.g. with
+ * a single consumer on the queue or a selector on JMSXGroupID. A fragment out of sequence fails the read with an
+ * IOException.
+ * </p>
+ *
+ * @see MessageOutputStream
+ * @see SessionExtended#createMessageInputStream(MessageConsumer, long)
+ */
+public class MessageInputStream extends InputStream {
+    final MessageConsumer consumer;
+    final long timeout;
+    String streamId = null;
+    Map<String, Object> properties = null;
+    Message last = null;
+    ByteBuffer body = null;
+    byte[] copyBuffer = null;
+    int seqNo = -1;
+    boolean eof = false;
+    boolean closed = false;
+
+    /**
+     * Creates a new MessageInputStream.
+     *
+     * @param consumer consumer
+     * @param timeout  maximum time to wait for a fragment in milliseconds, 0 waits forever
+     */
+    public MessageInputStream(MessageConsumer consumer, long timeout) {
+        this.consumer = consumer;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the id of the stream, available after the first fragment has been received.
+     *
+     * @return stream id
+     * @throws IOException if the first fragment cannot be received
+     */
+    public String getStreamId() throws IOException {
+        nextFragment();
+        return streamId;
+    }
+
+    /**
+     * Returns a stream property set by the sender.
+     *
+     * @param name name
+     * @return value or null
+     * @throws IOException if the first fragment cannot be received
+     */
+    public Object getObjectProperty(String name) throws IOException {
+        nextFragment();
+        return properties.get(name);
+    }
+
+    public Enumeration getPropertyNames() throws IOException {
+        nextFragment();
+        return Collections.enumeration(properties.keySet());
+    }
+
+    /**
+     * Returns the number of fragments received so far.
+     *
+     * @return fragment count
+     */
+    public int getFragmentCount() {
+        return seqNo + 1;
+    }
+
+    private Message receive() throws JMSException {
+        return timeout > 0 ? consumer.receive(timeout) : consumer.receive();
+    }
+
+    // Returns false at the end of the stream
+    private boolean nextFragment() throws IOException {
+        if (closed)
+            throw new IOException("Stream is closed");
+        while (body == null || !body.hasRemaining()) {
+            if (eof)
+                return false;
+            try {
+                Message msg = receive();
+                if (msg == null)
+                    throw new IOException("No fragment received within " + timeout + " ms");
+                if (!(msg instanceof BytesMessage) || !msg.propertyExists(QueueOutputStream.SEQNO))
+                    throw new IOException("Message is not a stream fragment: " + msg.getJMSMessageID());
+                int seq = msg.getIntProperty(QueueOutputStream.SEQNO);
+                String id = msg.getStringProperty(MessageOutputStream.GROUP_ID);
+                if (seq != seqNo + 1 || seq > 0 && !streamId.equals(id))
+                    throw new IOException("Fragment out of sequence, expected " + (seqNo + 1) + " of stream " + streamId + ", received " + seq + " of stream " + id);
+                if (seq == 0)
+                    readProperties(msg, id);
+                seqNo = seq;
+                eof = msg.propertyExists(QueueOutputStream.EOF) && msg.getBooleanProperty(QueueOutputStream.EOF);
+                releaseLast();
+                last = msg;
+                body = bodyOf((BytesMessage) msg);
+            } catch (JMSException e) {
+                throw new IOException(e.toString());
+            }
+        }
+        return true;
+    }
+
+    private void readProperties(Message msg, String id) throws JMSException {
+        streamId = id;
+        properties = new LinkedHashMap<>();
+        for (Enumeration e = msg.getPropertyNames(); e.hasMoreElements(); ) {
+            String name = (String) e.nextElement();
+            if (!name.startsWith("QIO$") && !name.startsWith("JMSX"))
+                properties.put(name, msg.getObjectProperty(name));
+        }
+    }
+
+    // The previous fragment has been read, a zero-copy body goes back to the pool right away
+    private void releaseLast() {
+        if (last instanceof BytesMessageExtended)
+            ((BytesMessageExtended) last).releaseBody();
+    }
+
+    private ByteBuffer bodyOf(BytesMessage msg) throws JMSException {
+        if (msg instanceof BytesMessageExtended)
+            return ((BytesMessageExtended) msg).getBodyBuffer();
+        int len = (int) msg.getBodyLength();
+        if (copyBuffer == null || copyBuffer.length < len)
+            copyBuffer = new byte[len];
+        msg.readBytes(copyBuffer, len);
+        return ByteBuffer.wrap(copyBuffer, 0, len);
+    }
+
+    public int read() throws IOException {
+        if (!nextFragment())
+            return -1;
+        return body.get() & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!nextFragment())
+            return -1;
+        int n = Math.min(len, body.remaining());
+        body.get(b, off, n);
+        return n;
+    }
+
+    public int available() throws IOException {
+        if (closed)
+            throw new IOException("Stream is closed");
+        return body != null ? body.remaining() : 0;
+    }
+
+    /**
+     * Acknowledges the fragments received so far, for sessions in CLIENT_ACKNOWLEDGE mode.
+     *
+     * @throws IOException if the acknowledgement fails
+     */
+    public void acknowledge() throws IOException {
+        if (last == null)
+            return;
+        try {
+            last.acknowledge();
+        } catch (JMSException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * Closes the stream. Unread fragments of the stream are received and discarded, so the consumer is positioned
+     * at the next stream afterwards. The consumer remains open.
+     *
+     * @throws IOException if a remaining fragment cannot be received
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            while (nextFragment())
+                body.position(body.limit());
+        } finally {
+            closed = true;
+            releaseLast();
+            body = null;
+            copyBuffer = null;
+        }
+    }
+
+    public String toString() {
+        return "[MessageInputStream, streamId=" + streamId + ", seqNo=" + seqNo + ", eof=" + eof + ", closed=" + closed + "]";
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+import com.swiftmq.swiftlet.queue.QueueOutputStream;
+import com.swiftmq.tools.util.IdGenerator;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An output stream that sends the bytes written to it as a sequence of BytesMessages (fragments) through a
+ * message producer. A fragment is sent as soon as it is full, so only one fragment is held in memory, and every
+ * send is subject to the producer's flow control. Together with a <code>MessageInputStream</code>, it enables the
+ * transfer of payloads of any size.
+ * <p>
+ * Fragments carry the stream id as JMSXGroupID and the properties of <code>QueueOutputStream</code>, so they can
+ * also be read by a router-side <code>QueueInputStream</code>. The last fragment, sent on <code>close()</code>, has
+ * the EOF property set.
+ * </p>
+ *
+ * @see MessageInputStream
+ * @see SessionExtended#createMessageOutputStream(MessageProducer, int)
+ */
+public class MessageOutputStream extends OutputStream {
+    public static final int DEFAULT_FRAGMENT_SIZE = Integer.parseInt(System.getProperty("swiftmq.jms.stream.fragmentsize", "65536"));
+    static final String GROUP_ID = "JMSXGroupID";
+    static final String GROUP_SEQ = "JMSXGroupSeq";
+
+    final Session session;
+    final MessageProducer producer;
+    final int fragmentSize;
+    final String streamId;
+    Map<String, Object> properties = null;
+    BytesMessage current = null;
+    int count = 0;
+    int seqNo = 0;
+    boolean closed = false;
+
+    /**
+     * Creates a new MessageOutputStream.
+     *
+     * @param session      session of the producer
+     * @param producer     producer
+     * @param fragmentSize maximum number of bytes per fragment
+     */
+    public MessageOutputStream(Session session, MessageProducer producer, int fragmentSize) {
+        this.session = session;
+        this.producer = producer;
+        this.fragmentSize = fragmentSize > 0 ? fragmentSize : DEFAULT_FRAGMENT_SIZE;
+        this.streamId = IdGenerator.getInstance().nextId('-');
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Returns the number of fragments sent so far.
+     *
+     * @return fragment count
+     */
+    public int getFragmentCount() {
+        return seqNo;
+    }
+
+    /**
+     * Sets a message property of the stream. Stream properties are sent with the first fragment and must be set
+     * before it has been sent.
+     *
+     * @param name  name
+     * @param value value, a primitive wrapper or String
+     * @throws IllegalStateException if the first fragment has been sent already
+     */
+    public void setObjectProperty(String name, Object value) {
+        if (seqNo > 0)
+            throw new IllegalStateException("Stream properties must be set before the first fragment has been sent");
+        if (properties == null)
+            properties = new LinkedHashMap<>();
+        properties.put(name, value);
+    }
+
+    private void checkClosed() throws IOException {
+        if (closed)
+            throw new IOException("Stream is closed");
+    }
+
+    private void ensureMessage() throws JMSException {
+        if (current == null)
+            current = session.createBytesMessage();
+    }
+
+    public void write(int b) throws IOException {
+        checkClosed();
+        try {
+            ensureMessage();
+            current.writeByte((byte) b);
+            if (++count == fragmentSize)
+                send(false);
+        } catch (JMSException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        try {
+            while (len > 0) {
+                ensureMessage();
+                int n = Math.min(len, fragmentSize - count);
+                current.writeBytes(b, off, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == fragmentSize)
+                    send(false);
+            }
+        } catch (JMSException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    private void send(boolean eof) throws JMSException {
+        ensureMessage();
+        if (seqNo == 0 && properties != null) {
+            for (Map.Entry<String, Object> entry : properties.entrySet())
+                current.setObjectProperty(entry.getKey(), entry.getValue());
+        }
+        current.setStringProperty(GROUP_ID, streamId);
+        current.setIntProperty(GROUP_SEQ, seqNo + 1);
+        current.setIntProperty(QueueOutputStream.SEQNO, seqNo);
+        current.setIntProperty(QueueOutputStream.SIZE, count);
+        if (eof)
+            current.setBooleanProperty(QueueOutputStream.EOF, true);
+        // Blocks while the router throttles the producer
+        producer.send(current);
+        current = null;
+        count = 0;
+        seqNo++;
+    }
+
+    /**
+     * Sends the bytes written so far as a fragment, even if it is not full.
+     *
+     * @throws IOException if the fragment cannot be sent
+     */
+    public void flush() throws IOException {
+        checkClosed();
+        if (count == 0)
+            return;
+        try {
+            send(false);
+        } catch (JMSException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    /**
+     * Sends the remaining bytes as the last fragment. The producer remains open.
+     *
+     * @throws IOException if the fragment cannot be sent
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            send(true);
+        } catch (JMSException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    public String toString() {
+        return "[MessageOutputStream, streamId=" + streamId + ", fragmentSize=" + fragmentSize + ", seqNo=" + seqNo + ", count=" + count + ", closed=" + closed + "]";
+    }
+}
@@ -17,8 +17,60 @@
 
 package com.swiftmq.jms;
 
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
 import javax.jms.MessageProducer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface MessageProducerExtended extends MessageProducer {
     public void setSkipMessageInits(boolean skipMessageInits);
+
+    /**
+     * Sends a message without waiting for the router's reply. The returned future is completed with the
+     * message once the router has accepted it, or exceptionally if the send failed. Completions of one
+     * producer happen in send order on a client pool thread. The call blocks while the producer has reached
+     * its limit of sends in flight.
+     *
+     * @param message message
+     * @return future
+     * @throws JMSException if the message cannot be sent
+     */
+    public CompletableFuture<Message> sendAsync(Message message) throws JMSException;
+
+    /**
+     * Sends a message to a destination, unidentified producers only. See <code>sendAsync(Message)</code>.
+     *
+     * @param destination destination
+     * @param message     message
+     * @return future
+     * @throws JMSException if the message cannot be sent
+     */
+    public CompletableFuture<Message> sendAsync(Destination destination, Message message) throws JMSException;
+
+    /**
+     * Sends a batch of messages to the producer's destination. The messages are handed to the connection in windows
+     * of the producer's send credits and sent back-to-back; each window waits for the router's reply to its last
+     * message and to every persistent one, so flow control applies as with single sends. Within a transacted session
+     * the messages are part of the transaction as with single sends.
+     *
+     * @param messages messages
+     * @throws JMSException if a message cannot be sent; messages before it may have been sent
+     */
+    public void send(List<Message> messages) throws JMSException;
+
+    /**
+     * Returns the number of asynchronous sends that wait for their reply.
+     *
+     * @return sends in flight
+     */
+    public int getAsyncSendsInFlight();
+
+    /**
+     * Returns the flow control state and counters of this producer.
+     *
+     * @return statistics
+     */
+    public ProducerFlowControlStatistics getFlowControlStatistics();
 }
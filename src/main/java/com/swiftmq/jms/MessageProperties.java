@@ -19,32 +19,121 @@ package com.swiftmq.jms;
 
 import com.swiftmq.jms.primitives.*;
 import com.swiftmq.tools.dump.Dumpable;
+import com.swiftmq.tools.util.DataByteArrayInputStream;
 
 import javax.jms.JMSException;
 import javax.jms.MessageFormatException;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
-
+import java.util.*;
+
+/**
+ * Message properties.
+ * <p>
+ * Properties read from a serialized block are not decoded up front. On first access the block is indexed into
+ * parallel arrays of name offsets, types and value offsets, sorted by name, and a lookup decodes only the value of
+ * the requested property. Changes are kept in an overlay of changed and removed names which is merged with the
+ * unchanged serialized entries by <code>writeContent</code>.
+ * </p>
+ */
 public class MessageProperties implements Enumeration {
     static ThreadLocal iterHolder = new ThreadLocal();
+    // Serialized properties, never modified
+    byte[] raw = null;
+    int rawOffset = 0;
+    int rawLength = 0;
+    // Index of raw, built on first access, ordered by name
+    int count = -1;
+    int[] nameOffsets = null;
+    int[] nameLengths = null;
+    int[] types = null;
+    int[] valueOffsets = null;
+    Primitive[] values = null;
+    // Interned names in index order, null unless supplied by a PropertyNameDictionary
+    String[] names = null;
+    // Overlay: properties set since read and names removed from raw
     Map<String, Dumpable> map = new TreeMap<>();
+    Set<String> removed = null;
+
+    public MessageProperties() {
+    }
+
+    /**
+     * Creates properties over a serialized block as written by <code>writeContent</code>. The block is
+     * referenced, not copied, and must not be modified afterwards.
+     *
+     * @param raw    buffer
+     * @param offset offset of the block
+     * @param length length of the block
+     */
+    public MessageProperties(byte[] raw, int offset, int length) {
+        this.raw = raw;
+        this.rawOffset = offset;
+        this.rawLength = length;
+    }
+
+    /**
+     * Creates properties over a serialized block with the names of its entries already decoded, in block order.
+     *
+     * @param raw    buffer
+     * @param offset offset of the block
+     * @param length length of the block
+     * @param names  names of the entries
+     */
+    MessageProperties(byte[] raw, int offset, int length, String[] names) {
+        this(raw, offset, length);
+        this.names = names;
+    }
+
+    private boolean isChanged() {
+        return !map.isEmpty() || removed != null && !removed.isEmpty();
+    }
 
     public void writeContent(DataOutput out)
             throws IOException {
-        out.writeInt(map.size());
-        for (Map.Entry<String, Dumpable> stringDumpableEntry : map.entrySet()) {
-            out.writeUTF(stringDumpableEntry.getKey());
-            Dumpable d = stringDumpableEntry.getValue();
-            out.writeInt(d.getDumpId());
-            d.writeContent(out);
+        if (raw != null && !isChanged()) {
+            out.write(raw, rawOffset, rawLength);
+            return;
+        }
+        try {
+            index();
+        } catch (JMSException e) {
+            throw new IOException(e.toString());
+        }
+        int size = map.size();
+        for (int i = 0; i < count; i++) {
+            if (isVisible(i))
+                size++;
+        }
+        out.writeInt(size);
+        Iterator<Map.Entry<String, Dumpable>> iter = map.entrySet().iterator();
+        Map.Entry<String, Dumpable> next = iter.hasNext() ? iter.next() : null;
+        for (int i = 0; i < count; i++) {
+            if (!isVisible(i))
+                continue;
+            while (next != null && compare(i, next.getKey()) > 0) {
+                writeEntry(next, out);
+                next = iter.hasNext() ? iter.next() : null;
+            }
+            // Unchanged entry: name, type and value as read
+            int from = nameOffsets[i] - 2;
+            int to = valueOffsets[i] + valueLength(i);
+            out.write(raw, from, to - from);
+        }
+        while (next != null) {
+            writeEntry(next, out);
+            next = iter.hasNext() ? iter.next() : null;
         }
     }
 
+    private static void writeEntry(Map.Entry<String, Dumpable> entry, DataOutput out) throws IOException {
+        out.writeUTF(entry.getKey());
+        Dumpable d = entry.getValue();
+        out.writeInt(d.getDumpId());
+        d.writeContent(out);
+    }
+
     public void readContent(DataInput in)
             throws IOException {
         int size = in.readInt();
@@ -52,10 +141,240 @@ public class MessageProperties implements Enumeration {
             String name = in.readUTF();
             Dumpable d = createDumpable(in.readInt());
             d.readContent(in);
-            map.put(name, d);
+            put(name, d);
+        }
+    }
+
+    MessageProperties copy() {
+        MessageProperties copy = new MessageProperties(raw, rawOffset, rawLength);
+        if (count != -1) {
+            copy.count = count;
+            copy.nameOffsets = nameOffsets;
+            copy.nameLengths = nameLengths;
+            copy.types = types;
+            copy.valueOffsets = valueOffsets;
+            copy.values = values != null ? values.clone() : null;
+        }
+        copy.names = names;
+        copy.map.putAll(map);
+        if (removed != null)
+            copy.removed = new HashSet<>(removed);
+        return copy;
+    }
+
+    // Fails on a malformed block, the index stays unbuilt so every access reports it
+    private void index() throws JMSException {
+        if (count != -1)
+            return;
+        if (raw == null) {
+            count = 0;
+            return;
+        }
+        try {
+            int pos = rawOffset;
+            int n = readInt(raw, pos);
+            pos += 4;
+            int[] no = new int[n];
+            int[] nl = new int[n];
+            int[] ty = new int[n];
+            int[] vo = new int[n];
+            for (int i = 0; i < n; i++) {
+                nl[i] = readUnsignedShort(raw, pos);
+                no[i] = pos + 2;
+                pos = no[i] + nl[i];
+                ty[i] = readInt(raw, pos);
+                vo[i] = pos + 4;
+                pos = vo[i] + valueLength(raw, ty[i], vo[i]);
+            }
+            if (pos > rawOffset + rawLength)
+                throw new IOException("Property block truncated");
+            nameOffsets = no;
+            nameLengths = nl;
+            types = ty;
+            valueOffsets = vo;
+            values = new Primitive[n];
+            // The names may be shared with a copy that sorts its own index
+            if (names != null)
+                names = names.length == n ? names.clone() : null;
+            count = n;
+            sortIndex();
+        } catch (IOException | RuntimeException e) {
+            MessageFormatException mfe = new MessageFormatException("Invalid message properties: " + e);
+            mfe.setLinkedException(e);
+            throw mfe;
         }
     }
 
+    private int valueLength(int i) {
+        return valueLength(raw, types[i], valueOffsets[i]);
+    }
+
+    static int valueLength(byte[] raw, int type, int offset) throws IllegalArgumentException {
+        switch (type) {
+            case Primitive.BOOLEAN:
+            case Primitive.BYTE:
+                return 1;
+            case Primitive.SHORT:
+            case Primitive.CHAR:
+                return 2;
+            case Primitive.INT:
+            case Primitive.FLOAT:
+                return 4;
+            case Primitive.LONG:
+            case Primitive.DOUBLE:
+                return 8;
+            case Primitive.STRING:
+                return 2 + readUnsignedShort(raw, offset);
+            case Primitive.BYTES:
+                return 4 + readInt(raw, offset);
+            default:
+                throw new IllegalArgumentException("Invalid property type: " + type);
+        }
+    }
+
+    // Blocks written by writeContent are sorted already, others are sorted by insertion
+    private void sortIndex() {
+        for (int i = 1; i < count; i++) {
+            if (compare(i - 1, i) <= 0)
+                continue;
+            int no = nameOffsets[i], nl = nameLengths[i], ty = types[i], vo = valueOffsets[i];
+            String nm = names != null ? names[i] : null;
+            int j = i - 1;
+            while (j >= 0 && compareRaw(nameOffsets[j], nameLengths[j], no, nl) > 0) {
+                nameOffsets[j + 1] = nameOffsets[j];
+                nameLengths[j + 1] = nameLengths[j];
+                types[j + 1] = types[j];
+                valueOffsets[j + 1] = valueOffsets[j];
+                if (names != null)
+                    names[j + 1] = names[j];
+                j--;
+            }
+            nameOffsets[j + 1] = no;
+            nameLengths[j + 1] = nl;
+            types[j + 1] = ty;
+            valueOffsets[j + 1] = vo;
+            if (names != null)
+                names[j + 1] = nm;
+        }
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private static int readUnsignedShort(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+    }
+
+    // Decodes the modified UTF-8 char at pos, returns the char in the low and its encoded length in the high 16 bits
+    private static int decodeChar(byte[] b, int pos) {
+        int x = b[pos] & 0xff;
+        if (x < 0x80)
+            return x | (1 << 16);
+        if ((x & 0xe0) == 0xc0)
+            return (((x & 0x1f) << 6) | (b[pos + 1] & 0x3f)) | (2 << 16);
+        return (((x & 0x0f) << 12) | ((b[pos + 1] & 0x3f) << 6) | (b[pos + 2] & 0x3f)) | (3 << 16);
+    }
+
+    // Compares two encoded names in String order
+    private int compareRaw(int offA, int lenA, int offB, int lenB) {
+        int endA = offA + lenA, endB = offB + lenB;
+        while (offA < endA && offB < endB) {
+            int a = decodeChar(raw, offA);
+            int b = decodeChar(raw, offB);
+            int diff = (a & 0xffff) - (b & 0xffff);
+            if (diff != 0)
+                return diff;
+            offA += a >>> 16;
+            offB += b >>> 16;
+        }
+        return (offA < endA ? 1 : 0) - (offB < endB ? 1 : 0);
+    }
+
+    private int compare(int i, int j) {
+        return compareRaw(nameOffsets[i], nameLengths[i], nameOffsets[j], nameLengths[j]);
+    }
+
+    // Compares the name of entry i with a name in String order
+    private int compare(int i, String name) {
+        int pos = nameOffsets[i], end = pos + nameLengths[i];
+        int k = 0, n = name.length();
+        while (pos < end && k < n) {
+            int c = decodeChar(raw, pos);
+            int diff = (c & 0xffff) - name.charAt(k++);
+            if (diff != 0)
+                return diff;
+            pos += c >>> 16;
+        }
+        return (pos < end ? 1 : 0) - (k < n ? 1 : 0);
+    }
+
+    private int find(String name) throws JMSException {
+        index();
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, name);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    private String name(int i) {
+        if (names != null)
+            return names[i];
+        return decodeName(raw, nameOffsets[i], nameLengths[i]);
+    }
+
+    private static String decodeName(byte[] b, int pos, int len) {
+        char[] chars = new char[len];
+        int n = 0;
+        for (int end = pos + len; pos < end; ) {
+            int c = decodeChar(b, pos);
+            chars[n++] = (char) c;
+            pos += c >>> 16;
+        }
+        return new String(chars, 0, n);
+    }
+
+    // False if the entry was removed or set again
+    private boolean isVisible(int i) {
+        if (map.isEmpty() && removed == null)
+            return true;
+        String name = name(i);
+        return !map.containsKey(name) && (removed == null || !removed.contains(name));
+    }
+
+    private Primitive decode(int i) throws JMSException {
+        Primitive p = values[i];
+        if (p == null) {
+            Dumpable d = createDumpable(types[i]);
+            try {
+                DataByteArrayInputStream dis = new DataByteArrayInputStream();
+                dis.setBuffer(raw, valueOffsets[i], valueLength(i));
+                d.readContent(dis);
+            } catch (IOException e) {
+                MessageFormatException mfe = new MessageFormatException("Invalid message property: " + e);
+                mfe.setLinkedException(e);
+                throw mfe;
+            }
+            p = (Primitive) d;
+            values[i] = p;
+        }
+        return p;
+    }
+
+    private void put(String name, Dumpable value) {
+        map.put(name, value);
+        if (removed != null)
+            removed.remove(name);
+    }
+
     private void checkName(String name) throws IllegalArgumentException {
         // JMS 1.1
         if (name == null || name.length() == 0)
@@ -69,66 +388,66 @@ public class MessageProperties implements Enumeration {
     void setBoolean(String name, boolean value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Boolean(value));
+        put(name, new _Boolean(value));
     }
 
     void setShort(String name, short value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Short(value));
+        put(name, new _Short(value));
     }
 
     void setInt(String name, int value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Int(value));
+        put(name, new _Int(value));
     }
 
     void setLong(String name, long value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Long(value));
+        put(name, new _Long(value));
     }
 
     void setDouble(String name, double value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Double(value));
+        put(name, new _Double(value));
     }
 
     void setFloat(String name, float value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Float(value));
+        put(name, new _Float(value));
     }
 
     void setChar(String name, char value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Char(value));
+        put(name, new _Char(value));
     }
 
     void setByte(String name, byte value) throws JMSException {
         checkName(name);
-        map.put(name, new _Byte(value));
+        put(name, new _Byte(value));
     }
 
     void setBytes(String name, byte[] value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Bytes(value));
+        put(name, new _Bytes(value));
     }
 
     void setBytes(String name, byte[] value, int offset, int length) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _Bytes(value, offset, length));
+        put(name, new _Bytes(value, offset, length));
     }
 
     void setString(String name, String value) throws JMSException {
         // JMS 1.1
         checkName(name);
-        map.put(name, new _String(value));
+        put(name, new _String(value));
     }
 
     void setObject(String name, Object value, boolean withBytes) throws JMSException {
@@ -159,11 +478,14 @@ public class MessageProperties implements Enumeration {
 
     }
 
-    private Object getValue(String name) {
+    private Object getValue(String name) throws JMSException {
         Primitive primitive = (Primitive) map.get(name);
         if (primitive != null)
             return primitive.getObject();
-        return null;
+        if (raw == null || removed != null && removed.contains(name))
+            return null;
+        int i = find(name);
+        return i != -1 ? decode(i).getObject() : null;
     }
 
     boolean getBoolean(String name) throws JMSException {
@@ -299,20 +621,56 @@ public class MessageProperties implements Enumeration {
         return getValue(name);
     }
 
-    boolean exists(String name) {
-        return map.containsKey(name);
+    boolean exists(String name) throws JMSException {
+        if (map.containsKey(name))
+            return true;
+        return raw != null && (removed == null || !removed.contains(name)) && find(name) != -1;
     }
 
     void remove(String name) {
         map.remove(name);
+        boolean inRaw = raw != null;
+        if (inRaw) {
+            try {
+                inRaw = find(name) != -1;
+            } catch (JMSException e) {
+                // Malformed block, reported by the next access
+            }
+        }
+        if (inRaw) {
+            if (removed == null)
+                removed = new HashSet<>();
+            removed.add(name);
+        }
     }
 
     void clear() {
         map.clear();
+        removed = null;
+        raw = null;
+        count = -1;
+        nameOffsets = null;
+        nameLengths = null;
+        types = null;
+        valueOffsets = null;
+        values = null;
+        names = null;
+    }
+
+    private Map<String, Object> toMap() throws JMSException {
+        Map<String, Object> all = new TreeMap<>();
+        index();
+        for (int i = 0; i < count; i++) {
+            String name = name(i);
+            if (removed == null || !removed.contains(name))
+                all.put(name, decode(i));
+        }
+        all.putAll(map);
+        return all;
     }
 
-    Enumeration enumeration() {
-        iterHolder.set(map.keySet().iterator());
+    Enumeration enumeration() throws JMSException {
+        iterHolder.set(raw == null ? map.keySet().iterator() : toMap().keySet().iterator());
         return this;
     }
 
@@ -332,6 +690,12 @@ public class MessageProperties implements Enumeration {
     }
 
     public String toString() {
-        return map.toString();
+        if (raw == null)
+            return map.toString();
+        try {
+            return toMap().toString();
+        } catch (JMSException e) {
+            return e.toString();
+        }
     }
 }
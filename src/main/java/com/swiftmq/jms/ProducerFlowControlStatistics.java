@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+/**
+ * Flow control state and counters of a message producer.
+ * <p>
+ * The router grants a producer a window of send credits, the SMQP producer reply interval. Each send takes a
+ * credit and the send that takes the last one waits for the router's reply, which grants the next window.
+ * If the router throttles, the reply carries a delay that is spread over the credits of the next window.
+ * </p>
+ */
+public interface ProducerFlowControlStatistics {
+    /**
+     * Returns the number of credits granted per window, 0 if the producer never waits for a reply to replenish.
+     *
+     * @return window size
+     */
+    public int getWindowSize();
+
+    /**
+     * Returns the number of credits left in the current window.
+     *
+     * @return credits
+     */
+    public int getCredits();
+
+    /**
+     * Returns the number of grants that carried a delay.
+     *
+     * @return throttle count
+     */
+    public long getThrottleCount();
+
+    /**
+     * Returns the delay of the last grant.
+     *
+     * @return delay in milliseconds
+     */
+    public long getLastDelay();
+
+    /**
+     * Returns the number of sends that had to wait for a credit.
+     *
+     * @return wait count
+     */
+    public long getWaitCount();
+
+    /**
+     * Returns the accumulated time sends have waited for credits.
+     *
+     * @return wait time in milliseconds
+     */
+    public long getTotalWaitTime();
+
+    /**
+     * Returns the number of sends that failed because the wait would have exceeded the flow control timeout.
+     *
+     * @return timeout count
+     */
+    public long getTimeoutCount();
+}
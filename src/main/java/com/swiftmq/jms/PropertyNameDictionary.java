@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+import com.swiftmq.tools.util.DataByteArrayInputStream;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Per-connection dictionary of property names, negotiated with
+ * <code>SMQPVersionRequest.FEATURE_PROPERTY_NAMES</code>.
+ * <p>
+ * The first message that carries a name sends it literally and implicitly assigns the next id; later messages
+ * reference the id as a varint. Ids are assigned in the order blocks are written and read, so the sender must encode
+ * in wire order and the receiver must decode in wire order. A dictionary is used for one direction of one connection
+ * and starts empty on every (re)connect.
+ * </p>
+ * <p>
+ * The maximum size is not negotiated. It limits the names an encoder defines; once reached, new names are sent as
+ * <code>TOKEN_LITERAL</code>. A decoder accepts every definition, its size is bounded by the maximum of the sender.
+ * </p>
+ * <p>
+ * Encoded block: varint count, then per entry a varint name token, the name (writeUTF format) if the token is
+ * <code>TOKEN_DEFINE</code> or <code>TOKEN_LITERAL</code>, the property type as a byte and the value as in the plain
+ * block written by <code>MessageProperties.writeContent</code>.
+ * </p>
+ */
+public class PropertyNameDictionary {
+    public static final int DEFAULT_MAX_SIZE = Integer.parseInt(System.getProperty("swiftmq.jms.properties.dictionary.size", "1024"));
+    // Name tokens, ids are sent as id + TOKEN_REF
+    static final int TOKEN_DEFINE = 0;
+    static final int TOKEN_LITERAL = 1;
+    static final int TOKEN_REF = 2;
+
+    final int maxSize;
+    int size = 0;
+    // Interned names and their encoded form including the length prefix, by id
+    String[] names = new String[16];
+    byte[][] encoded = new byte[16][];
+    // Encoder lookup, id + 1 by hash of the encoded name, 0 is empty
+    int[] slots = null;
+    int mask = 0;
+    byte[] out = new byte[256];
+
+    public PropertyNameDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public PropertyNameDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    private static int hash(byte[] b, int offset, int len) {
+        int h = 0x811c9dc5;
+        for (int i = offset, end = offset + len; i < end; i++)
+            h = (h ^ (b[i] & 0xff)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    private int lookup(byte[] b, int offset, int len) {
+        if (slots == null)
+            return -1;
+        for (int i = hash(b, offset, len) & mask; ; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (id == -1)
+                return -1;
+            byte[] e = encoded[id];
+            if (e.length - 2 == len && Arrays.equals(e, 2, e.length, b, offset, offset + len))
+                return id;
+        }
+    }
+
+    private void define(byte[] b, int offset, int len) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            encoded = Arrays.copyOf(encoded, size * 2);
+        }
+        byte[] e = new byte[len + 2];
+        e[0] = (byte) (len >>> 8);
+        e[1] = (byte) len;
+        System.arraycopy(b, offset, e, 2, len);
+        encoded[size] = e;
+        names[size] = decodeName(b, offset, len);
+        size++;
+    }
+
+    private void defineEncoder(byte[] b, int offset, int len) {
+        if (slots == null) {
+            int n = Integer.highestOneBit(Math.max(maxSize, 8) * 2 - 1) << 1;
+            slots = new int[n];
+            mask = n - 1;
+        }
+        define(b, offset, len);
+        int i = hash(b, offset, len) & mask;
+        while (slots[i] != 0)
+            i = (i + 1) & mask;
+        slots[i] = size;
+    }
+
+    // The name must be preceded by its length
+    private static String decodeName(byte[] b, int offset, int len) {
+        try {
+            DataByteArrayInputStream dis = new DataByteArrayInputStream();
+            dis.setBuffer(b, offset - 2, len + 2);
+            return dis.readUTF().intern();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.toString());
+        }
+    }
+
+    /**
+     * Encodes a plain property block and writes it to the output, preceded by its length.
+     *
+     * @param b      buffer
+     * @param offset offset of the plain block
+     * @param length length of the plain block
+     * @param dos    output
+     * @throws IOException on error
+     */
+    public void encode(byte[] b, int offset, int length, DataOutput dos) throws IOException {
+        int end = offset + length;
+        int pos = offset;
+        int n = readInt(b, pos);
+        pos += 4;
+        int outPos = writeVarint(n, 0);
+        for (int i = 0; i < n; i++) {
+            int len = readUnsignedShort(b, pos);
+            int nameOffset = pos + 2;
+            pos = nameOffset + len;
+            int id = lookup(b, nameOffset, len);
+            if (id != -1)
+                outPos = writeVarint(id + TOKEN_REF, outPos);
+            else {
+                boolean define = size < maxSize;
+                if (define)
+                    defineEncoder(b, nameOffset, len);
+                outPos = writeVarint(define ? TOKEN_DEFINE : TOKEN_LITERAL, outPos);
+                outPos = write(b, nameOffset - 2, len + 2, outPos);
+            }
+            int type = readInt(b, pos);
+            pos += 4;
+            int valueLength = MessageProperties.valueLength(b, type, pos);
+            outPos = write(b, pos - 1, 1, outPos);
+            outPos = write(b, pos, valueLength, outPos);
+            pos += valueLength;
+        }
+        if (pos != end)
+            throw new IOException("Invalid property block");
+        dos.writeInt(outPos);
+        dos.write(out, 0, outPos);
+    }
+
+    /**
+     * Decodes an encoded property block into properties over the equivalent plain block. The names of the
+     * properties are the interned names of the dictionary.
+     *
+     * @param b      buffer
+     * @param offset offset of the encoded block
+     * @param length length of the encoded block
+     * @return properties
+     * @throws IOException on an invalid block or an unknown name id
+     */
+    public MessageProperties decode(byte[] b, int offset, int length) throws IOException {
+        int end = offset + length;
+        try {
+            // Pass 1: resolve names and compute the length of the plain block
+            int pos = offset;
+            long v = readVarint(b, pos);
+            pos = (int) (v >>> 32);
+            int n = (int) v;
+            String[] entryNames = new String[n];
+            // Id of the name or -1 - offset of a literal name, and offset of the type
+            int[] ids = new int[n];
+            int[] typeOffsets = new int[n];
+            int plainLength = 4;
+            for (int i = 0; i < n; i++) {
+                v = readVarint(b, pos);
+                pos = (int) (v >>> 32);
+                int token = (int) v;
+                if (token < TOKEN_REF) {
+                    int len = readUnsignedShort(b, pos);
+                    if (token == TOKEN_DEFINE) {
+                        define(b, pos + 2, len);
+                        ids[i] = size - 1;
+                        entryNames[i] = names[size - 1];
+                    } else {
+                        ids[i] = -1 - pos;
+                        entryNames[i] = decodeName(b, pos + 2, len);
+                    }
+                    pos += 2 + len;
+                    plainLength += 2 + len;
+                } else {
+                    int id = token - TOKEN_REF;
+                    if (id >= size)
+                        throw new IOException("Unknown property name id: " + id);
+                    ids[i] = id;
+                    entryNames[i] = names[id];
+                    plainLength += encoded[id].length;
+                }
+                typeOffsets[i] = pos;
+                int type = b[pos++];
+                int valueLength = MessageProperties.valueLength(b, type, pos);
+                pos += valueLength;
+                plainLength += 4 + valueLength;
+            }
+            if (pos != end)
+                throw new IOException("Invalid property block");
+            // Pass 2: write the plain block
+            byte[] plain = new byte[plainLength];
+            int outPos = putInt(plain, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (ids[i] < 0) {
+                    int nameOffset = -1 - ids[i];
+                    int nameLength = 2 + readUnsignedShort(b, nameOffset);
+                    System.arraycopy(b, nameOffset, plain, outPos, nameLength);
+                    outPos += nameLength;
+                } else {
+                    byte[] name = encoded[ids[i]];
+                    System.arraycopy(name, 0, plain, outPos, name.length);
+                    outPos += name.length;
+                }
+                pos = typeOffsets[i];
+                int type = b[pos++];
+                outPos = putInt(plain, outPos, type);
+                int valueLength = MessageProperties.valueLength(b, type, pos);
+                System.arraycopy(b, pos, plain, outPos, valueLength);
+                outPos += valueLength;
+                pos += valueLength;
+            }
+            return new MessageProperties(plain, 0, plainLength, entryNames);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            throw new IOException("Invalid property block: " + e);
+        }
+    }
+
+    private void ensure(int capacity) {
+        if (out.length < capacity)
+            out = Arrays.copyOf(out, Math.max(capacity, out.length * 2));
+    }
+
+    private int write(byte[] b, int offset, int len, int outPos) {
+        ensure(outPos + len);
+        System.arraycopy(b, offset, out, outPos, len);
+        return outPos + len;
+    }
+
+    private int writeVarint(int v, int outPos) {
+        ensure(outPos + 5);
+        while ((v & ~0x7f) != 0) {
+            out[outPos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out[outPos++] = (byte) v;
+        return outPos;
+    }
+
+    // Returns the new position in the high and the value in the low 32 bits
+    private static long readVarint(byte[] b, int pos) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int x = b[pos++];
+            v |= (x & 0x7f) << shift;
+            if (x >= 0)
+                return ((long) pos << 32) | (v & 0xffffffffL);
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff);
+    }
+
+    private static int putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+        return pos + 4;
+    }
+
+    private static int readUnsignedShort(byte[] b, int pos) {
+        return ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff);
+    }
+
+    public String toString() {
+        return "[PropertyNameDictionary, size=" + size + ", maxSize=" + maxSize + "]";
+    }
+}
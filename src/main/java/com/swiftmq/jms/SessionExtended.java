@@ -17,8 +17,50 @@
 
 package com.swiftmq.jms;
 
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
 import javax.jms.Session;
 
 public interface SessionExtended extends Session {
     void setIgnoreClose(boolean b);
+
+    /**
+     * Enables parallel dispatch to the MessageListeners of this session's consumers. Listeners then run on the
+     * client's listener pool (<code>swiftmq.pool.listener.threads.max</code>, default: number of processors).
+     * Messages with the same value of the partition property, e.g. JMSXGroupID, are processed in delivery order,
+     * one after another; other messages are processed concurrently. A message is acknowledged after its listener
+     * has returned. Only available for non-transacted sessions in AUTO_ACKNOWLEDGE or DUPS_OK_ACKNOWLEDGE mode and
+     * before a MessageListener has been set on a consumer of this session.
+     *
+     * @param maxConcurrency    maximum number of messages handed over to listeners at a time, 0 disables
+     * @param partitionProperty name of the message property to partition by, null to process all messages concurrently
+     * @throws JMSException if the session is transacted, not in AUTO_ACKNOWLEDGE or DUPS_OK_ACKNOWLEDGE mode, or
+     *                      a consumer already has a MessageListener
+     */
+    void setParallelDispatch(int maxConcurrency, String partitionProperty) throws JMSException;
+
+    /**
+     * Creates an output stream that sends a payload of any size through a producer of this session, split into
+     * BytesMessages of at most <code>fragmentSize</code> bytes. Only one fragment is held in memory; sends block
+     * while the router throttles the producer. Not available for transacted sessions, which keep all messages
+     * until commit.
+     *
+     * @param producer     producer of this session
+     * @param fragmentSize maximum bytes per fragment, 0 for <code>swiftmq.jms.stream.fragmentsize</code> (default 64 KB)
+     * @return output stream
+     * @throws JMSException if the session is transacted or the producer doesn't belong to this session
+     */
+    MessageOutputStream createMessageOutputStream(MessageProducer producer, int fragmentSize) throws JMSException;
+
+    /**
+     * Creates an input stream over the next stream received by a consumer of this session. Fragments are
+     * received as the stream is read.
+     *
+     * @param consumer consumer of this session
+     * @param timeout  maximum time to wait for a fragment in milliseconds, 0 waits forever
+     * @return input stream
+     * @throws JMSException if the consumer doesn't belong to this session
+     */
+    MessageInputStream createMessageInputStream(MessageConsumer consumer, long timeout) throws JMSException;
 }
@@ -58,6 +58,9 @@ public class SwiftMQConnectionFactory {
     public static final String RECONNECT_PORT2 = "reconnect_port2";
     public static final String DUPLICATE_DETECTION_ENABLED = "duplicate_detection_enabled";
     public static final String DUPLICATE_BACKLOG_SIZE = "duplicate_backlog_size";
+    public static final String NIO_ENABLED = "nio_enabled";
+    public static final String COMPRESSION_CODEC = "compression_codec";
+    public static final String COMPRESSION_THRESHOLD = "compression_threshold";
 
     static {
         if (Boolean.valueOf(System.getProperty("swiftmq.client.debugtofile.enabled", "false")).booleanValue()) {
@@ -190,6 +193,9 @@ public class SwiftMQConnectionFactory {
             cf.setPort2(Integer.parseInt(getDefaultProp(RECONNECT_PORT2, properties, "0")));
             cf.setDuplicateMessageDetection(Boolean.valueOf(getDefaultProp(DUPLICATE_DETECTION_ENABLED, properties, "false")).booleanValue());
             cf.setDuplicateBacklogSize(Integer.parseInt(getDefaultProp(DUPLICATE_BACKLOG_SIZE, properties, "30000")));
+            cf.setNioEnabled(Boolean.valueOf(getDefaultProp(NIO_ENABLED, properties, String.valueOf(cf.isNioEnabled()))).booleanValue());
+            cf.setCompressionCodec(getDefaultProp(COMPRESSION_CODEC, properties, cf.getCompressionCodec()));
+            cf.setCompressionThreshold(Integer.parseInt(getDefaultProp(COMPRESSION_THRESHOLD, properties, String.valueOf(cf.getCompressionThreshold()))));
         }
         return cf;
     }
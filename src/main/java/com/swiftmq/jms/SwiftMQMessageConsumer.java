@@ -23,4 +23,13 @@ public interface SwiftMQMessageConsumer {
     public boolean acknowledgeMessage(MessageImpl message) throws JMSException;
 
     public boolean isClosed();
+
+    /**
+     * Returns the prefetch state of this consumer.
+     *
+     * @return statistics, null if not supported
+     */
+    public default ConsumerPrefetchStatistics getPrefetchStatistics() {
+        return null;
+    }
 }
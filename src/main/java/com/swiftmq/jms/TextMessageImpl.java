@@ -73,6 +73,11 @@ public class TextMessageImpl extends MessageImpl implements TextMessage {
         }
     }
 
+    protected void copyBody(MessageImpl copy) throws IOException {
+        // The chunks are never modified, setText replaces the array
+        ((TextMessageImpl) copy).lazy = lazy;
+    }
+
     /**
      * Get the string containing this message's data.  The default
      * value is null.
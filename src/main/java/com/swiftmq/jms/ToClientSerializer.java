@@ -21,4 +21,13 @@ import java.io.DataOutput;
 
 public interface ToClientSerializer {
     public DataOutput getDataOutput();
+
+    /**
+     * Returns the dictionary to encode property names with or null to write plain properties.
+     *
+     * @return dictionary
+     */
+    default PropertyNameDictionary getPropertyNameDictionary() {
+        return null;
+    }
 }
@@ -19,11 +19,79 @@ package com.swiftmq.jms.smqp;
 
 import com.swiftmq.tools.requestreply.Reply;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
 /**
  * @author Andreas Mueller, IIT GmbH
  * @version 1.0
  */
 public class SMQPVersionReply extends Reply {
+    int compressionCodec = 0;
+    int features = 0;
+
+    /**
+     * Returns the id of the compression codec the router has accepted or 0.
+     *
+     * @return codec id
+     */
+    public int getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public void setCompressionCodec(int compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    /**
+     * Returns the requested feature bits the router has accepted, see SMQPVersionRequest.
+     *
+     * @return features
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(int features) {
+        this.features = features;
+    }
+
+    /**
+     * Write the content of this object to the stream.
+     *
+     * @param out output stream
+     * @throws IOException if an error occurs
+     */
+    public void writeContent(DataOutput out) throws IOException {
+        super.writeContent(out);
+        // Optional, only written if compression or features have been accepted
+        if (compressionCodec != 0 || features != 0)
+            out.writeInt(compressionCodec);
+        if (features != 0)
+            out.writeInt(features);
+    }
+
+    /**
+     * Read the content of this object from the stream.
+     *
+     * @param in input stream
+     * @throws IOException if an error occurs
+     */
+    public void readContent(DataInput in) throws IOException {
+        super.readContent(in);
+        try {
+            compressionCodec = in.readInt();
+        } catch (EOFException e) {
+            compressionCodec = 0;
+        }
+        try {
+            features = in.readInt();
+        } catch (EOFException e) {
+            features = 0;
+        }
+    }
 
     /**
      * Returns a unique dump id for this object.
@@ -41,6 +109,6 @@ public class SMQPVersionReply extends Reply {
      * @see
      */
     public String toString() {
-        return "[SMQPVersionReply " + super.toString() + "]";
+        return "[SMQPVersionReply " + super.toString() + ", compressionCodec=" + compressionCodec + ", features=" + features + "]";
     }
 }
@@ -23,16 +23,38 @@ import com.swiftmq.tools.requestreply.RequestVisitor;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 
 public class SMQPVersionRequest extends Request {
+    /**
+     * Feature bit: the client sends AcknowledgeMessagesRequests for batched acknowledgements.
+     */
+    public static final int FEATURE_ACK_BATCH = 0x1;
+    /**
+     * Feature bit: the router may encode the property names of delivered messages with a PropertyNameDictionary.
+     */
+    public static final int FEATURE_PROPERTY_NAMES = 0x2;
+
     int version = 0;
+    int compressionCodec = 0;
+    int features = 0;
 
     public SMQPVersionRequest(int version) {
         super(0, true);
         this.version = version;
     }
 
+    public SMQPVersionRequest(int version, int compressionCodec) {
+        this(version);
+        this.compressionCodec = compressionCodec;
+    }
+
+    public SMQPVersionRequest(int version, int compressionCodec, int features) {
+        this(version, compressionCodec);
+        this.features = features;
+    }
+
     public SMQPVersionRequest() {
         this(0);
     }
@@ -46,6 +68,11 @@ public class SMQPVersionRequest extends Request {
     public void writeContent(DataOutput out) throws IOException {
         super.writeContent(out);
         out.writeInt(version);
+        // Optional, only written if compression or features are requested; older routers ignore them
+        if (compressionCodec != 0 || features != 0)
+            out.writeInt(compressionCodec);
+        if (features != 0)
+            out.writeInt(features);
     }
 
     /**
@@ -57,12 +84,40 @@ public class SMQPVersionRequest extends Request {
     public void readContent(DataInput in) throws IOException {
         super.readContent(in);
         version = in.readInt();
+        try {
+            compressionCodec = in.readInt();
+        } catch (EOFException e) {
+            compressionCodec = 0;
+        }
+        try {
+            features = in.readInt();
+        } catch (EOFException e) {
+            features = 0;
+        }
     }
 
     public int getVersion() {
         return version;
     }
 
+    /**
+     * Returns the id of the compression codec the client requests or 0.
+     *
+     * @return codec id
+     */
+    public int getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Returns the feature bits the client requests.
+     *
+     * @return features
+     */
+    public int getFeatures() {
+        return features;
+    }
+
     /**
      * Returns a unique dump id for this object.
      *
@@ -85,6 +140,6 @@ public class SMQPVersionRequest extends Request {
 
     public String toString() {
         return "[SMQPVersionRequest " + super.toString() +
-                ", version=" + version + "]";
+                ", version=" + version + ", compressionCodec=" + compressionCodec + ", features=" + features + "]";
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.jms.smqp.v750;
+
+/**
+ * SMQP-Protocol Version 750, Class: AcknowledgeMessagesRequest
+ * Acknowledges a batch of messages of a consumer. Only sent if the router has accepted
+ * SMQPVersionRequest.FEATURE_ACK_BATCH.
+ **/
+
+import com.swiftmq.swiftlet.queue.MessageIndex;
+import com.swiftmq.tools.requestreply.Reply;
+import com.swiftmq.tools.requestreply.Request;
+import com.swiftmq.tools.requestreply.RequestRetryValidator;
+import com.swiftmq.tools.requestreply.RequestVisitor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AcknowledgeMessagesRequest extends Request {
+    private int queueConsumerId;
+    private List<MessageIndex> messageIndexes;
+
+    public AcknowledgeMessagesRequest() {
+        super(0, true);
+    }
+
+    public AcknowledgeMessagesRequest(int dispatchId) {
+        super(dispatchId, true);
+    }
+
+    public AcknowledgeMessagesRequest(RequestRetryValidator validator, int dispatchId) {
+        super(dispatchId, true, validator);
+    }
+
+    public AcknowledgeMessagesRequest(RequestRetryValidator validator, int dispatchId, int queueConsumerId, List<MessageIndex> messageIndexes) {
+        super(dispatchId, true, validator);
+        this.queueConsumerId = queueConsumerId;
+        this.messageIndexes = messageIndexes;
+    }
+
+    public int getQueueConsumerId() {
+        return queueConsumerId;
+    }
+
+    public void setQueueConsumerId(int queueConsumerId) {
+        this.queueConsumerId = queueConsumerId;
+    }
+
+    public List<MessageIndex> getMessageIndexes() {
+        return messageIndexes;
+    }
+
+    public void setMessageIndexes(List<MessageIndex> messageIndexes) {
+        this.messageIndexes = messageIndexes;
+    }
+
+    public int getDumpId() {
+        return SMQPFactory.DID_ACKNOWLEDGEMESSAGES_REQ;
+    }
+
+
+    public void writeContent(DataOutput out) throws IOException {
+        super.writeContent(out);
+        SMQPUtil.write(queueConsumerId, out);
+        if (messageIndexes != null) {
+            out.writeBoolean(true);
+            out.writeInt(messageIndexes.size());
+            for (int i = 0; i < messageIndexes.size(); i++)
+                SMQPUtil.write(messageIndexes.get(i), out);
+        } else
+            out.writeBoolean(false);
+    }
+
+    public void readContent(DataInput in) throws IOException {
+        super.readContent(in);
+        queueConsumerId = SMQPUtil.read(queueConsumerId, in);
+        boolean messageIndexes_set = in.readBoolean();
+        if (messageIndexes_set) {
+            int size = in.readInt();
+            messageIndexes = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                messageIndexes.add(SMQPUtil.read((MessageIndex) null, in));
+        }
+    }
+
+    protected Reply createReplyInstance() {
+        return new AcknowledgeMessageReply();
+    }
+
+    public void accept(RequestVisitor visitor) {
+        ((SMQPVisitor) visitor).visit(this);
+    }
+
+    public String toString() {
+        StringBuffer _b = new StringBuffer("[v750/AcknowledgeMessagesRequest, ");
+        _b.append(super.toString());
+        _b.append(", ");
+        _b.append("queueConsumerId=");
+        _b.append(queueConsumerId);
+        _b.append(", ");
+        _b.append("messageIndexes=");
+        _b.append(messageIndexes);
+        _b.append("]");
+        return _b.toString();
+    }
+}
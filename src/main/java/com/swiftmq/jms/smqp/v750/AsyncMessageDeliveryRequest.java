@@ -24,6 +24,7 @@ package com.swiftmq.jms.smqp.v750;
  * (c) 2009, IIT GmbH, Bremen/Germany, All Rights Reserved
  **/
 
+import com.swiftmq.jms.PropertyNameDictionary;
 import com.swiftmq.jms.ToClientSerializer;
 import com.swiftmq.swiftlet.queue.MessageEntry;
 import com.swiftmq.tools.requestreply.Reply;
@@ -37,6 +38,7 @@ import java.io.IOException;
 
 public class AsyncMessageDeliveryRequest extends Request implements ToClientSerializer {
     DataOutput out = null;
+    PropertyNameDictionary propertyNameDictionary = null;
     private int listenerId;
     private MessageEntry messageEntry;
     private MessageEntry[] bulk;
@@ -132,6 +134,20 @@ public class AsyncMessageDeliveryRequest extends Request implements ToClientSeri
         return out;
     }
 
+    public PropertyNameDictionary getPropertyNameDictionary() {
+        return propertyNameDictionary;
+    }
+
+    /**
+     * Sets the dictionary of the connection to encode property names with. The request must then be written in
+     * the order it is sent.
+     *
+     * @param propertyNameDictionary dictionary
+     */
+    public void setPropertyNameDictionary(PropertyNameDictionary propertyNameDictionary) {
+        this.propertyNameDictionary = propertyNameDictionary;
+    }
+
     public void writeContent(DataOutput out) throws IOException {
         this.out = out;
         super.writeContent(out);
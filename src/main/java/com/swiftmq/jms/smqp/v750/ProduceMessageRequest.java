@@ -38,6 +38,8 @@ public class ProduceMessageRequest extends Request {
     private int queueProducerId;
     private MessageImpl singleMessage;
     private byte[] messageCopy;
+    private int messageCopyLength = -1;
+    private transient Runnable messageCopyRelease = null;
 
     public ProduceMessageRequest() {
         super(0, true);
@@ -87,6 +89,54 @@ public class ProduceMessageRequest extends Request {
 
     public void setMessageCopy(byte[] messageCopy) {
         this.messageCopy = messageCopy;
+        this.messageCopyLength = -1;
+        this.messageCopyRelease = null;
+    }
+
+    /**
+     * Sets a message copy that occupies only the first <code>length</code> bytes of a reusable buffer.
+     * The buffer is returned to its owner by <code>releaseMessageCopy()</code> once the request has been written.
+     *
+     * @param messageCopy buffer
+     * @param length      number of valid bytes
+     * @param release     returns the buffer to its owner, or null
+     */
+    public void setMessageCopy(byte[] messageCopy, int length, Runnable release) {
+        this.messageCopy = messageCopy;
+        this.messageCopyLength = length;
+        this.messageCopyRelease = release;
+    }
+
+    public int getMessageCopyLength() {
+        return messageCopyLength == -1 && messageCopy != null ? messageCopy.length : messageCopyLength;
+    }
+
+    /**
+     * Returns the buffer of the message copy to its owner. Must only be called after the request has
+     * been written and won't be written again.
+     */
+    public void releaseMessageCopy() {
+        Runnable release = messageCopyRelease;
+        if (release != null) {
+            messageCopy = null;
+            messageCopyLength = -1;
+            messageCopyRelease = null;
+            release.run();
+        }
+    }
+
+    /**
+     * Replaces a message copy in a reusable buffer by an exact copy and releases the buffer. Used if the
+     * request is kept beyond the write.
+     */
+    public void detachMessageCopy() {
+        if (messageCopyRelease != null) {
+            byte[] b = new byte[messageCopyLength];
+            System.arraycopy(messageCopy, 0, b, 0, messageCopyLength);
+            Runnable release = messageCopyRelease;
+            setMessageCopy(b);
+            release.run();
+        }
     }
 
     public int getDumpId() {
@@ -104,7 +154,7 @@ public class ProduceMessageRequest extends Request {
             out.writeBoolean(false);
         if (messageCopy != null) {
             out.writeBoolean(true);
-            SMQPUtil.write(messageCopy, out);
+            SMQPUtil.write(messageCopy, getMessageCopyLength(), out);
         } else
             out.writeBoolean(false);
     }
@@ -111,6 +111,7 @@ public class SMQPFactory extends DumpableFactory {
     public static final int DID_XARESSETTXTIMEOUT_REP = 180;
     public static final int DID_XARESSTART_REQ = 181;
     public static final int DID_XARESSTART_REP = 182;
+    public static final int DID_ACKNOWLEDGEMESSAGES_REQ = 183;
 
     public Dumpable createDumpable(int dumpId) {
         Dumpable dumpable = null;
@@ -125,6 +126,9 @@ public class SMQPFactory extends DumpableFactory {
             case DID_ACKNOWLEDGEMESSAGE_REP:
                 dumpable = new AcknowledgeMessageReply();
                 break;
+            case DID_ACKNOWLEDGEMESSAGES_REQ:
+                dumpable = new AcknowledgeMessagesRequest();
+                break;
             case DID_ASSOCIATEMESSAGE_REQ:
                 dumpable = new AssociateMessageRequest();
                 break;
@@ -73,6 +73,11 @@ public class SMQPUtil {
         out.write(b);
     }
 
+    static void write(byte[] b, int len, DataOutput out) throws IOException {
+        out.writeInt(len);
+        out.write(b, 0, len);
+    }
+
     static byte[] read(byte[] b, DataInput in) throws IOException {
         byte[] ba = new byte[in.readInt()];
         in.readFully(ba);
@@ -282,7 +287,15 @@ public class SMQPUtil {
         MessageImpl msg = request.getSingleMessage();
         if (msg != null)
             return msg;
-        return toMessage(request.getMessageCopy());
+        return toMessage(request.getMessageCopy(), request.getMessageCopyLength());
+    }
+
+    public static MessageImpl toMessage(byte[] b, int len) throws Exception {
+        DataByteArrayInputStream dbis = new DataByteArrayInputStream();
+        dbis.setBuffer(b, 0, len);
+        MessageImpl msg = MessageImpl.createInstance(dbis.readInt());
+        msg.readContent((LengthCaptureDataInput) dbis);
+        return msg;
     }
 
     public static MessageImpl toMessage(byte[] b) throws Exception {
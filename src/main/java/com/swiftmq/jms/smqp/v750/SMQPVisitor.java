@@ -29,6 +29,8 @@ import com.swiftmq.tools.requestreply.RequestVisitor;
 public interface SMQPVisitor extends RequestVisitor {
     void visit(AcknowledgeMessageRequest req);
 
+    void visit(AcknowledgeMessagesRequest req);
+
     void visit(AssociateMessageRequest req);
 
     void visit(AsyncMessageDeliveryRequest req);
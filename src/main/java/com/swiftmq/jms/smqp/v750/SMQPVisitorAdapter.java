@@ -31,6 +31,9 @@ public class SMQPVisitorAdapter implements SMQPVisitor {
     public void visit(AcknowledgeMessageRequest req) {
     }
 
+    public void visit(AcknowledgeMessagesRequest req) {
+    }
+
     public void visit(AssociateMessageRequest req) {
         Reply reply = req.createReply();
         reply.setOk(false);
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.jms.v750;
+
+import com.swiftmq.client.thread.PoolManager;
+import com.swiftmq.jms.ExceptionConverter;
+import com.swiftmq.jms.smqp.v750.ProduceMessageReply;
+import com.swiftmq.swiftlet.threadpool.AsyncTask;
+import com.swiftmq.swiftlet.threadpool.ThreadPool;
+import com.swiftmq.tools.queue.SingleProcessorQueue;
+import com.swiftmq.tools.requestreply.Reply;
+import com.swiftmq.tools.requestreply.ReplyListener;
+import com.swiftmq.tools.requestreply.Request;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of the asynchronous sends of a message producer. It caps the number of requests and bytes
+ * in flight (<code>swiftmq.jms.asyncsend.maxinflight</code>, default 1000, and
+ * <code>swiftmq.jms.asyncsend.maxinflightbytes</code>, default 8 MB) and completes the futures in reply order
+ * on a session pool thread, so that dependent actions never run on the connection's reader thread.
+ */
+class AsyncSendTracker {
+    static final String DISPATCH_TOKEN = "sys$jms.client.session.asyncsend";
+    static final int MAX_IN_FLIGHT = Integer.parseInt(System.getProperty("swiftmq.jms.asyncsend.maxinflight", "1000"));
+    static final long MAX_IN_FLIGHT_BYTES = Long.parseLong(System.getProperty("swiftmq.jms.asyncsend.maxinflightbytes", String.valueOf(8 * 1024 * 1024)));
+
+    final String description;
+    final ThreadPool sessionPool;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition capacityChanged = lock.newCondition();
+    final CompletionQueue completionQueue = new CompletionQueue();
+    final CompletionTask completionTask = new CompletionTask();
+    int inFlight = 0;
+    long inFlightBytes = 0;
+    final ProducerFlowControl flowControl;
+    volatile boolean closed = false;
+
+    AsyncSendTracker(String description, ProducerFlowControl flowControl) {
+        this.description = description;
+        this.flowControl = flowControl;
+        this.sessionPool = PoolManager.getInstance().getSessionPool();
+        completionQueue.startQueue();
+    }
+
+    /**
+     * Reserves capacity for one request, waits while the producer is at its in-flight limit.
+     * A single request larger than the byte limit is admitted if nothing else is in flight.
+     *
+     * @param bytes size of the message
+     * @throws JMSException if the tracker was closed meanwhile
+     */
+    void acquire(int bytes) throws JMSException {
+        lock.lock();
+        try {
+            while (!closed && inFlight > 0 && (inFlight >= MAX_IN_FLIGHT || inFlightBytes + bytes > MAX_IN_FLIGHT_BYTES))
+                capacityChanged.awaitUninterruptibly();
+            if (closed)
+                throw new javax.jms.IllegalStateException("Message producer is closed");
+            inFlight++;
+            inFlightBytes += bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(int bytes) {
+        lock.lock();
+        try {
+            inFlight--;
+            inFlightBytes -= bytes;
+            capacityChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ReplyListener createListener(CompletableFuture<Message> future, Message message, int bytes) {
+        return new Completion(future, message, bytes);
+    }
+
+    /**
+     * Waits until all requests in flight have been completed or the timeout is reached.
+     *
+     * @param timeout timeout in milliseconds
+     * @return true if nothing is in flight anymore
+     */
+    boolean awaitCompletion(long timeout) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            while (inFlight > 0 && nanos > 0) {
+                try {
+                    nanos = capacityChanged.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return inFlight == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            capacityChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private class Completion implements ReplyListener {
+        final CompletableFuture<Message> future;
+        final Message message;
+        final int bytes;
+        Reply reply = null;
+
+        Completion(CompletableFuture<Message> future, Message message, int bytes) {
+            this.future = future;
+            this.message = message;
+            this.bytes = bytes;
+        }
+
+        public void replyReceived(Request request, Reply reply) {
+            this.reply = reply;
+            if (reply instanceof ProduceMessageReply && reply.isOk())
+                flowControl.grant(((ProduceMessageReply) reply).getDelay());
+            completionQueue.enqueue(this);
+        }
+
+        void complete() {
+            release(bytes);
+            if (reply == null)
+                future.completeExceptionally(new JMSException("Request was cancelled (reply == null)"));
+            else if (!reply.isOk())
+                future.completeExceptionally(reply.getException() != null ? ExceptionConverter.convert(reply.getException()) : new JMSException("Send failed"));
+            else
+                future.complete(message);
+        }
+    }
+
+    private class CompletionQueue extends SingleProcessorQueue {
+        CompletionQueue() {
+            super(100);
+        }
+
+        protected void startProcessor() {
+            sessionPool.dispatchTask(completionTask);
+        }
+
+        protected void process(Object[] bulk, int n) {
+            for (int i = 0; i < n; i++)
+                ((Completion) bulk[i]).complete();
+        }
+    }
+
+    private class CompletionTask implements AsyncTask {
+        public boolean isValid() {
+            return true;
+        }
+
+        public String getDispatchToken() {
+            return DISPATCH_TOKEN;
+        }
+
+        public String getDescription() {
+            return description + "/AsyncSendTracker/CompletionTask";
+        }
+
+        public void run() {
+            if (completionQueue.dequeue())
+                sessionPool.dispatchTask(this);
+        }
+
+        public void stop() {
+        }
+    }
+}
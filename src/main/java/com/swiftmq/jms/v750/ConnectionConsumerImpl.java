@@ -26,6 +26,7 @@ import com.swiftmq.jms.smqp.v750.StartConsumerRequest;
 import com.swiftmq.swiftlet.queue.MessageEntry;
 import com.swiftmq.swiftlet.threadpool.AsyncTask;
 import com.swiftmq.swiftlet.threadpool.ThreadPool;
+import com.swiftmq.tools.collection.FingerprintLog;
 import com.swiftmq.tools.queue.SingleProcessorQueue;
 import com.swiftmq.tools.requestreply.*;
 import com.swiftmq.tools.util.IdGenerator;
@@ -45,6 +46,7 @@ public abstract class ConnectionConsumerImpl
     static final boolean DEBUG = Boolean.valueOf(System.getProperty("swiftmq.reconnect.debug", "false")).booleanValue();
 
     String uniqueConsumerId = IdGenerator.getInstance().nextId('/');
+    long uniqueConsumerHash = FingerprintLog.hash(uniqueConsumerId);
     ConnectionImpl myConnection = null;
     int dispatchId = 0;
     int myDispatchId = 0;
@@ -127,12 +129,12 @@ public abstract class ConnectionConsumerImpl
     public boolean isDuplicate(MessageImpl msg) {
         if (!myConnection.isDuplicateMessageDetection())
             return false;
-        msg.setDuplicateId(SessionImpl.buildId(uniqueConsumerId, msg));
-        return myConnection.isDuplicate(msg.getDuplicateId());
+        msg.setDuplicateFingerprint(SessionImpl.buildId(uniqueConsumerHash, msg));
+        return myConnection.isDuplicate(msg.getDuplicateFingerprint());
     }
 
     public void removeFromDuplicateLog(MessageImpl msg) {
-        myConnection.removeFromDuplicateLog(msg.getDuplicateId());
+        myConnection.removeFromDuplicateLog(msg.getDuplicateFingerprint());
     }
 
     public void markInProgress(MessageImpl msg, String messageId) {
@@ -24,8 +24,10 @@ import com.swiftmq.net.SocketFactory;
 import com.swiftmq.net.SocketFactory2;
 import com.swiftmq.net.client.BlockingReconnector;
 import com.swiftmq.net.client.IntraVMReconnector;
+import com.swiftmq.net.client.NIOReconnector;
 import com.swiftmq.net.client.Reconnector;
 import com.swiftmq.net.client.ServerEntry;
+import com.swiftmq.net.protocol.compression.CompressionCodecFactory;
 import com.swiftmq.tools.dump.Dumpable;
 
 import javax.jms.*;
@@ -72,6 +74,9 @@ public class ConnectionFactoryImpl
     long retryDelay = 0;
     boolean duplicateMessageDetection = false;
     int duplicateBacklogSize = 500;
+    boolean nioEnabled = Boolean.valueOf(System.getProperty("swiftmq.socket.nio.enabled", "false")).booleanValue();
+    String compressionCodec = System.getProperty("swiftmq.smqp.compression.codec", CompressionCodecFactory.NONE);
+    int compressionThreshold = Integer.parseInt(System.getProperty("swiftmq.smqp.compression.threshold", "1024"));
 
     public ConnectionFactoryImpl(String listenerName, String socketFactoryClass, String hostname, int port, long keepaliveInterval,
                                  String clientId, int smqpProducerReplyInterval, int smqpConsumerCacheSize, int smqpConsumerCacheSizeKB, int jmsDeliveryMode,
@@ -165,6 +170,30 @@ public class ConnectionFactoryImpl
         this.duplicateBacklogSize = duplicateBacklogSize;
     }
 
+    public boolean isNioEnabled() {
+        return nioEnabled;
+    }
+
+    public void setNioEnabled(boolean nioEnabled) {
+        this.nioEnabled = nioEnabled;
+    }
+
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     public int getDumpId() {
         return 0;
     }
@@ -280,6 +309,9 @@ public class ConnectionFactoryImpl
         }
         ref.add(new StringRefAddr("duplicateMessageDetection", String.valueOf(duplicateMessageDetection)));
         ref.add(new StringRefAddr("duplicateBacklogSize", String.valueOf(duplicateBacklogSize)));
+        ref.add(new StringRefAddr("nioEnabled", String.valueOf(nioEnabled)));
+        ref.add(new StringRefAddr("compressionCodec", compressionCodec));
+        ref.add(new StringRefAddr("compressionThreshold", String.valueOf(compressionThreshold)));
         return ref;
     }
 
@@ -314,7 +346,13 @@ public class ConnectionFactoryImpl
                 if (sf instanceof SocketFactory2)
                     ((SocketFactory2) sf).setReceiveBufferSize(inputBufferSize);
                 parameters.put(SwiftMQConnectionFactory.SOCKETFACTORY, sf);
-                reconnector = new BlockingReconnector(servers, parameters, reconnectEnabled, maxRetries, retryDelay, Boolean.valueOf(System.getProperty("swiftmq.reconnect.debug", "false")).booleanValue());
+                parameters.put(SwiftMQConnectionFactory.COMPRESSION_CODEC, compressionCodec);
+                parameters.put(SwiftMQConnectionFactory.COMPRESSION_THRESHOLD, new Integer(compressionThreshold));
+                boolean debug = Boolean.valueOf(System.getProperty("swiftmq.reconnect.debug", "false")).booleanValue();
+                if (nioEnabled)
+                    reconnector = new NIOReconnector(servers, parameters, reconnectEnabled, maxRetries, retryDelay, debug);
+                else
+                    reconnector = new BlockingReconnector(servers, parameters, reconnectEnabled, maxRetries, retryDelay, debug);
             } catch (Exception e) {
                 throw new JMSException("error creating socket connection to "
                         + hostname + ":" + port + ", message: "
@@ -529,6 +567,12 @@ public class ConnectionFactoryImpl
         s.append(duplicateMessageDetection);
         s.append(", duplicateBacklogSize=");
         s.append(duplicateBacklogSize);
+        s.append(", nioEnabled=");
+        s.append(nioEnabled);
+        s.append(", compressionCodec=");
+        s.append(compressionCodec);
+        s.append(", compressionThreshold=");
+        s.append(compressionThreshold);
         s.append("]");
         return s.toString();
     }
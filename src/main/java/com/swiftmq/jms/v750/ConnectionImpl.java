@@ -20,17 +20,25 @@ package com.swiftmq.jms.v750;
 import com.swiftmq.auth.ChallengeResponseFactory;
 import com.swiftmq.client.thread.PoolManager;
 import com.swiftmq.jms.*;
+import com.swiftmq.jms.smqp.SMQPVersionReply;
 import com.swiftmq.jms.smqp.SMQPVersionRequest;
 import com.swiftmq.jms.smqp.v750.*;
 import com.swiftmq.jms.v750.po.POReconnect;
 import com.swiftmq.net.client.ExceptionHandler;
-import com.swiftmq.net.client.InboundHandler;
+import com.swiftmq.net.client.IntraVMConnection;
+import com.swiftmq.net.client.ObjectInboundHandler;
+import com.swiftmq.net.client.ReconnectStatistics;
 import com.swiftmq.net.client.Reconnector;
+import com.swiftmq.net.protocol.ProtocolOutputHandler;
+import com.swiftmq.net.protocol.compression.CompressionCodec;
+import com.swiftmq.net.protocol.compression.CompressionCodecFactory;
+import com.swiftmq.net.protocol.compression.CompressionStatistics;
+import com.swiftmq.swiftlet.queue.MessageEntry;
 import com.swiftmq.swiftlet.threadpool.AsyncTask;
 import com.swiftmq.swiftlet.threadpool.ThreadPool;
 import com.swiftmq.tools.collection.ConcurrentList;
-import com.swiftmq.tools.collection.ConcurrentOrderedSet;
-import com.swiftmq.tools.collection.OrderedSet;
+import com.swiftmq.tools.collection.FingerprintLog;
+import com.swiftmq.tools.collection.LongHashSet;
 import com.swiftmq.tools.concurrent.Semaphore;
 import com.swiftmq.tools.dump.Dumpable;
 import com.swiftmq.tools.dump.DumpableFactory;
@@ -47,6 +55,7 @@ import com.swiftmq.util.SwiftUtilities;
 import javax.jms.IllegalStateException;
 import javax.jms.Queue;
 import javax.jms.*;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -57,10 +66,13 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ConnectionImpl extends RequestServiceRegistry
-        implements SwiftMQConnection, Connection, ReplyHandler, RequestHandler, TimerListener, InboundHandler, ExceptionHandler, RecreatableConnection {
+        implements SwiftMQConnection, Connection, ReplyHandler, RequestHandler, TimerListener, ObjectInboundHandler, ExceptionHandler, RecreatableConnection {
     public static final String DISPATCH_TOKEN = "sys$jms.client.connection.connectiontask";
 
     public static final int CLIENT_VERSION = 750;
+    // Optional protocol features offered to the router in the version handshake
+    static final int REQUESTED_FEATURES = (Boolean.valueOf(System.getProperty("swiftmq.jms.ackbatch.negotiate", "true")).booleanValue() ? SMQPVersionRequest.FEATURE_ACK_BATCH : 0) |
+            (Boolean.valueOf(System.getProperty("swiftmq.jms.propertynames.negotiate", "true")).booleanValue() ? SMQPVersionRequest.FEATURE_PROPERTY_NAMES : 0);
     public static final int DISCONNECTED = -1;
     public static final int CONNECTED_STOPPED = 0;
     public static final int CONNECTED_STARTED = 1;
@@ -100,11 +112,21 @@ public class ConnectionImpl extends RequestServiceRegistry
     boolean useThreadContextCL = false;
     final AtomicBoolean duplicateMessageDetection = new AtomicBoolean(false);
     final AtomicInteger duplicateBacklogSize = new AtomicInteger(500);
-    OrderedSet duplicateLog = new ConcurrentOrderedSet(500);
+    FingerprintLog duplicateLog = new FingerprintLog(500);
     ConnectionQueue connectionQueue = null;
+    final WriteCoalescer writeCoalescer = new WriteCoalescer();
+    final PrefetchBudget prefetchBudget = new PrefetchBudget();
+    volatile ProtocolOutputHandler protocolOutputHandler = null;
+    volatile IntraVMConnection objectConnection = null;
+    volatile int compressionCodec = 0;
+    volatile int features = 0;
+    // Decodes the property names of delivered messages, only used by the inbound thread
+    volatile PropertyNameDictionary propertyNameDictionary = null;
     ConnectionTask connectionTask = null;
     ThreadPool connectionPool = null;
     DataStreamOutputStream outStream = null;
+    // The connection's output stream if it encodes directly, otherwise outStream
+    DataOutput dataOutput = null;
     Reconnector reconnector = null;
     final AtomicReference<GetAuthChallengeReply> authReply = new AtomicReference<>();
     Connector connector = null;
@@ -144,6 +166,24 @@ public class ConnectionImpl extends RequestServiceRegistry
         setReplyHandler(this);
     }
 
+    /**
+     * Returns the reconnect counters of this connection: attempts, backoff state and time-to-reconnect histogram.
+     *
+     * @return reconnect statistics
+     */
+    public ReconnectStatistics getReconnectStatistics() {
+        return reconnector.getStatistics();
+    }
+
+    /**
+     * Returns the write coalescer of this connection which also holds the bulk size and linger statistics.
+     *
+     * @return write coalescer
+     */
+    public WriteCoalescer getWriteCoalescer() {
+        return writeCoalescer;
+    }
+
     public boolean isReconnectEnabled() {
         return reconnector.isEnabled();
     }
@@ -214,8 +254,16 @@ public class ConnectionImpl extends RequestServiceRegistry
         }
     }
 
+    private Object getReconnectorParameter(String name) {
+        Map parameters = reconnector.getParameters();
+        return parameters != null ? parameters.get(name) : null;
+    }
+
     public Request getVersionRequest() {
-        return new SMQPVersionRequest(CLIENT_VERSION);
+        compressionCodec = 0;
+        features = 0;
+        propertyNameDictionary = null;
+        return new SMQPVersionRequest(CLIENT_VERSION, CompressionCodecFactory.getId((String) getReconnectorParameter(SwiftMQConnectionFactory.COMPRESSION_CODEC)), REQUESTED_FEATURES);
     }
 
     public void setVersionReply(Reply reply) throws Exception {
@@ -223,6 +271,40 @@ public class ConnectionImpl extends RequestServiceRegistry
             lastInvalidVersionException.set(new InvalidVersionException(reply.getException().getMessage()));
             throw lastInvalidVersionException.get();
         }
+        if (reply instanceof SMQPVersionReply) {
+            compressionCodec = ((SMQPVersionReply) reply).getCompressionCodec();
+            features = ((SMQPVersionReply) reply).getFeatures() & REQUESTED_FEATURES;
+            // Ids are only valid for one connection
+            if ((features & SMQPVersionRequest.FEATURE_PROPERTY_NAMES) != 0)
+                propertyNameDictionary = new PropertyNameDictionary();
+        }
+    }
+
+    /**
+     * Returns whether the router of the current connection accepts AcknowledgeMessagesRequests.
+     *
+     * @return true if acknowledgements can be sent in batches
+     */
+    boolean isAckBatchSupported() {
+        return (features & SMQPVersionRequest.FEATURE_ACK_BATCH) != 0;
+    }
+
+    private void setupCompression(ProtocolOutputHandler handler) {
+        CompressionCodec codec = compressionCodec != 0 ? CompressionCodecFactory.create(compressionCodec) : null;
+        Integer threshold = (Integer) getReconnectorParameter(SwiftMQConnectionFactory.COMPRESSION_THRESHOLD);
+        handler.setCompression(codec, threshold != null ? threshold.intValue() : 1024);
+        if (reconnector.isDebug())
+            System.out.println(new Date() + " " + toString() + ": compression codec=" + codec);
+    }
+
+    /**
+     * Returns the compression counters of this connection or null if the connection doesn't support compression.
+     *
+     * @return compression statistics
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        ProtocolOutputHandler handler = protocolOutputHandler;
+        return handler != null ? handler.getCompressionStatistics() : null;
     }
 
     public Request getAuthenticateRequest() {
@@ -312,6 +394,10 @@ public class ConnectionImpl extends RequestServiceRegistry
             inputActiveIndicator = new AtomicBoolean(false);
             connection.setInputActiveIndicator(inputActiveIndicator);
             outStream = new DataStreamOutputStream(connection.getOutputStream());
+            dataOutput = connection.getOutputStream() instanceof DataOutput ? (DataOutput) connection.getOutputStream() : outStream;
+            protocolOutputHandler = connection.getOutputStream() instanceof ProtocolOutputHandler ? (ProtocolOutputHandler) connection.getOutputStream() : null;
+            setupCompression(protocolOutputHandler);
+            objectConnection = connection instanceof IntraVMConnection && ((IntraVMConnection) connection).isObjectPassingEnabled() ? (IntraVMConnection) connection : null;
             if (connectionQueue != null) {
                 connectionQueue.clear();
                 connectionQueue.startQueue();
@@ -407,6 +493,14 @@ public class ConnectionImpl extends RequestServiceRegistry
         this.smqpConsumerCacheSize = smqpConsumerCacheSize;
     }
 
+    int getMaxConsumerCacheSize() {
+        return PrefetchController.maxWindowSize(smqpConsumerCacheSize);
+    }
+
+    PrefetchBudget getPrefetchBudget() {
+        return prefetchBudget;
+    }
+
     int getSmqpConsumerCacheSizeKB() {
         return smqpConsumerCacheSizeKB;
     }
@@ -529,16 +623,17 @@ public class ConnectionImpl extends RequestServiceRegistry
         duplicateLog.decreaseSize(extend, 500);
     }
 
-    void addToDuplicateLog(Set rollbackLog) {
+    void addToDuplicateLog(LongHashSet rollbackLog) {
         duplicateLog.addAll(rollbackLog);
     }
 
-    boolean isDuplicate(String id) {
+    boolean isDuplicate(long id) {
         return duplicateLog.add(id);
     }
 
-    void removeFromDuplicateLog(String id) {
-        duplicateLog.remove(id);
+    void removeFromDuplicateLog(long id) {
+        if (id != 0)
+            duplicateLog.remove(id);
     }
 
     void addSession(Session session) {
@@ -791,7 +886,7 @@ public class ConnectionImpl extends RequestServiceRegistry
 
     private void writeObject(Dumpable obj) throws Exception {
         try {
-            Dumpalizer.dump(outStream, obj);
+            Dumpalizer.dump(dataOutput, obj);
             outStream.flush();
         } catch (IOException e) {
             if (reconnector.isDebug())
@@ -813,6 +908,29 @@ public class ConnectionImpl extends RequestServiceRegistry
         connectionQueue.enqueue(request);
     }
 
+    public void performRequests(Request[] requests, int n) {
+        Request[] valid = requests;
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            Request request = requests[i];
+            int id = request.getConnectionId();
+            RequestRetryValidator validator = request.getValidator();
+            if (id != -1 && id != connectionId.get() && validator != null) {
+                try {
+                    validator.validate(request);
+                } catch (ValidationException e) {
+                    if (valid == requests) {
+                        valid = new Request[n];
+                        System.arraycopy(requests, 0, valid, 0, m);
+                    }
+                    continue;
+                }
+            }
+            valid[m++] = request;
+        }
+        connectionQueue.enqueue(valid, m);
+    }
+
     public void performReply(Reply reply) {
         connectionQueue.enqueue(reply);
     }
@@ -829,12 +947,28 @@ public class ConnectionImpl extends RequestServiceRegistry
             cancelAndNotify(exception, true);
     }
 
-    private void dispatchDumpable(Dumpable obj) {
+    // Called in receive order, so dictionary ids are defined before they are referenced
+    private void resolvePropertyNames(AsyncMessageDeliveryRequest request) throws IOException {
+        PropertyNameDictionary dictionary = propertyNameDictionary;
+        if (dictionary == null)
+            return;
+        if (request.getMessageEntry() != null)
+            request.getMessageEntry().getMessage().resolvePropertyNames(dictionary);
+        MessageEntry[] bulk = request.getBulk();
+        if (bulk != null) {
+            for (int i = 0; i < bulk.length; i++)
+                bulk[i].getMessage().resolvePropertyNames(dictionary);
+        }
+    }
+
+    private void dispatchDumpable(Dumpable obj) throws IOException {
         if (obj.getDumpId() != SMQPFactory.DID_KEEPALIVE_REQ) {
             if (obj instanceof Reply) {
                 requestRegistry.setReply((Reply) obj);
             } else if (obj instanceof Request) {
                 Request req = (Request) obj;
+                if (req instanceof AsyncMessageDeliveryRequest)
+                    resolvePropertyNames((AsyncMessageDeliveryRequest) req);
                 req.setConnectionId(connectionId.get());
                 dispatch(req);
             } else {
@@ -847,34 +981,72 @@ public class ConnectionImpl extends RequestServiceRegistry
         }
     }
 
-    public void dataAvailable(LengthCaptureDataInput in) {
-        try {
-            Dumpable obj = Dumpalizer.construct(in, dumpableFactory);
-            if (obj == null) {
-                return;
-            }
-            if (obj.getDumpId() == SMQPFactory.DID_BULK_REQ) {
-                SMQPBulkRequest bulkRequest = (SMQPBulkRequest) obj;
-                for (int i = 0; i < bulkRequest.len; i++) {
-                    if (connection == null)
-                        return;
-                    dispatchDumpable((Dumpable) bulkRequest.dumpables[i]);
-                }
-            } else {
+    private void dispatchInbound(Dumpable obj) throws IOException {
+        if (obj == null) {
+            return;
+        }
+        if (obj.getDumpId() == SMQPFactory.DID_BULK_REQ) {
+            SMQPBulkRequest bulkRequest = (SMQPBulkRequest) obj;
+            for (int i = 0; i < bulkRequest.len; i++) {
                 if (connection == null)
                     return;
-                dispatchDumpable(obj);
+                dispatchDumpable((Dumpable) bulkRequest.dumpables[i]);
             }
-        } catch (Exception e) {
-            if (reconnector.isDebug())
-                System.out.println(new Date() + " " + toString() + ": dataAvailable, exception= " + e);
-            if (closed) {
+        } else {
+            if (connection == null)
                 return;
+            dispatchDumpable(obj);
+        }
+    }
+
+    private void inboundFailed(String method, Exception e) {
+        if (reconnector.isDebug())
+            System.out.println(new Date() + " " + toString() + ": " + method + ", exception= " + e);
+        if (closed) {
+            return;
+        }
+        if (reconnector.isEnabled()) {
+            reconnect();
+        } else
+            cancelAndNotify(e, true);
+    }
+
+    public void dataAvailable(LengthCaptureDataInput in) {
+        try {
+            dispatchInbound(Dumpalizer.construct(in, dumpableFactory));
+        } catch (Exception e) {
+            inboundFailed("dataAvailable", e);
+        }
+    }
+
+    public void objectAvailable(Object obj) {
+        try {
+            dispatchInbound((Dumpable) obj);
+        } catch (Exception e) {
+            inboundFailed("objectAvailable", e);
+        }
+    }
+
+    private void passObjects(IntraVMConnection ivmConnection, Object[] bulk, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Object obj = bulk[i];
+            if (obj instanceof ProduceMessageRequest) {
+                // The producer may reuse the message after the reply, so the router gets a snapshot
+                ProduceMessageRequest request = (ProduceMessageRequest) obj;
+                if (request.getSingleMessage() != null)
+                    request.setSingleMessage(request.getSingleMessage().createSnapshot());
+                else
+                    request.detachMessageCopy();
             }
-            if (reconnector.isEnabled()) {
-                reconnect();
-            } else
-                cancelAndNotify(e, true);
+            ivmConnection.passObject(obj);
+        }
+    }
+
+    private static void releaseMessageCopies(Object[] bulk, int n) {
+        // Serialization buffers of fire-and-forget sends can be reused once their bytes have been written
+        for (int i = 0; i < n; i++) {
+            if (bulk[i] instanceof ProduceMessageRequest)
+                ((ProduceMessageRequest) bulk[i]).releaseMessageCopy();
         }
     }
 
@@ -1007,7 +1179,22 @@ public class ConnectionImpl extends RequestServiceRegistry
         SMQPBulkRequest bulkRequest = new SMQPBulkRequest();
 
         public ConnectionQueue() {
-            super(100);
+            super(writeCoalescer.getMaxBulkSize());
+        }
+
+        public void enqueue(Object obj) {
+            writeCoalescer.requestArrived();
+            super.enqueue(obj);
+        }
+
+        public void enqueue(Object[] objs, int n) {
+            for (int i = 0; i < n; i++)
+                writeCoalescer.requestArrived();
+            super.enqueue(objs, n);
+        }
+
+        protected int getBulkLimit() {
+            return writeCoalescer.getBulkLimit();
         }
 
         protected void startProcessor() {
@@ -1017,6 +1204,14 @@ public class ConnectionImpl extends RequestServiceRegistry
 
         protected void process(Object[] bulk, int n) {
             try {
+                IntraVMConnection ivmConnection = objectConnection;
+                if (ivmConnection != null) {
+                    passObjects(ivmConnection, bulk, n);
+                    writeCoalescer.bulkWritten(n, -1);
+                    return;
+                }
+                ProtocolOutputHandler handler = protocolOutputHandler;
+                long before = handler != null ? handler.getTotalBytesWritten() : 0;
                 if (n == 1)
                     writeObject((Dumpable) bulk[0]);
                 else {
@@ -1024,11 +1219,14 @@ public class ConnectionImpl extends RequestServiceRegistry
                     bulkRequest.len = n;
                     writeObject(bulkRequest);
                 }
+                writeCoalescer.bulkWritten(n, handler != null ? handler.getTotalBytesWritten() - before : -1);
             } catch (Exception e) {
                 if (reconnector.isEnabled()) {
                     reconnect();
                 } else
                     cancelAndNotify(e, true);
+            } finally {
+                releaseMessageCopies(bulk, n);
             }
         }
     }
@@ -1047,6 +1245,9 @@ public class ConnectionImpl extends RequestServiceRegistry
         }
 
         public void run() {
+            if (closed)
+                return;
+            writeCoalescer.linger(connectionQueue);
             if (!closed && connectionQueue.dequeue())
                 connectionPool.dispatchTask(this);
         }
@@ -69,6 +69,7 @@ public class Connector implements ReconnectVisitor, InboundHandler, ExceptionHan
     Timeout requestTimeoutTimer = null;
     ReentrantLock lock = new ReentrantLock();
     int internalRetryCount = MAX_INTERNAL_RETRY_COUNT;
+    long reconnectStart = -1;
 
     public Connector(Reconnector reconnector) {
         pipelineQueue = new PipelineQueue(PoolManager.getInstance().getConnectorPool(), "Connector", this);
@@ -184,8 +185,10 @@ public class Connector implements ReconnectVisitor, InboundHandler, ExceptionHan
             sem = po.getSemaphore();
             recreatableConnection = po.getRecreatableConnection();
             reconnector.setDebugString(recreatableConnection.toString());
-            if (!po.isInternalRetry())
+            if (!po.isInternalRetry()) {
+                reconnectStart = System.currentTimeMillis();
                 recreatableConnection.prepareForReconnect();
+            }
             connection = reconnector.getConnection();
             if (connection != null) {
                 if (debug) System.out.println(toString() + ", visit, po=" + po + ", connection=" + connection);
@@ -468,6 +471,10 @@ public class Connector implements ReconnectVisitor, InboundHandler, ExceptionHan
             if (connection != null || sem != null) {
                 if (debug) System.out.println(toString() + ", visit, po=" + po + " normal handover");
                 internalRetryCount = MAX_INTERNAL_RETRY_COUNT;
+                if (connection != null && reconnectStart != -1) {
+                    reconnector.reconnected(System.currentTimeMillis() - reconnectStart);
+                    reconnectStart = -1;
+                }
                 recreatableConnection.handOver(connection);
             } else {
                 if (po.isIgnoreNullConnection()) {
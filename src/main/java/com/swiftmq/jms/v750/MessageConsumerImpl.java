@@ -17,21 +17,27 @@
 
 package com.swiftmq.jms.v750;
 
+import com.swiftmq.jms.ConsumerPrefetchStatistics;
 import com.swiftmq.jms.ExceptionConverter;
 import com.swiftmq.jms.MessageImpl;
 import com.swiftmq.jms.SwiftMQMessageConsumer;
 import com.swiftmq.jms.smqp.v750.*;
 import com.swiftmq.swiftlet.queue.MessageEntry;
 import com.swiftmq.swiftlet.queue.MessageIndex;
-import com.swiftmq.tools.collection.RingBuffer;
-import com.swiftmq.tools.collection.RingBufferThreadsafe;
+import com.swiftmq.tools.collection.FingerprintLog;
+import com.swiftmq.tools.collection.LongHashSet;
+import com.swiftmq.tools.collection.SpscRingBuffer;
 import com.swiftmq.tools.concurrent.Semaphore;
 import com.swiftmq.tools.requestreply.*;
+import com.swiftmq.tools.timer.TimerEvent;
+import com.swiftmq.tools.timer.TimerListener;
+import com.swiftmq.tools.timer.TimerRegistry;
 import com.swiftmq.tools.util.IdGenerator;
-import com.swiftmq.tools.util.UninterruptableWaiter;
 
 import javax.jms.IllegalStateException;
 import javax.jms.*;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -40,7 +46,12 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsumer, Recreatable, RequestRetryValidator {
+    static final boolean DEBUG = Boolean.valueOf(System.getProperty("swiftmq.reconnect.debug", "false")).booleanValue();
+    static final int DUPS_OK_ACK_BATCH_SIZE = Integer.parseInt(System.getProperty("swiftmq.jms.dupsok.ackbatch.size", "100"));
+    static final int AUTO_ACK_BATCH_SIZE = Integer.parseInt(System.getProperty("swiftmq.jms.autoack.ackbatch.size", "1"));
+    static final long ACK_BATCH_INTERVAL = Long.parseLong(System.getProperty("swiftmq.jms.ackbatch.interval", "100"));
     final String uniqueConsumerId = IdGenerator.getInstance().nextId('/');
+    final long uniqueConsumerHash = FingerprintLog.hash(uniqueConsumerId);
     final AtomicBoolean closed = new AtomicBoolean(false);
     final AtomicInteger consumerId = new AtomicInteger();
     final AtomicBoolean transacted = new AtomicBoolean(false);
@@ -52,7 +63,8 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
     int serverQueueConsumerId = -1;
     boolean useThreadContextCL = false;
     final AtomicBoolean cancelled = new AtomicBoolean(false);
-    RingBuffer messageCache = null;
+    // Filled by the session's delivery task and cleared from any thread, drained by the receiver or listener under lock
+    SpscRingBuffer messageCache = null;
     final AtomicBoolean doAck = new AtomicBoolean(false);
     final AtomicBoolean reportDelivered = new AtomicBoolean(false);
     final AtomicBoolean recordLog = new AtomicBoolean(true);
@@ -63,7 +75,16 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
     final AtomicBoolean consumerStarted = new AtomicBoolean(false);
     final Lock lock = new ReentrantLock();
     final Lock fillCacheLock = new ReentrantLock();
-    final UninterruptableWaiter waiter = new UninterruptableWaiter(lock);
+    // Acknowledgements of AUTO_ACKNOWLEDGE/DUPS_OK_ACKNOWLEDGE consumers collected under lock, see ackDelivered
+    int ackBatchSize = 1;
+    final List<MessageIndex> pendingAcks = new ArrayList<>();
+    final LongHashSet pendingAckIds = new LongHashSet();
+    // Id of a single delivered message being acknowledged, used under lock
+    final LongHashSet ackIds = new LongHashSet();
+    int pendingAcksConnectionId = -1;
+    long pendingAcksSince = 0;
+    AckFlusher ackFlusher = null;
+    PrefetchController prefetchController = null;
 
     public MessageConsumerImpl(boolean transacted, int acknowledgeMode, RequestRegistry requestRegistry,
                                String messageSelector, SessionImpl session) {
@@ -74,7 +95,13 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
         this.mySession = session;
         useThreadContextCL = mySession.getMyConnection().isUseThreadContextCL();
         reportDelivered.set(transacted || acknowledgeMode == Session.CLIENT_ACKNOWLEDGE);
-        messageCache = new RingBufferThreadsafe(mySession.getMyConnection().getSmqpConsumerCacheSize());
+        ConnectionImpl connection = mySession.getMyConnection();
+        messageCache = new SpscRingBuffer(connection.getSmqpConsumerCacheSize());
+        prefetchController = new PrefetchController(connection.getSmqpConsumerCacheSize(), connection.getSmqpConsumerCacheSizeKB(), connection.getPrefetchBudget());
+        if (!transacted && acknowledgeMode == Session.DUPS_OK_ACKNOWLEDGE)
+            ackBatchSize = DUPS_OK_ACK_BATCH_SIZE;
+        else if (!transacted && acknowledgeMode == Session.AUTO_ACKNOWLEDGE)
+            ackBatchSize = AUTO_ACK_BATCH_SIZE;
     }
 
     public Request getRecreateRequest() {
@@ -141,28 +168,19 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
     }
 
     boolean invokeConsumer() {
-        boolean shouldSignal = false;
-
-        // Locking block to safely update receiverWaiting
-        lock.lock();
-        try {
-            if (messageCache.getSize() > 0) {
-                if (messageListener == null) {
-                    if (receiverWaiting.get()) {
-                        receiverWaiting.set(false);
-                        shouldSignal = true; // Set flag to signal after releasing the lock
-                    }
-                } else {
+        if (messageCache.getSize() > 0) {
+            if (messageListener == null) {
+                if (receiverWaiting.compareAndSet(true, false))
+                    messageCache.signal();
+            } else {
+                ParallelDispatcher dispatcher = mySession.parallelDispatcher;
+                if (dispatcher == null)
                     invokeMessageListener();
-                }
+                else if (dispatcher.hasCapacity())
+                    dispatchMessageListener(dispatcher);
+                else
+                    return false; // Triggered again when a listener completes
             }
-        } finally {
-            lock.unlock();
-        }
-
-        // Signal outside of the lock
-        if (shouldSignal) {
-            waiter.signal();
         }
         return messageCache.getSize() > 0 && (messageListener != null || receiverWaiting.get()) && !isClosed();
     }
@@ -174,8 +192,9 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                 return;
             fillCachePending.set(true);
             consumerStarted.set(true);
+            prefetchController.nextWindow();
             requestRegistry.request(new StartConsumerRequest(this, mySession.dispatchId, serverQueueConsumerId,
-                    mySession.getMyDispatchId(), consumerId.get(), mySession.getMyConnection().getSmqpConsumerCacheSize(), mySession.getMyConnection().getSmqpConsumerCacheSizeKB()));
+                    mySession.getMyDispatchId(), consumerId.get(), prefetchController.getWindowSize(), prefetchController.getWindowSizeKB()));
         } finally {
             fillCacheLock.unlock();
         }
@@ -190,6 +209,10 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
         messageCache.clear();
     }
 
+    public ConsumerPrefetchStatistics getPrefetchStatistics() {
+        return prefetchController;
+    }
+
     public boolean isClosed() {
         return closed.get() || mySession.isClosed();
     }
@@ -229,28 +252,35 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
             mySession.triggerInvocation();
     }
 
+    // Prepares a message taken from the cache for the MessageListener, called under lock
+    private MessageImpl prepareMessage(AsyncMessageDeliveryRequest request) {
+        MessageEntry messageEntry = request.getMessageEntry();
+        MessageImpl msg = messageEntry.getMessage();
+        prefetchController.messageConsumed(msg.getMessageLength());
+        messageEntry.moveMessageAttributes();
+        msg.setMessageConsumerImpl(this);
+        try {
+            msg.reset();
+        } catch (JMSException e) {
+            e.printStackTrace();
+        }
+        msg.setReadOnly(true);
+        msg.setUseThreadContextCL(useThreadContextCL);
+        return msg;
+    }
+
     private void invokeMessageListener() {
         lock.lock();
         try {
             if (isClosed())
                 return;
             AsyncMessageDeliveryRequest request = (AsyncMessageDeliveryRequest) messageCache.remove();
-            MessageEntry messageEntry = request.getMessageEntry();
-            MessageImpl msg = messageEntry.getMessage();
-            messageEntry.moveMessageAttributes();
+            MessageImpl msg = prepareMessage(request);
             MessageIndex msgIndex = msg.getMessageIndex();
-            msg.setMessageConsumerImpl(this);
-            try {
-                msg.reset();
-            } catch (JMSException e) {
-                e.printStackTrace();
-            }
-            msg.setReadOnly(true);
-            msg.setUseThreadContextCL(useThreadContextCL);
-            String id = null;
+            long id = 0;
             boolean duplicate = false;
             if (recordLog.get()) {
-                id = SessionImpl.buildId(uniqueConsumerId, msg);
+                id = SessionImpl.buildId(uniqueConsumerHash, msg);
                 duplicate = mySession.myConnection.isDuplicateMessageDetection() && mySession.isDuplicate(id);
             }
             if (reportDelivered.get())
@@ -286,7 +316,7 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                     fillCache();
                 if (doAck.get()) {
                     try {
-                        acknowledgeMessage(msgIndex, false);
+                        ackDelivered(msgIndex, id);
                     } catch (JMSException e) {
                         throw new RuntimeException(e);
                     }
@@ -307,6 +337,73 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
         }
     }
 
+    // Parallel dispatch: prepares the next message on the session's delivery task and hands it over
+    private void dispatchMessageListener(ParallelDispatcher dispatcher) {
+        lock.lock();
+        try {
+            if (isClosed())
+                return;
+            AsyncMessageDeliveryRequest request = (AsyncMessageDeliveryRequest) messageCache.remove();
+            MessageImpl msg = prepareMessage(request);
+            long id = 0;
+            boolean duplicate = false;
+            if (recordLog.get()) {
+                id = SessionImpl.buildId(uniqueConsumerHash, msg);
+                duplicate = mySession.myConnection.isDuplicateMessageDetection() && mySession.isDuplicate(id);
+            }
+            if (request.isRequiresRestart())
+                fillCache();
+            if (duplicate) {
+                if (doAck.get()) {
+                    try {
+                        ackDelivered(msg.getMessageIndex(), id);
+                    } catch (JMSException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return;
+            }
+            if (recordLog.get() && mySession.myConnection.isDuplicateMessageDetection())
+                mySession.addCurrentTxLog(id);
+            dispatcher.dispatch(new ParallelDispatcher.Work(this, msg, id, mySession.recoveryEpoche));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Parallel dispatch: runs the listener on the listener pool and acknowledges the message afterwards
+    void invokeMessageListener(ParallelDispatcher.Work work) {
+        MessageListener listener = messageListener;
+        if (isClosed() || listener == null)
+            return;
+        SessionImpl.onMessageContext.set(work.message);
+        try {
+            listener.onMessage(work.message);
+        } catch (RuntimeException e) {
+            System.err.println("ERROR! MessageListener throws RuntimeException, shutting down consumer!");
+            e.printStackTrace();
+            try {
+                close(e.toString());
+            } catch (JMSException e1) {
+            }
+            return;
+        } finally {
+            SessionImpl.onMessageContext.remove();
+        }
+        lock.lock();
+        try {
+            // Messages of a recovered session are redelivered
+            if (!isClosed() && doAck.get() && work.recoveryEpoche == mySession.recoveryEpoche)
+                ackDelivered(work.message.getMessageIndex(), work.id);
+        } catch (JMSException e) {
+            // Reported like a failed acknowledgement on the session task, without stopping the partition
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, new RuntimeException(e));
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public boolean acknowledgeMessage(MessageImpl message) throws JMSException {
         if (transacted.get())
             throw new IllegalStateException("acknowledge not possible, session is transacted!");
@@ -316,6 +413,11 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
     }
 
     private boolean acknowledgeMessage(MessageIndex messageIndex, boolean replyRequired) throws JMSException {
+        return acknowledgeMessage(messageIndex, null, replyRequired);
+    }
+
+    // Settles the tx log entries of the ids or, if null, of the whole session
+    private boolean acknowledgeMessage(MessageIndex messageIndex, LongHashSet ids, boolean replyRequired) throws JMSException {
         if (isClosed())
             throw new javax.jms.IllegalStateException("Connection is closed");
 
@@ -330,10 +432,17 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
             reply = requestRegistry.request(request);
             if (request.isCancelledByValidator()) {
                 cancelled = true;
-                mySession.addCurrentTxToDuplicateLog();
+                if (ids != null)
+                    mySession.addToDuplicateLog(ids);
+                else
+                    mySession.addCurrentTxToDuplicateLog();
+            }
+            if (ids != null)
+                mySession.removeFromTxLogs(ids);
+            else {
+                mySession.removeCurrentTxFromRollbackLog();
+                mySession.clearCurrentTxLog();
             }
-            mySession.removeCurrentTxFromRollbackLog();
-            mySession.clearCurrentTxLog();
         } catch (Exception e) {
             if (isClosed()) throw new javax.jms.IllegalStateException("Connection is closed: " + e);
             throw ExceptionConverter.convert(e);
@@ -346,6 +455,112 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
         return cancelled;
     }
 
+    /**
+     * Acknowledges a delivered message. With a batch size above 1, the acknowledgement is collected and sent
+     * together with others once the batch is full or the oldest is older than the batch interval. Up to a
+     * batch of processed messages may then be redelivered after a failure; their ids are kept in the
+     * duplicate log so they are not delivered twice. Called under lock.
+     */
+    private void ackDelivered(MessageIndex messageIndex, long id) throws JMSException {
+        if (ackBatchSize <= 1) {
+            // Only this message's id, listeners of other partitions may still hold theirs in the tx log
+            ackIds.clear();
+            if (id != 0)
+                ackIds.add(id);
+            acknowledgeMessage(messageIndex, ackIds, false);
+            return;
+        }
+        int connectionId = mySession.myConnection.getConnectionId();
+        if (!pendingAcks.isEmpty() && pendingAcksConnectionId != connectionId)
+            dropPendingAcks();
+        if (pendingAcks.isEmpty()) {
+            pendingAcksConnectionId = connectionId;
+            pendingAcksSince = System.currentTimeMillis();
+            if (ackFlusher == null) {
+                ackFlusher = new AckFlusher();
+                TimerRegistry.Singleton().addTimerListener(ACK_BATCH_INTERVAL, ackFlusher);
+            }
+        }
+        pendingAcks.add(messageIndex);
+        if (id != 0)
+            pendingAckIds.add(id);
+        if (pendingAcks.size() >= ackBatchSize || System.currentTimeMillis() - pendingAcksSince >= ACK_BATCH_INTERVAL)
+            flushAcks();
+    }
+
+    /**
+     * Sends the collected acknowledgements, in one AcknowledgeMessagesRequest if the router supports it,
+     * otherwise as AcknowledgeMessageRequests in a single batch. Acknowledgements collected before a
+     * reconnect or cancelled by the validator are dropped; those messages are redelivered and then
+     * filtered by the duplicate log. Called under lock.
+     */
+    private void flushAcks() {
+        int n = pendingAcks.size();
+        if (n == 0)
+            return;
+        if (pendingAcksConnectionId != mySession.myConnection.getConnectionId() || isClosed()) {
+            dropPendingAcks();
+            return;
+        }
+        try {
+            boolean cancelled = false;
+            if (mySession.myConnection.isAckBatchSupported()) {
+                AcknowledgeMessagesRequest request = new AcknowledgeMessagesRequest(this, mySession.dispatchId, serverQueueConsumerId, new ArrayList<>(pendingAcks));
+                request.setReplyRequired(false);
+                requestRegistry.request(request);
+                cancelled = request.isCancelledByValidator();
+            } else {
+                Request[] requests = new Request[n];
+                for (int i = 0; i < n; i++) {
+                    requests[i] = new AcknowledgeMessageRequest(this, mySession.dispatchId, serverQueueConsumerId, pendingAcks.get(i));
+                    requests[i].setReplyRequired(false);
+                }
+                requestRegistry.requestBatch(requests, n, null);
+                for (int i = 0; i < n && !cancelled; i++)
+                    cancelled = requests[i].isCancelledByValidator();
+            }
+            if (cancelled)
+                mySession.addToDuplicateLog(pendingAckIds);
+            mySession.removeFromTxLogs(pendingAckIds);
+        } catch (Exception e) {
+            if (DEBUG) System.out.println(new Date() + " " + toString() + ", flushAcks, exception=" + e);
+            mySession.addToDuplicateLog(pendingAckIds);
+            mySession.removeFromTxLogs(pendingAckIds);
+        } finally {
+            pendingAcks.clear();
+            pendingAckIds.clear();
+        }
+    }
+
+    // Acknowledgements that can't be sent anymore, the router redelivers these messages
+    private void dropPendingAcks() {
+        if (DEBUG) System.out.println(new Date() + " " + toString() + ", dropPendingAcks, size=" + pendingAcks.size());
+        mySession.addToDuplicateLog(pendingAckIds);
+        mySession.removeFromTxLogs(pendingAckIds);
+        pendingAcks.clear();
+        pendingAckIds.clear();
+    }
+
+    /**
+     * Sends the collected acknowledgements, before the session is recovered or closed.
+     */
+    void flushPendingAcks() {
+        lock.lock();
+        try {
+            flushAcks();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stopAckFlusher() {
+        AckFlusher flusher = ackFlusher;
+        if (flusher != null) {
+            TimerRegistry.Singleton().removeTimerListener(ACK_BATCH_INTERVAL, flusher);
+            ackFlusher = null;
+        }
+    }
+
     Message receiveMessage(boolean block, long timeout) throws JMSException {
         lock.lock();
         try {
@@ -357,7 +572,7 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
             boolean wasDuplicate = false;
             boolean wasInvalidConnectionId = false;
             MessageImpl msg = null;
-            String id = null;
+            long id = 0;
             do {
                 wasDuplicate = false;
                 wasInvalidConnectionId = false;
@@ -366,14 +581,13 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                 do {
                     if (messageCache.getSize() == 0) {
                         if (block) {
-                            receiverWaiting.set(true);
                             if (timeout == 0) {
-                                waiter.doWait();
+                                awaitMessage(0);
                             } else {
                                 long to = timeout;
                                 do {
                                     long startWait = System.nanoTime();
-                                    waiter.doWait(to);
+                                    awaitMessage(to);
                                     long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startWait);
                                     to -= delta;
                                 }
@@ -381,8 +595,7 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                             }
                         } else {
                             if (fillCachePending.get() && receiveNoWaitFirstCall.get()) {
-                                receiverWaiting.set(true);
-                                waiter.doWait(1000);
+                                awaitMessage(1000);
                             }
                         }
                         if (cancelled.get())
@@ -399,6 +612,7 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                 } else {
                     MessageEntry messageEntry = request.getMessageEntry();
                     msg = messageEntry.getMessage();
+                    prefetchController.messageConsumed(msg.getMessageLength());
                     messageEntry.moveMessageAttributes();
                     msg.setMessageConsumerImpl(this);
                     msg.reset();
@@ -407,14 +621,17 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                     if (request.isRequiresRestart())
                         fillCache();
                     if (recordLog.get()) {
-                        id = SessionImpl.buildId(uniqueConsumerId, msg);
+                        id = SessionImpl.buildId(uniqueConsumerHash, msg);
                         wasDuplicate = mySession.myConnection.isDuplicateMessageDetection() && mySession.isDuplicate(id);
                     }
                     if (reportDelivered.get())
                         reportDelivered(msg, false);
                     if (doAck.get()) {
+                        // The acknowledgement removes the id from the tx log once it is sent
+                        if (!wasDuplicate && recordLog.get() && mySession.myConnection.isDuplicateMessageDetection())
+                            mySession.addCurrentTxLog(id);
                         try {
-                            acknowledgeMessage(msg.getMessageIndex(), false);
+                            ackDelivered(msg.getMessageIndex(), id);
                         } catch (JMSException ignored) {
                         }
                     }
@@ -424,7 +641,7 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
                 }
             } while (wasDuplicate || wasInvalidConnectionId);
 
-            if (recordLog.get() && mySession.myConnection.isDuplicateMessageDetection())
+            if (recordLog.get() && mySession.myConnection.isDuplicateMessageDetection() && !doAck.get())
                 mySession.addCurrentTxLog(id);
             return msg;
         } finally {
@@ -433,6 +650,20 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
 
     }
 
+    // Parks the receiver without holding the consumer lock, like a condition wait. The flag is set before the
+    // cache is checked again, so a delivery in between either is seen here or signals the receiver.
+    private void awaitMessage(long timeout) {
+        receiverWaiting.set(true);
+        if (messageCache.getSize() > 0)
+            return;
+        lock.unlock();
+        try {
+            messageCache.await(timeout);
+        } finally {
+            lock.lock();
+        }
+    }
+
     public Message receive() throws JMSException {
         return receiveMessage(true, 0);
     }
@@ -452,13 +683,16 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
         try {
             if (isClosed())
                 return;
+            flushAcks();
+            stopAckFlusher();
             closed.set(true);
             messageCache.clear();
+            prefetchController.close();
         } finally {
             lock.unlock();
         }
 
-        waiter.signal();
+        messageCache.signal();
 
         Reply reply = null;
 
@@ -494,14 +728,29 @@ public class MessageConsumerImpl implements MessageConsumer, SwiftMQMessageConsu
             cancelled.set(true);
             closed.set(true);
             messageCache.clear();
+            pendingAcks.clear();
+            pendingAckIds.clear();
+            stopAckFlusher();
+            prefetchController.close();
         } finally {
             lock.unlock();
         }
 
-        waiter.signal();
+        messageCache.signal();
     }
 
-}
-
-
 
+    private class AckFlusher implements TimerListener {
+        public void performTimeAction(TimerEvent evt) {
+            // Never block the timer thread, a busy consumer flushes by itself
+            if (lock.tryLock()) {
+                try {
+                    if (!pendingAcks.isEmpty() && System.currentTimeMillis() - pendingAcksSince >= ACK_BATCH_INTERVAL)
+                        flushAcks();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
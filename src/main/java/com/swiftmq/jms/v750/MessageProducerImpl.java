@@ -22,14 +22,16 @@ import com.swiftmq.jms.smqp.v750.CloseProducerRequest;
 import com.swiftmq.jms.smqp.v750.ProduceMessageReply;
 import com.swiftmq.jms.smqp.v750.ProduceMessageRequest;
 import com.swiftmq.jms.smqp.v750.SMQPUtil;
-import com.swiftmq.tools.concurrent.AtomicWrappingCounterInteger;
 import com.swiftmq.tools.requestreply.*;
-import com.swiftmq.tools.util.DataByteArrayOutputStream;
 import com.swiftmq.tools.util.IdGenerator;
 
 import javax.jms.IllegalStateException;
 import javax.jms.*;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageProducerImpl implements MessageProducerExtended, RequestRetryValidator {
     private static final boolean ASYNC_SEND = Boolean.valueOf(System.getProperty("swiftmq.jms.persistent.asyncsend", "false")).booleanValue();
@@ -43,16 +45,16 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
     int deliveryMode;
     int priority;
     long timeToLive;
-    AtomicWrappingCounterInteger tsInc = new AtomicWrappingCounterInteger(0);
-    int nSend = 0;
-    long currentDelay = 0;
-    int replyThreshold = 0;
+    AtomicLong idCounter = new AtomicLong(0);
+    ProducerFlowControl flowControl = null;
     String uniqueProducerId = IdGenerator.getInstance().nextId('/');
-    String idPrefix = null;
+    CompactMessageId.Prefix idPrefix = null;
     boolean skipMessageInits = false;
     // JMS 1.1
     DestinationImpl destImpl = null;
     String clientId = null;
+    volatile AsyncSendTracker asyncSendTracker = null;
+    final SerializationBufferPool serializationBuffers = new SerializationBufferPool();
 
 
     public MessageProducerImpl(SessionImpl mySession, int producerId,
@@ -63,7 +65,7 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
         this.requestRegistry = requestRegistry;
         this.myHostname = myHostname;
         this.clientId = clientId;
-        replyThreshold = mySession.getMyConnection().getSmqpProducerReplyInterval();
+        flowControl = new ProducerFlowControl(mySession.getMyConnection().getSmqpProducerReplyInterval());
         disableMessageId = !mySession.getMyConnection().isJmsMessageIdEnabled();
         disableTimestamp = !mySession.getMyConnection().isJmsMessageTimestampEnabled();
         deliveryMode = mySession.getMyConnection().getJmsDeliveryMode();
@@ -73,7 +75,7 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
         b.append('/');
         b.append(uniqueProducerId);
         b.append('/');
-        idPrefix = b.toString();
+        idPrefix = new CompactMessageId.Prefix(b.toString());
     }
 
     public void setSkipMessageInits(boolean skipMessageInits) {
@@ -126,17 +128,15 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
         mySession.verifyState();
     }
 
-    private String nextId() {
-        StringBuffer b = new StringBuffer(idPrefix);
-        b.append(tsInc.getAndIncrement());
-        return b.toString();
+    private CompactMessageId nextId() {
+        return new CompactMessageId(idPrefix, idCounter.getAndIncrement());
     }
 
     Message initMessageForSend(Message message) throws JMSException {
         if (message == null)
             throw new JMSException("The message you try to send is NULL!");
         MessageImpl msg = null;
-        if (mySession.withinOnMessage && message == mySession.onMessageMessage || !(message instanceof com.swiftmq.jms.MessageImpl))
+        if (mySession.isOnMessageMessage(message) || !(message instanceof com.swiftmq.jms.MessageImpl))
             msg = (MessageImpl) MessageCloner.cloneMessage(message);
         else
             msg = (MessageImpl) message;
@@ -163,7 +163,7 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
         }
 
         if (!disableMessageId) {
-            msg.setJMSMessageID(nextId());
+            msg.setCompactMessageId(nextId());
             if (msg != message) {
                 String oldId = msg.getJMSMessageID();
                 if (oldId.startsWith("ID:"))
@@ -185,14 +185,18 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
         if (transacted) {
             mySession.storeTransactedMessage(this, msg);
         } else {
-            nSend++;
             ProduceMessageReply reply = null;
-            boolean replyRequired = nSend == replyThreshold || msg.getJMSDeliveryMode() == DeliveryMode.PERSISTENT && !ASYNC_SEND;
+            boolean persistentReply = msg.getJMSDeliveryMode() == DeliveryMode.PERSISTENT && !ASYNC_SEND;
+            // Waits if the router throttles; the last credit of a window requires a reply which grants the next one
+            boolean replyRequired = flowControl.acquire(true) || persistentReply;
             try {
                 ProduceMessageRequest request = null;
                 if (!replyRequired) {
-                    byte[] b = getBytes(msg);
-                    request = new ProduceMessageRequest(this, mySession.dispatchId, producerId, null, b);
+                    // Not retried, so the serialized slice is sent as is and the buffer returns to the pool after the write
+                    SerializationBufferPool.Buffer buffer = serializationBuffers.lease();
+                    msg.writeContent(buffer);
+                    request = new ProduceMessageRequest(this, mySession.dispatchId, producerId, null, null);
+                    request.setMessageCopy(buffer.getBuffer(), buffer.getCount(), buffer);
                 } else
                     request = new ProduceMessageRequest(this, mySession.dispatchId, producerId, msg, null);
                 request.setReplyRequired(replyRequired);
@@ -204,31 +208,69 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
             if (replyRequired) {
                 if (reply == null)
                     throw new JMSException("Request was cancelled (reply == null)");
-                nSend = 0;
+                flowControl.grant(reply.isOk() ? reply.getDelay() : 0);
                 if (!reply.isOk()) {
                     throw ExceptionConverter.convert(reply.getException());
                 }
-                currentDelay = reply.getDelay();
-                if (currentDelay > 0) {
-                    try {
-                        Thread.sleep(currentDelay);
-                    } catch (Exception ignored) {
-                    }
-                }
             }
         }
         // fix 1.2
         msg.reset();
     }
 
+    private AsyncSendTracker getAsyncSendTracker() {
+        if (asyncSendTracker == null)
+            asyncSendTracker = new AsyncSendTracker(myHostname + "/Producer/" + uniqueProducerId, flowControl);
+        return asyncSendTracker;
+    }
+
+    CompletableFuture<Message> processSendAsync(int producerId, MessageImpl msg, Message message) throws JMSException {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        if (mySession.getTransacted()) {
+            // Nothing to wait for before commit
+            mySession.storeTransactedMessage(this, msg);
+            msg.reset();
+            future.complete(message);
+            return future;
+        }
+        AsyncSendTracker tracker = getAsyncSendTracker();
+        flowControl.acquire(false);
+        byte[] b = null;
+        try {
+            b = getBytes(msg);
+        } catch (Exception e) {
+            throw ExceptionConverter.convert(e);
+        }
+        tracker.acquire(b.length);
+        try {
+            ProduceMessageRequest request = new ProduceMessageRequest(this, mySession.dispatchId, producerId, null, b);
+            request.setReplyRequired(true);
+            requestRegistry.requestAsync(request, tracker.createListener(future, message, b.length));
+        } catch (Exception e) {
+            tracker.release(b.length);
+            throw ExceptionConverter.convert(e);
+        }
+        msg.reset();
+        return future;
+    }
+
+    public ProducerFlowControlStatistics getFlowControlStatistics() {
+        return flowControl;
+    }
+
+    public int getAsyncSendsInFlight() {
+        AsyncSendTracker tracker = asyncSendTracker;
+        return tracker != null ? tracker.getInFlight() : 0;
+    }
+
     private byte[] getBytes(MessageImpl msg) throws IOException {
-        DataByteArrayOutputStream dbos = new DataByteArrayOutputStream(2048);
-        byte[] b;
-        dbos.rewind();
-        msg.writeContent(dbos);
-        b = new byte[dbos.getCount()];
-        System.arraycopy(dbos.getBuffer(), 0, b, 0, b.length);
-        return b;
+        SerializationBufferPool.Buffer buffer = serializationBuffers.lease();
+        try {
+            msg.writeContent(buffer);
+            return SerializationBufferPool.toByteArray(buffer);
+        } finally {
+            buffer.run();
+        }
     }
 
     public void setDestinationImpl(Destination destImpl) {
@@ -330,6 +372,131 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
     }
     // <-- JMS 1.1
 
+    public CompletableFuture<Message> sendAsync(Message message) throws JMSException {
+        verifyState();
+
+        if (this.destImpl == null)
+            throw new UnsupportedOperationException("Cannot send unidentified on an unidentified MessageProducer!");
+
+        Message msg = initMessageForSend(message);
+        msg.setJMSDestination(destImpl);
+        // TCK: Foreign messages
+        if (msg != message)
+            message.setJMSDestination(destImpl);
+        if (isTopicDestination() && clientId != null)
+            msg.setStringProperty(MessageImpl.PROP_CLIENT_ID, clientId);
+        return processSendAsync(producerId, (MessageImpl) msg, message);
+    }
+
+    public CompletableFuture<Message> sendAsync(Destination dest, Message message) throws JMSException {
+        verifyState();
+
+        if (this.destImpl != null)
+            throw new UnsupportedOperationException("This send method is only supported for unidentified MessageProducer!");
+
+        Message msg = initMessageForSend(message);
+        msg.setJMSDestination(dest);
+        // TCK: Foreign message
+        if (msg != message)
+            message.setJMSDestination(dest);
+        if (isTopicDestination((DestinationImpl) dest) && clientId != null)
+            msg.setStringProperty(MessageImpl.PROP_CLIENT_ID, clientId);
+        return processSendAsync(-1, (MessageImpl) msg, message);
+    }
+
+    public void send(List<Message> messages) throws JMSException {
+        verifyState();
+
+        if (this.destImpl == null)
+            throw new UnsupportedOperationException("Cannot send unidentified on an unidentified MessageProducer!");
+
+        processSendBatch(producerId, messages);
+    }
+
+    private MessageImpl prepareBatchMessage(Message message) throws JMSException {
+        Message msg = initMessageForSend(message);
+        msg.setJMSDestination(destImpl);
+        // TCK: Foreign messages
+        if (msg != message)
+            message.setJMSDestination(destImpl);
+        if (isTopicDestination() && clientId != null)
+            msg.setStringProperty(MessageImpl.PROP_CLIENT_ID, clientId);
+        return (MessageImpl) msg;
+    }
+
+    private static void releaseMessageCopies(ProduceMessageRequest[] requests, int n) {
+        for (int i = 0; i < n; i++)
+            requests[i].releaseMessageCopy();
+    }
+
+    void processSendBatch(int producerId, List<Message> messages) throws JMSException {
+        int n = messages.size();
+        if (n == 0)
+            return;
+        // Each message is initialized and serialized in one step because the same instance may occur more than
+        // once in a batch; initializing all of them first would give every occurrence the last message id.
+        if (mySession.getTransacted()) {
+            for (int i = 0; i < n; i++) {
+                MessageImpl msg = prepareBatchMessage(messages.get(i));
+                mySession.storeTransactedMessage(this, msg);
+                msg.reset();
+            }
+            return;
+        }
+        // Sent in windows of the producer's credits, each completes with the router's reply to its last message
+        int windowSize = flowControl.getWindowSize();
+        if (windowSize == 0)
+            windowSize = n;
+        for (int from = 0; from < n; from += windowSize)
+            sendBatchWindow(producerId, messages, from, Math.min(n, from + windowSize));
+    }
+
+    private void sendBatchWindow(int producerId, List<Message> messages, int from, int to) throws JMSException {
+        flowControl.acquire(false);
+        // Persistent messages and the last one require a reply, the window completes with all of them.
+        int n = to - from;
+        ProduceMessageRequest[] requests = new ProduceMessageRequest[n];
+        int nRequests = 0;
+        int nReplies = 0;
+        try {
+            for (int i = from; i < to; i++) {
+                MessageImpl msg = prepareBatchMessage(messages.get(i));
+                boolean replyRequired = i == to - 1 || msg.getJMSDeliveryMode() == DeliveryMode.PERSISTENT && !ASYNC_SEND;
+                ProduceMessageRequest request = new ProduceMessageRequest(this, mySession.dispatchId, producerId, null, null);
+                if (replyRequired) {
+                    request.setMessageCopy(getBytes(msg));
+                    nReplies++;
+                } else {
+                    SerializationBufferPool.Buffer buffer = serializationBuffers.lease();
+                    try {
+                        msg.writeContent(buffer);
+                    } catch (Exception e) {
+                        buffer.run();
+                        throw e;
+                    }
+                    request.setMessageCopy(buffer.getBuffer(), buffer.getCount(), buffer);
+                }
+                request.setReplyRequired(replyRequired);
+                requests[nRequests++] = request;
+                msg.reset();
+            }
+        } catch (Exception e) {
+            // Nothing of this window has been sent yet, return the buffers leased so far
+            releaseMessageCopies(requests, nRequests);
+            throw ExceptionConverter.convert(e);
+        }
+        BatchCompletion completion = new BatchCompletion(nReplies);
+        try {
+            requestRegistry.requestBatch(requests, n, completion);
+        } catch (Exception e) {
+            throw ExceptionConverter.convert(e);
+        }
+        completion.await();
+        flowControl.grant(completion.delay);
+        if (completion.exception != null)
+            throw completion.exception;
+    }
+
     /**
      * Get an indication of whether message IDs are disabled.
      *
@@ -504,6 +671,13 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
         }
 
         closed = true;
+        AsyncSendTracker tracker = asyncSendTracker;
+        if (tracker != null) {
+            // Outstanding asynchronous sends are completed before the producer is closed
+            tracker.awaitCompletion(RequestRegistry.SWIFTMQ_REQUEST_TIMEOUT);
+            tracker.close();
+        }
+        flowControl.close();
 
         // Fix: 2.1.0
         if (producerId == -1)
@@ -531,7 +705,39 @@ public class MessageProducerImpl implements MessageProducerExtended, RequestRetr
     public void close() throws JMSException {
         _close(true);
     }
-}
 
+    private static class BatchCompletion implements ReplyListener {
+        final CountDownLatch latch;
+        volatile JMSException exception = null;
+        volatile long delay = 0;
 
+        BatchCompletion(int nReplies) {
+            latch = new CountDownLatch(nReplies);
+        }
+
+        public void replyReceived(Request request, Reply reply) {
+            if (reply == null) {
+                if (exception == null)
+                    exception = new JMSException("Request was cancelled (reply == null)");
+            } else if (!reply.isOk()) {
+                if (exception == null)
+                    exception = reply.getException() != null ? ExceptionConverter.convert(reply.getException()) : new JMSException("Send failed");
+            } else
+                delay = Math.max(delay, ((ProduceMessageReply) reply).getDelay());
+            latch.countDown();
+        }
 
+        void await() {
+            boolean interrupted = false;
+            while (latch.getCount() > 0) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms.v750;
+
+import com.swiftmq.jms.MessageImpl;
+import com.swiftmq.swiftlet.threadpool.AsyncTask;
+import com.swiftmq.swiftlet.threadpool.ThreadPool;
+
+import javax.jms.JMSException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs the MessageListeners of a session with parallel dispatch on a thread pool.
+ * <p>
+ * Messages with the same value of the partition property are processed one after another in delivery order,
+ * messages with different values or without the property run concurrently. At most <code>maxInFlight</code>
+ * messages are handed over at a time; the session's delivery task stops taking messages from the consumer caches
+ * until a listener completes.
+ * </p>
+ */
+class ParallelDispatcher {
+    static final String DISPATCH_TOKEN = "sys$jms.client.session.listenertask";
+    static final ThreadLocal<ParallelDispatcher> current = new ThreadLocal<>();
+
+    final ThreadPool pool;
+    final String partitionProperty;
+    final int maxInFlight;
+    final String description;
+    final Runnable capacityListener;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition drained = lock.newCondition();
+    final Map<Object, Partition> partitions = new HashMap<>();
+    int inFlight = 0;
+    int running = 0;
+    boolean closed = false;
+
+    /**
+     * @param pool              pool to run the listeners
+     * @param maxInFlight       maximum number of messages handed over at a time
+     * @param partitionProperty message property to partition by, may be null
+     * @param description       task description
+     * @param capacityListener  called when a listener completes after the maximum was reached
+     */
+    ParallelDispatcher(ThreadPool pool, int maxInFlight, String partitionProperty, String description, Runnable capacityListener) {
+        this.pool = pool;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.partitionProperty = partitionProperty;
+        this.description = description;
+        this.capacityListener = capacityListener;
+    }
+
+    boolean hasCapacity() {
+        lock.lock();
+        try {
+            return !closed && inFlight < maxInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object partitionKey(MessageImpl msg) {
+        if (partitionProperty == null)
+            return null;
+        try {
+            return msg.getObjectProperty(partitionProperty);
+        } catch (JMSException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hands a message over to its partition. Called by the session's delivery task.
+     *
+     * @param work listener invocation
+     */
+    void dispatch(Work work) {
+        Object key = partitionKey(work.message);
+        Partition partition = null;
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            inFlight++;
+            if (key != null) {
+                partition = partitions.get(key);
+                if (partition != null) {
+                    partition.queue.add(work);
+                    return;
+                }
+            }
+            partition = new Partition(key);
+            partitions.put(partition.key, partition);
+            partition.queue.add(work);
+        } finally {
+            lock.unlock();
+        }
+        pool.dispatchTask(partition);
+    }
+
+    /**
+     * Drops the messages that wait for their partition and waits until the running listeners have completed,
+     * except the calling one. Dropped messages are not acknowledged and will be redelivered.
+     */
+    void drain() {
+        lock.lock();
+        try {
+            for (Iterator<Partition> iter = partitions.values().iterator(); iter.hasNext(); ) {
+                Partition partition = iter.next();
+                int n = partition.queue.size();
+                partition.queue.clear();
+                inFlight -= n;
+            }
+            int self = current.get() == this ? 1 : 0;
+            while (running > self)
+                drained.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all messages handed over have been processed, except by the calling listener.
+     */
+    void awaitIdle() {
+        lock.lock();
+        try {
+            int self = current.get() == this ? 1 : 0;
+            while (inFlight > self && !closed)
+                drained.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops dispatching and drops the messages that wait for their partition.
+     *
+     * @param wait whether to wait for the running listeners
+     */
+    void close(boolean wait) {
+        lock.lock();
+        try {
+            closed = true;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (wait)
+            drain();
+    }
+
+    public String toString() {
+        return "[ParallelDispatcher, maxInFlight=" + maxInFlight + ", partitionProperty=" + partitionProperty + ", inFlight=" + inFlight + ", running=" + running + "]";
+    }
+
+    /**
+     * A message and the consumer whose listener processes it.
+     */
+    static class Work {
+        final MessageConsumerImpl consumer;
+        final MessageImpl message;
+        final long id;
+        final int recoveryEpoche;
+
+        Work(MessageConsumerImpl consumer, MessageImpl message, long id, int recoveryEpoche) {
+            this.consumer = consumer;
+            this.message = message;
+            this.id = id;
+            this.recoveryEpoche = recoveryEpoche;
+        }
+
+        void run() {
+            consumer.invokeMessageListener(this);
+        }
+    }
+
+    private class Partition implements AsyncTask {
+        final Object key;
+        final ArrayDeque<Work> queue = new ArrayDeque<>(4);
+
+        // Messages without partition key get a partition of their own
+        Partition(Object key) {
+            this.key = key != null ? key : this;
+        }
+
+        public boolean isValid() {
+            // Always run, the task has to release its partition
+            return true;
+        }
+
+        public String getDispatchToken() {
+            return DISPATCH_TOKEN;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public void run() {
+            current.set(ParallelDispatcher.this);
+            try {
+                Work work = next(false);
+                while (work != null) {
+                    try {
+                        work.run();
+                    } finally {
+                        work = next(true);
+                    }
+                }
+            } finally {
+                current.remove();
+            }
+        }
+
+        // Completes the previous work, if any, and takes the next one of this partition
+        private Work next(boolean completed) {
+            boolean wasFull;
+            Work work;
+            lock.lock();
+            try {
+                wasFull = inFlight >= maxInFlight;
+                if (completed) {
+                    inFlight--;
+                    running--;
+                }
+                work = closed ? null : queue.poll();
+                if (work != null)
+                    running++;
+                else
+                    partitions.remove(key);
+                if (completed)
+                    drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (completed && wasFull)
+                capacityListener.run();
+            return work;
+        }
+
+        public void stop() {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms.v750;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory budget for the message caches of all consumers of a connection
+ * (<code>swiftmq.jms.prefetch.budget.kb</code>, default 65536). Consumers reserve the expected size of their
+ * window and may use the fair share of the budget or whatever the other consumers leave unreserved, whichever
+ * is more.
+ */
+class PrefetchBudget {
+    static final long BUDGET_KB = Long.parseLong(System.getProperty("swiftmq.jms.prefetch.budget.kb", "65536"));
+
+    final long budget;
+    final AtomicInteger consumers = new AtomicInteger();
+    final AtomicLong reserved = new AtomicLong();
+
+    PrefetchBudget(long budget) {
+        this.budget = budget;
+    }
+
+    PrefetchBudget() {
+        this(BUDGET_KB * 1024);
+    }
+
+    void register() {
+        consumers.incrementAndGet();
+    }
+
+    void unregister(long reservation) {
+        consumers.decrementAndGet();
+        reserved.addAndGet(-reservation);
+    }
+
+    /**
+     * Returns the number of bytes a consumer may use for its next window.
+     *
+     * @param reservation the consumer's current reservation
+     * @return bytes
+     */
+    long available(long reservation) {
+        long fairShare = budget / Math.max(1, consumers.get());
+        return Math.max(fairShare, budget - (reserved.get() - reservation));
+    }
+
+    void reserve(long oldReservation, long newReservation) {
+        reserved.addAndGet(newReservation - oldReservation);
+    }
+
+    public String toString() {
+        return "[PrefetchBudget, budget=" + budget + ", consumers=" + consumers.get() + ", reserved=" + reserved.get() + "]";
+    }
+}
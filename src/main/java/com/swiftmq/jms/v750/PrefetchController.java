@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms.v750;
+
+import com.swiftmq.jms.ConsumerPrefetchStatistics;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sizes the window of messages a consumer requests from the router with every StartConsumerRequest.
+ * <p>
+ * With adaptive prefetch (<code>swiftmq.jms.prefetch.adaptive</code>, default true) the first window has the
+ * SMQP consumer cache size. Every further window holds the messages the consumer is expected to consume within
+ * <code>swiftmq.jms.prefetch.target</code> milliseconds (default 500), measured over the previous window, but at
+ * most twice and at least half the previous window and at most <code>swiftmq.jms.prefetch.max.factor</code>
+ * (default 4) times the SMQP consumer cache size. The window is further capped by the consumer's share of the
+ * connection's {@link PrefetchBudget}, both by count, using the average message size, and by KB, which the router
+ * enforces for bursts of messages larger than the average. Without adaptive prefetch the window is the SMQP
+ * consumer cache size and KB.
+ * </p>
+ */
+class PrefetchController implements ConsumerPrefetchStatistics {
+    static final boolean ADAPTIVE = Boolean.valueOf(System.getProperty("swiftmq.jms.prefetch.adaptive", "true")).booleanValue();
+    static final long TARGET = Long.parseLong(System.getProperty("swiftmq.jms.prefetch.target", "500"));
+    static final int MAX_FACTOR = Integer.parseInt(System.getProperty("swiftmq.jms.prefetch.max.factor", "4"));
+    static final double ALPHA = 0.25;
+
+    final boolean adaptive;
+    final int cacheSize;
+    final int cacheSizeKB;
+    final int maxWindow;
+    final PrefetchBudget budget;
+    final ReentrantLock lock = new ReentrantLock();
+    boolean registered = false;
+    long reservation = 0;
+    // Messages consumed from the current window and the time of the first and last one, in nanoseconds
+    int consumed = 0;
+    long firstConsumed = 0;
+    long lastConsumed = 0;
+    volatile int window = 0;
+    volatile int windowKB = -1;
+    volatile double rate = 0;
+    volatile double averageSize = 0;
+    volatile long windowCount = 0;
+
+    PrefetchController(boolean adaptive, int cacheSize, int cacheSizeKB, PrefetchBudget budget) {
+        this.adaptive = adaptive;
+        this.cacheSize = Math.max(1, cacheSize);
+        this.cacheSizeKB = cacheSizeKB;
+        this.maxWindow = maxWindowSize(adaptive, this.cacheSize);
+        this.budget = budget;
+    }
+
+    PrefetchController(int cacheSize, int cacheSizeKB, PrefetchBudget budget) {
+        this(ADAPTIVE, cacheSize, cacheSizeKB, budget);
+    }
+
+    /**
+     * Returns the upper bound of the window for a SMQP consumer cache size.
+     *
+     * @param cacheSize SMQP consumer cache size
+     * @return max window size
+     */
+    static int maxWindowSize(int cacheSize) {
+        return maxWindowSize(ADAPTIVE, cacheSize);
+    }
+
+    private static int maxWindowSize(boolean adaptive, int cacheSize) {
+        return adaptive ? (int) Math.min(Integer.MAX_VALUE, (long) cacheSize * Math.max(1, MAX_FACTOR)) : cacheSize;
+    }
+
+    /**
+     * Records a message the application has taken from the cache.
+     *
+     * @param length message length in bytes, -1 if unknown
+     */
+    void messageConsumed(long length) {
+        if (!adaptive)
+            return;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (consumed == 0)
+                firstConsumed = now;
+            lastConsumed = now;
+            consumed++;
+            if (length > 0)
+                averageSize = averageSize == 0 ? length : averageSize + ALPHA * (length - averageSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Computes the next window. Afterwards, getWindowSize and getWindowSizeKB return the values to request.
+     */
+    void nextWindow() {
+        lock.lock();
+        try {
+            if (!adaptive) {
+                window = cacheSize;
+                windowKB = cacheSizeKB;
+                windowCount++;
+                return;
+            }
+            if (!registered) {
+                budget.register();
+                registered = true;
+            }
+            if (consumed >= 2 && lastConsumed > firstConsumed) {
+                double sample = (consumed - 1) * 1000000000.0 / (lastConsumed - firstConsumed);
+                rate = rate == 0 ? sample : rate + ALPHA * (sample - rate);
+            }
+            long target;
+            if (windowCount == 0)
+                target = cacheSize;
+            else {
+                if (consumed < 2 || rate == 0)
+                    target = (long) window * 2;
+                else
+                    target = (long) Math.ceil(rate * TARGET / 1000);
+                target = Math.max(Math.max(1, window / 2), Math.min(target, (long) window * 2));
+            }
+            target = Math.min(target, maxWindow);
+            long available = budget.available(reservation);
+            double avg = averageSize;
+            if (avg > 0)
+                target = Math.max(1, Math.min(target, (long) (available / avg)));
+            long kb = Math.max(1, available / 1024);
+            if (cacheSizeKB > 0)
+                kb = Math.min(kb, cacheSizeKB);
+            long newReservation = avg > 0 ? Math.min((long) (target * avg), kb * 1024) : kb * 1024;
+            budget.reserve(reservation, newReservation);
+            reservation = newReservation;
+            window = (int) target;
+            windowKB = (int) Math.min(Integer.MAX_VALUE, kb);
+            consumed = 0;
+            windowCount++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (registered) {
+                registered = false;
+                budget.unregister(reservation);
+                reservation = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getWindowSize() {
+        return window;
+    }
+
+    public int getWindowSizeKB() {
+        return windowKB;
+    }
+
+    public int getMaxWindowSize() {
+        return maxWindow;
+    }
+
+    public double getConsumeRate() {
+        return rate;
+    }
+
+    public long getAverageMessageSize() {
+        return (long) averageSize;
+    }
+
+    public long getWindowCount() {
+        return windowCount;
+    }
+
+    public String toString() {
+        return "[PrefetchController, adaptive=" + adaptive + ", window=" + window + ", windowKB=" + windowKB +
+                ", maxWindow=" + maxWindow + ", rate=" + rate + ", averageSize=" + (long) averageSize + "]";
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms.v750;
+
+import com.swiftmq.jms.ProducerFlowControlStatistics;
+
+import javax.jms.JMSException;
+import javax.jms.ResourceAllocationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Send credits of a message producer. A window of credits is granted by every reply of the router. A delay
+ * requested by the router is spread evenly over the credits of the next window
+ * (<code>swiftmq.jms.producer.flowcontrol.pacing</code>, default true) or, if pacing is disabled, has to pass
+ * before the next send. A send waits at most <code>swiftmq.jms.producer.flowcontrol.timeout</code> milliseconds
+ * (default 0, no limit) for a credit and fails with a ResourceAllocationException without waiting if the
+ * credit would not become available within that time.
+ */
+class ProducerFlowControl implements ProducerFlowControlStatistics {
+    static final boolean PACING = Boolean.valueOf(System.getProperty("swiftmq.jms.producer.flowcontrol.pacing", "true")).booleanValue();
+    static final long TIMEOUT = Long.parseLong(System.getProperty("swiftmq.jms.producer.flowcontrol.timeout", "0"));
+
+    final int windowSize;
+    final long timeout;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition closedCondition = lock.newCondition();
+    int credits;
+    // Earliest time of the next send and the distance between paced sends, both in nanoseconds
+    long notBefore = 0;
+    long interval = 0;
+    int pacedCredits = 0;
+    boolean closed = false;
+    volatile long lastDelay = 0;
+    volatile long throttleCount = 0;
+    volatile long waitCount = 0;
+    volatile long totalWaitNanos = 0;
+    volatile long timeoutCount = 0;
+
+    ProducerFlowControl(int windowSize, long timeout) {
+        this.windowSize = Math.max(0, windowSize);
+        this.timeout = timeout;
+        this.credits = this.windowSize;
+    }
+
+    ProducerFlowControl(int windowSize) {
+        this(windowSize, TIMEOUT);
+    }
+
+    /**
+     * Waits until a credit is available and takes it.
+     *
+     * @param window true if the credit is taken from the window, false for sends that get their own reply
+     * @return true if it was the last credit of the window, the send must then wait for the router's reply
+     * @throws JMSException if the wait would exceed the timeout or the producer was closed
+     */
+    boolean acquire(boolean window) throws JMSException {
+        lock.lock();
+        try {
+            if (pacedCredits > 0 || notBefore != 0)
+                awaitTurn();
+            if (!window || windowSize == 0)
+                return false;
+            credits = Math.max(0, credits - 1);
+            return credits == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitTurn() throws JMSException {
+        long now = System.nanoTime();
+        long wait = notBefore - now;
+        if (wait > 0) {
+            if (timeout > 0 && wait > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                timeoutCount++;
+                throw new ResourceAllocationException("Producer is flow controlled, next credit in " + TimeUnit.NANOSECONDS.toMillis(wait) + " ms exceeds timeout of " + timeout + " ms");
+            }
+            waitCount++;
+            boolean interrupted = false;
+            while (!closed && wait > 0) {
+                try {
+                    closedCondition.awaitNanos(wait);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                wait = notBefore - System.nanoTime();
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            long waited = System.nanoTime() - now;
+            totalWaitNanos += waited;
+            now += waited;
+            if (closed)
+                throw new javax.jms.IllegalStateException("Message producer is closed");
+        }
+        if (pacedCredits > 0) {
+            pacedCredits--;
+            notBefore = pacedCredits > 0 ? Math.max(notBefore, now) + interval : 0;
+        } else
+            notBefore = 0;
+    }
+
+    /**
+     * Grants a new window after a reply of the router.
+     *
+     * @param delay delay requested by the router in milliseconds
+     */
+    void grant(long delay) {
+        lock.lock();
+        try {
+            credits = windowSize;
+            lastDelay = delay;
+            if (delay > 0) {
+                throttleCount++;
+                long nanos = TimeUnit.MILLISECONDS.toNanos(delay);
+                if (PACING && windowSize > 1) {
+                    interval = nanos / windowSize;
+                    pacedCredits = windowSize;
+                    notBefore = System.nanoTime() + interval;
+                } else {
+                    interval = 0;
+                    pacedCredits = 0;
+                    notBefore = System.nanoTime() + nanos;
+                }
+            } else {
+                pacedCredits = 0;
+                notBefore = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            closedCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getCredits() {
+        lock.lock();
+        try {
+            return credits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getThrottleCount() {
+        return throttleCount;
+    }
+
+    public long getLastDelay() {
+        return lastDelay;
+    }
+
+    public long getWaitCount() {
+        return waitCount;
+    }
+
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos);
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public String toString() {
+        return "[ProducerFlowControl, windowSize=" + windowSize + ", credits=" + getCredits() + ", throttleCount=" + throttleCount +
+                ", lastDelay=" + lastDelay + ", waitCount=" + waitCount + ", totalWaitTime=" + getTotalWaitTime() + ", timeoutCount=" + timeoutCount + "]";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms.v750;
+
+import com.swiftmq.tools.util.DataByteArrayOutputStream;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reusable serialization buffers of a producer or session. A buffer is leased for
+ * the serialization of a message and released once the bytes have been written to the
+ * connection. The pool holds at most <code>MAX_POOLED</code> buffers; buffers that grew
+ * beyond <code>MAX_RETAINED_SIZE</code> for a large message are left to the GC.
+ */
+class SerializationBufferPool {
+    static final int INITIAL_SIZE = 2048;
+    static final int MAX_POOLED = 8;
+    static final int MAX_RETAINED_SIZE = 1024 * 1024;
+    final ConcurrentLinkedQueue<Buffer> pool = new ConcurrentLinkedQueue<>();
+    final AtomicInteger pooled = new AtomicInteger(0);
+
+    Buffer lease() {
+        Buffer buffer = pool.poll();
+        if (buffer == null)
+            return new Buffer();
+        pooled.decrementAndGet();
+        buffer.rewind();
+        return buffer;
+    }
+
+    void release(Buffer buffer) {
+        if (buffer.getBuffer().length > MAX_RETAINED_SIZE)
+            return;
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(buffer);
+    }
+
+    /**
+     * Copies the content of a buffer into an exact-size array.
+     *
+     * @param buffer buffer
+     * @return bytes
+     */
+    static byte[] toByteArray(DataByteArrayOutputStream buffer) {
+        byte[] b = new byte[buffer.getCount()];
+        System.arraycopy(buffer.getBuffer(), 0, b, 0, b.length);
+        return b;
+    }
+
+    class Buffer extends DataByteArrayOutputStream implements Runnable {
+        Buffer() {
+            super(INITIAL_SIZE);
+        }
+
+        public void run() {
+            release(this);
+        }
+    }
+}
@@ -25,19 +25,21 @@ import com.swiftmq.swiftlet.queue.MessageEntry;
 import com.swiftmq.swiftlet.queue.MessageIndex;
 import com.swiftmq.swiftlet.threadpool.AsyncTask;
 import com.swiftmq.swiftlet.threadpool.ThreadPool;
+import com.swiftmq.tools.collection.FingerprintLog;
+import com.swiftmq.tools.collection.LongHashSet;
 import com.swiftmq.tools.collection.RingBuffer;
 import com.swiftmq.tools.concurrent.Semaphore;
 import com.swiftmq.tools.queue.SingleProcessorQueue;
 import com.swiftmq.tools.requestreply.*;
+import com.swiftmq.tools.util.DataByteArrayOutputStream;
 import com.swiftmq.util.SwiftUtilities;
 
 import javax.jms.IllegalStateException;
 import javax.jms.Queue;
 import javax.jms.*;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class SessionImpl
@@ -65,8 +67,9 @@ public class SessionImpl
     List browsers = new ArrayList();
     int lastConsumerId = -1;
     ArrayList transactedRequestList = new ArrayList();
-    Set rollbackIdLog = new HashSet();
-    Set currentTxLog = new HashSet();
+    DataByteArrayOutputStream transactedMessageBuffer = new DataByteArrayOutputStream(SerializationBufferPool.INITIAL_SIZE);
+    LongHashSet rollbackIdLog = new LongHashSet();
+    LongHashSet currentTxLog = new LongHashSet();
     MessageListener messageListener = null;
     RingBuffer messageChunk = new RingBuffer(32);
     volatile boolean shadowConsumerCreated = false;
@@ -86,6 +89,8 @@ public class SessionImpl
     volatile boolean withinOnMessage = false;
     MessageImpl onMessageMessage = null;
     MessageConsumerImpl onMessageConsumer = null;
+    // Message passed to the MessageListener running on the current thread with parallel dispatch
+    static final ThreadLocal<MessageImpl> onMessageContext = new ThreadLocal<>();
     volatile boolean isRunning = false;
     boolean xaMode = false;
     volatile int minConnectionId = Integer.MAX_VALUE;
@@ -93,6 +98,9 @@ public class SessionImpl
     volatile Semaphore blockSem = null;
     volatile boolean consumerDirty = false;
     ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guards currentTxLog and rollbackIdLog, listeners of a session with parallel dispatch acknowledge concurrently
+    final ReentrantLock txLogLock = new ReentrantLock();
+    volatile ParallelDispatcher parallelDispatcher = null;
 
     protected SessionImpl(int type, ConnectionImpl myConnection, boolean transacted, int acknowledgeMode, int dispatchId, RequestRegistry requestRegistry, String myHostname, String clientId) {
         this.type = type;
@@ -109,19 +117,16 @@ public class SessionImpl
         sessionQueue = new SessionDeliveryQueue();
     }
 
-    static String buildId(String uniqueConsumerId, MessageImpl msg) {
+    // Fingerprint of uniqueConsumerId + '-' + JMSMessageID, consumerHash is FingerprintLog.hash(uniqueConsumerId)
+    static long buildId(long consumerHash, MessageImpl msg) {
         String jmsMsgId = null;
         try {
             jmsMsgId = msg.getJMSMessageID();
         } catch (JMSException e) {
         }
         if (jmsMsgId == null)
-            return null;
-        StringBuffer id = new StringBuffer();
-        id.append(uniqueConsumerId);
-        id.append('-');
-        id.append(jmsMsgId);
-        return id.toString();
+            return 0;
+        return FingerprintLog.fingerprint(FingerprintLog.hash(FingerprintLog.hash(consumerHash, '-'), jmsMsgId));
     }
 
     public void setBlocked(boolean blocked) {
@@ -271,6 +276,9 @@ public class SessionImpl
 
     void stopSession() {
         sessionQueue.stopQueue();
+        ParallelDispatcher dispatcher = parallelDispatcher;
+        if (dispatcher != null)
+            dispatcher.awaitIdle();
     }
 
     boolean isSessionStarted() {
@@ -303,18 +311,55 @@ public class SessionImpl
         this.ignoreClose = ignoreClose;
     }
 
+    public void setParallelDispatch(int maxConcurrency, String partitionProperty) throws JMSException {
+        lock.writeLock().lock();
+        try {
+            verifyState();
+            if (transacted || acknowledgeMode != Session.AUTO_ACKNOWLEDGE && acknowledgeMode != Session.DUPS_OK_ACKNOWLEDGE)
+                throw new javax.jms.IllegalStateException("Parallel dispatch requires a non-transacted session in AUTO_ACKNOWLEDGE or DUPS_OK_ACKNOWLEDGE mode");
+            if (messageListener != null)
+                throw new javax.jms.IllegalStateException("Parallel dispatch not possible, the session has a MessageListener");
+            for (Object o : consumerMap.values()) {
+                if (((MessageConsumerImpl) o).messageListener != null)
+                    throw new javax.jms.IllegalStateException("Parallel dispatch must be set before a MessageListener is set on a consumer");
+            }
+            parallelDispatcher = maxConcurrency > 0 ? new ParallelDispatcher(PoolManager.getInstance().getListenerPool(), maxConcurrency,
+                    partitionProperty, myConnection.myHostname + "/Session/ListenerTask", this::triggerInvocation) : null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public MessageOutputStream createMessageOutputStream(MessageProducer producer, int fragmentSize) throws JMSException {
+        verifyState();
+        if (transacted)
+            throw new javax.jms.IllegalStateException("Message streams are not available for transacted sessions");
+        if (!(producer instanceof MessageProducerImpl) || ((MessageProducerImpl) producer).mySession != this)
+            throw new javax.jms.IllegalStateException("Producer doesn't belong to this session");
+        return new MessageOutputStream(this, producer, fragmentSize);
+    }
+
+    public MessageInputStream createMessageInputStream(MessageConsumer consumer, long timeout) throws JMSException {
+        verifyState();
+        if (!(consumer instanceof MessageConsumerImpl) || ((MessageConsumerImpl) consumer).mySession != this)
+            throw new javax.jms.IllegalStateException("Consumer doesn't belong to this session");
+        return new MessageInputStream(consumer, timeout);
+    }
+
     public void storeTransactedMessage(MessageProducerImpl producer, MessageImpl msg) {
         lock.writeLock().lock();
         try {
             minConnectionId = Math.min(minConnectionId, myConnection.getConnectionId());
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(bos);
+            // The bytes are kept until commit, so only the serialization buffer is reused
+            transactedMessageBuffer.rewind();
             try {
-                msg.writeContent(dos);
+                msg.writeContent(transactedMessageBuffer);
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            transactedRequestList.add(new Object[]{producer, bos.toByteArray()});
+            transactedRequestList.add(new Object[]{producer, SerializationBufferPool.toByteArray(transactedMessageBuffer)});
+            if (transactedMessageBuffer.getBuffer().length > SerializationBufferPool.MAX_RETAINED_SIZE)
+                transactedMessageBuffer = new DataByteArrayOutputStream(SerializationBufferPool.INITIAL_SIZE);
         } finally {
             lock.writeLock().unlock();
         }
@@ -382,7 +427,7 @@ public class SessionImpl
             consumerMap.put(new Integer(lastConsumerId), consumer);
             consumerDirty = true;
             consumer.setConsumerId(lastConsumerId);
-            myConnection.increaseDuplicateLogSize(myConnection.getSmqpConsumerCacheSize());
+            myConnection.increaseDuplicateLogSize(myConnection.getMaxConsumerCacheSize());
         } finally {
             lock.writeLock().unlock();
         }
@@ -393,7 +438,7 @@ public class SessionImpl
         lock.writeLock().lock();
         try {
             consumerMap.remove(new Integer(consumer.getConsumerId()));
-            myConnection.decreaseDuplicateLogSize(myConnection.getSmqpConsumerCacheSize());
+            myConnection.decreaseDuplicateLogSize(myConnection.getMaxConsumerCacheSize());
             consumerDirty = true;
         } finally {
             lock.writeLock().unlock();
@@ -1032,7 +1077,7 @@ public class SessionImpl
     public void close() throws JMSException {
         if (closed)
             return;
-        if (messageListener == null && !isSessionStarted()) {
+        if (messageListener == null && (!isSessionStarted() || isListenerThread())) {
             _close();
             return;
         }
@@ -1048,16 +1093,25 @@ public class SessionImpl
             _close();
     }
 
+    // True if called by a MessageListener of this session that runs on the listener pool
+    private boolean isListenerThread() {
+        ParallelDispatcher dispatcher = parallelDispatcher;
+        return dispatcher != null && ParallelDispatcher.current.get() == dispatcher;
+    }
+
     private void _close() {
         if (ignoreClose || closed)
             return;
         sessionQueue.stopQueue();
         sessionQueue.clear();
+        if (parallelDispatcher != null)
+            parallelDispatcher.close(true);
+        flushPendingAcks();
         lock.writeLock().lock();
         try {
             closed = true;
             if (consumerMap.size() > 0) {
-                myConnection.decreaseDuplicateLogSize(myConnection.getSmqpConsumerCacheSize() * consumerMap.size());
+                myConnection.decreaseDuplicateLogSize(myConnection.getMaxConsumerCacheSize() * consumerMap.size());
                 for (Object o : consumerMap.entrySet()) {
                     MessageConsumerImpl consumer = (MessageConsumerImpl) ((Map.Entry) o).getValue();
                     consumer.cancel();
@@ -1086,6 +1140,8 @@ public class SessionImpl
         closed = true;
         sessionQueue.stopQueue();
         sessionQueue.clear();
+        if (parallelDispatcher != null)
+            parallelDispatcher.close(false);
         for (Iterator iter = consumerMap.entrySet().iterator(); iter.hasNext(); ) {
             MessageConsumerImpl consumer = (MessageConsumerImpl) ((Map.Entry) iter.next()).getValue();
             consumer.cancel();
@@ -1098,6 +1154,19 @@ public class SessionImpl
         }
     }
 
+    private void flushPendingAcks() {
+        List<MessageConsumerImpl> consumers = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Object o : consumerMap.values())
+                consumers.add((MessageConsumerImpl) o);
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (int i = 0; i < consumers.size(); i++)
+            consumers.get(i).flushPendingAcks();
+    }
+
     public void recover() throws JMSException {
         verifyState();
 
@@ -1108,6 +1177,10 @@ public class SessionImpl
                 onMessageConsumer = null;
             }
 
+            // Processed messages must not be redelivered
+            if (parallelDispatcher != null)
+                parallelDispatcher.drain();
+            flushPendingAcks();
             startRecoverConsumers();
 
             Reply reply = null;
@@ -1317,40 +1390,94 @@ public class SessionImpl
         setRunning(false);
     }
 
-    void addCurrentTxLog(String id) {
-        if (id != null) {
-            currentTxLog.add(id);
+    void addCurrentTxLog(long id) {
+        if (id != 0) {
+            txLogLock.lock();
+            try {
+                currentTxLog.add(id);
+            } finally {
+                txLogLock.unlock();
+            }
         }
     }
 
     void clearCurrentTxLog() {
-        currentTxLog.clear();
+        txLogLock.lock();
+        try {
+            currentTxLog.clear();
+        } finally {
+            txLogLock.unlock();
+        }
     }
 
     void addCurrentTxToDuplicateLog() {
-        myConnection.addToDuplicateLog(currentTxLog);
+        txLogLock.lock();
+        try {
+            myConnection.addToDuplicateLog(currentTxLog);
+        } finally {
+            txLogLock.unlock();
+        }
+    }
+
+    void addToDuplicateLog(LongHashSet ids) {
+        myConnection.addToDuplicateLog(ids);
+    }
+
+    void removeFromTxLogs(LongHashSet ids) {
+        txLogLock.lock();
+        try {
+            currentTxLog.removeAll(ids);
+            rollbackIdLog.removeAll(ids);
+        } finally {
+            txLogLock.unlock();
+        }
     }
 
     void addCurrentTxToRollbackLog() {
-        rollbackIdLog.addAll(currentTxLog);
+        txLogLock.lock();
+        try {
+            rollbackIdLog.addAll(currentTxLog);
+        } finally {
+            txLogLock.unlock();
+        }
     }
 
     void removeCurrentTxFromRollbackLog() {
-        rollbackIdLog.removeAll(currentTxLog);
+        txLogLock.lock();
+        try {
+            rollbackIdLog.removeAll(currentTxLog);
+        } finally {
+            txLogLock.unlock();
+        }
     }
 
     void addRollbackLogToDuplicateLog() {
-        myConnection.addToDuplicateLog(rollbackIdLog);
+        txLogLock.lock();
+        try {
+            myConnection.addToDuplicateLog(rollbackIdLog);
+        } finally {
+            txLogLock.unlock();
+        }
+    }
+
+    // True if the message was passed to the MessageListener running on the calling thread
+    boolean isOnMessageMessage(Message message) {
+        return withinOnMessage && message == onMessageMessage || message == onMessageContext.get();
     }
 
-    boolean isDuplicate(String id) {
-        if (id == null)
+    boolean isDuplicate(long id) {
+        if (id == 0)
             return false;
         boolean duplicate = myConnection.isDuplicate(id);
-        if (currentTxLog.contains(id))
-            duplicate = true;
-        else if (rollbackIdLog.contains(id))
-            duplicate = false;
+        txLogLock.lock();
+        try {
+            if (currentTxLog.contains(id))
+                duplicate = true;
+            else if (rollbackIdLog.contains(id))
+                duplicate = false;
+        } finally {
+            txLogLock.unlock();
+        }
         return duplicate;
     }
 
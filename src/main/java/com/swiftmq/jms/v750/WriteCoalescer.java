@@ -0,0 +1,198 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.jms.v750;
+
+import com.swiftmq.tools.queue.SingleProcessorQueue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides how many outbound requests of a connection are written as one SMQPBulkRequest and
+ * how long the writer waits for more requests before it flushes.
+ * <p>
+ * Coalescing is disabled by default (<code>swiftmq.jms.coalescing.enabled</code>). If enabled, the
+ * writer lingers up to <code>swiftmq.jms.coalescing.linger.us</code> microseconds, but only if the
+ * observed enqueue rate lets it expect more than one request within that window. Light traffic is
+ * therefore flushed at once. The bulk size is capped by <code>swiftmq.jms.coalescing.maxbulk</code>
+ * requests and by <code>swiftmq.jms.coalescing.maxbytes</code>, based on the observed average
+ * request size. Bulk size and linger statistics are maintained in either mode.
+ * </p>
+ */
+public class WriteCoalescer {
+    public static final String PROP_ENABLED = "swiftmq.jms.coalescing.enabled";
+    public static final String PROP_LINGER = "swiftmq.jms.coalescing.linger.us";
+    public static final String PROP_MAX_BULK = "swiftmq.jms.coalescing.maxbulk";
+    public static final String PROP_MAX_BYTES = "swiftmq.jms.coalescing.maxbytes";
+    public static final int DEFAULT_BULK_SIZE = 100;
+    static final long MAX_PARK_NANOS = 20000;
+
+    final boolean enabled;
+    final long lingerNanos;
+    final int maxBulkSize;
+    final int maxBytes;
+    final AtomicLong lastArrival = new AtomicLong(0);
+    volatile double avgInterArrival = Double.MAX_VALUE;
+    volatile double avgBytesPerRequest = 0.0;
+    final AtomicLong bulkCount = new AtomicLong(0);
+    final AtomicLong requestCount = new AtomicLong(0);
+    final AtomicLong byteCount = new AtomicLong(0);
+    final AtomicLong lingerCount = new AtomicLong(0);
+    final AtomicLong lingerNanosTotal = new AtomicLong(0);
+
+    public WriteCoalescer(boolean enabled, long lingerMicros, int maxBulkSize, int maxBytes) {
+        this.enabled = enabled && lingerMicros > 0;
+        this.lingerNanos = lingerMicros * 1000;
+        this.maxBulkSize = this.enabled ? Math.max(1, maxBulkSize) : DEFAULT_BULK_SIZE;
+        this.maxBytes = maxBytes;
+    }
+
+    public WriteCoalescer() {
+        this(Boolean.valueOf(System.getProperty(PROP_ENABLED, "false")).booleanValue(),
+                Long.parseLong(System.getProperty(PROP_LINGER, "100")),
+                Integer.parseInt(System.getProperty(PROP_MAX_BULK, "1000")),
+                Integer.parseInt(System.getProperty(PROP_MAX_BYTES, String.valueOf(64 * 1024))));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxBulkSize() {
+        return maxBulkSize;
+    }
+
+    /**
+     * Records the arrival of a request. Called by the enqueueing thread.
+     */
+    public void requestArrived() {
+        if (!enabled)
+            return;
+        long now = System.nanoTime();
+        long prev = lastArrival.getAndSet(now);
+        if (prev != 0) {
+            double avg = avgInterArrival;
+            long delta = now - prev;
+            avgInterArrival = avg == Double.MAX_VALUE ? delta : avg + (delta - avg) / 8;
+        }
+    }
+
+    /**
+     * Returns the maximum number of requests of the next bulk, derived from the byte cap.
+     *
+     * @return bulk limit
+     */
+    public int getBulkLimit() {
+        int limit = maxBulkSize;
+        double avgBytes = avgBytesPerRequest;
+        if (enabled && maxBytes > 0 && avgBytes > 0.0)
+            limit = Math.min(limit, Math.max(1, (int) (maxBytes / avgBytes)));
+        return limit;
+    }
+
+    /**
+     * Returns the number of requests the writer may expect within the linger window,
+     * based on the observed enqueue rate.
+     *
+     * @return target bulk size
+     */
+    public int getTargetBulkSize() {
+        if (!enabled)
+            return 1;
+        double expected = lingerNanos / Math.max(1.0, avgInterArrival);
+        return (int) Math.max(1, Math.min(expected, getBulkLimit()));
+    }
+
+    /**
+     * Waits until the queue holds the target bulk size or the linger window has elapsed.
+     * Returns immediately if the traffic is too light to expect another request in time.
+     *
+     * @param queue queue
+     */
+    public void linger(SingleProcessorQueue queue) {
+        if (!enabled)
+            return;
+        int target = getTargetBulkSize();
+        if (target <= 1 || queue.getSize() >= target)
+            return;
+        long start = System.nanoTime();
+        if (start - lastArrival.get() > lingerNanos)
+            return;
+        long deadline = start + lingerNanos;
+        long now = start;
+        while (queue.getSize() < target && now < deadline) {
+            LockSupport.parkNanos(Math.min(deadline - now, MAX_PARK_NANOS));
+            now = System.nanoTime();
+        }
+        lingerCount.incrementAndGet();
+        lingerNanosTotal.addAndGet(now - start);
+    }
+
+    /**
+     * Records a written bulk.
+     *
+     * @param n     number of requests
+     * @param bytes number of bytes or -1 if unknown
+     */
+    public void bulkWritten(int n, long bytes) {
+        bulkCount.incrementAndGet();
+        requestCount.addAndGet(n);
+        if (bytes > 0) {
+            byteCount.addAndGet(bytes);
+            double perRequest = (double) bytes / n;
+            double avg = avgBytesPerRequest;
+            avgBytesPerRequest = avg == 0.0 ? perRequest : avg + (perRequest - avg) / 8;
+        }
+    }
+
+    public long getBulkCount() {
+        return bulkCount.get();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getByteCount() {
+        return byteCount.get();
+    }
+
+    public double getAverageBulkSize() {
+        long bulks = bulkCount.get();
+        return bulks == 0 ? 0.0 : (double) requestCount.get() / bulks;
+    }
+
+    public long getLingerCount() {
+        return lingerCount.get();
+    }
+
+    /**
+     * Returns the average time in microseconds the writer has waited per linger.
+     *
+     * @return average linger time
+     */
+    public double getAverageLingerTime() {
+        long lingers = lingerCount.get();
+        return lingers == 0 ? 0.0 : lingerNanosTotal.get() / 1000.0 / lingers;
+    }
+
+    public String toString() {
+        return "[WriteCoalescer, enabled=" + enabled + ", lingerMicros=" + (lingerNanos / 1000) + ", maxBulkSize=" + maxBulkSize + ", maxBytes=" + maxBytes +
+                ", bulks=" + bulkCount.get() + ", avgBulkSize=" + getAverageBulkSize() + ", lingers=" + lingerCount.get() + ", avgLingerMicros=" + getAverageLingerTime() + "]";
+    }
+}
@@ -69,6 +69,9 @@ public class SwiftMQObjectFactory implements ObjectFactory {
                 RefAddr retryDelay = ref.get("retryDelay");
                 RefAddr duplicateMessageDetection = ref.get("duplicateMessageDetection");
                 RefAddr duplicateBacklogSize = ref.get("duplicateBacklogSize");
+                RefAddr nioEnabled = ref.get("nioEnabled");
+                RefAddr compressionCodec = ref.get("compressionCodec");
+                RefAddr compressionThreshold = ref.get("compressionThreshold");
                 if (listenerName != null &&
                         socketFactoryClass != null &&
                         hostname != null &&
@@ -114,6 +117,13 @@ public class SwiftMQObjectFactory implements ObjectFactory {
                     cf.setDuplicateMessageDetection(Boolean.valueOf((String) duplicateMessageDetection.getContent()).booleanValue());
                     cf.setDuplicateBacklogSize(Integer.valueOf((String) duplicateBacklogSize.getContent()).intValue());
 
+                    if (nioEnabled != null)
+                        cf.setNioEnabled(Boolean.valueOf((String) nioEnabled.getContent()).booleanValue());
+                    if (compressionCodec != null)
+                        cf.setCompressionCodec((String) compressionCodec.getContent());
+                    if (compressionThreshold != null)
+                        cf.setCompressionThreshold(Integer.parseInt((String) compressionThreshold.getContent()));
+
                     if (hostname2 != null) {
                         cf.setHostname2((String) hostname2.getContent());
                         cf.setPort2(Integer.parseInt((String) port2.getContent()));
@@ -18,25 +18,29 @@
 package com.swiftmq.net.client;
 
 import com.swiftmq.net.protocol.ChunkListener;
-import com.swiftmq.net.protocol.OutputListener;
+import com.swiftmq.net.protocol.GatheringOutputListener;
 import com.swiftmq.net.protocol.ProtocolInputHandler;
 import com.swiftmq.net.protocol.ProtocolOutputHandler;
 import com.swiftmq.net.protocol.smqp.SMQPInputHandler;
 import com.swiftmq.net.protocol.smqp.SMQPOutputHandler;
+import com.swiftmq.net.protocol.util.BufferLease;
+import com.swiftmq.net.protocol.util.ChunkDataInputStream;
 import com.swiftmq.tools.prop.SystemProperties;
-import com.swiftmq.tools.util.DataByteArrayInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class BlockingConnection extends Thread
-        implements Connection, ChunkListener, OutputListener {
+        implements Connection, ChunkListener, GatheringOutputListener {
     static final boolean ISDAEMON = Boolean.valueOf(SystemProperties.get("swiftmq.socket.reader.isdaemon", "false")).booleanValue();
     static final boolean SET_SOCKET_OPTIONS = Boolean.valueOf(SystemProperties.get("swiftmq.socket.set.options", "true")).booleanValue();
     static final int MAX_SNDBUFSIZE = Integer.parseInt(SystemProperties.get("swiftmq.socket.max.sendbuffersize", "0"));
@@ -49,7 +53,7 @@ public class BlockingConnection extends Thread
     int outputExtendSize = 0;
     ProtocolInputHandler inputHandler = null;
     ProtocolOutputHandler outputHandler = null;
-    DataByteArrayInputStream dis = null;
+    ChunkDataInputStream dis = null;
     InboundHandler inboundHandler = null;
     ExceptionHandler exceptionHandler = null;
     InputStream socketIn = null;
@@ -105,7 +109,9 @@ public class BlockingConnection extends Thread
         inputHandler = createInputHandler();
         inputHandler.createInputBuffer(inputBufferSize, inputExtendSize);
         inputHandler.setChunkListener(this);
-        dis = new DataByteArrayInputStream();
+        if (inputHandler instanceof SMQPInputHandler)
+            ((SMQPInputHandler) inputHandler).setCompressionStatistics(outputHandler.getCompressionStatistics());
+        dis = new ChunkDataInputStream();
         socketIn = socket.getInputStream();
         socketOut = socket.getOutputStream();
         try {
@@ -140,6 +146,16 @@ public class BlockingConnection extends Thread
         } finally {
             lock.writeLock().unlock();
         }
+    }
+
+    public void chunkCompleted(byte[] b, int offset, int len, BufferLease lease) {
+        lock.writeLock().lock();
+        try {
+            dis.setBuffer(b, offset, len, lease);
+            inboundHandler.dataAvailable(dis);
+        } finally {
+            lock.writeLock().unlock();
+        }
 
     }
 
@@ -150,13 +166,37 @@ public class BlockingConnection extends Thread
         return len;
     }
 
+    public long performWrite(ByteBuffer[] buffers)
+            throws IOException {
+        long total = 0;
+        SocketChannel channel = socket.getChannel();
+        if (channel != null && channel.isBlocking()) {
+            int first = 0;
+            while (first < buffers.length) {
+                total += channel.write(buffers, first, buffers.length - first);
+                while (first < buffers.length && !buffers[first].hasRemaining())
+                    first++;
+            }
+        } else {
+            // Sockets from a SocketFactory have no channel; write the buffers and flush once
+            for (int i = 0; i < buffers.length; i++) {
+                ByteBuffer buffer = buffers[i];
+                int len = buffer.remaining();
+                socketOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(), len);
+                buffer.position(buffer.limit());
+                total += len;
+            }
+            socketOut.flush();
+        }
+        return total;
+    }
+
     public void run() {
         try {
             while (!closed) {
-                byte[] buffer = inputHandler.getBuffer();
-                int offset = inputHandler.getOffset();
+                ByteBuffer buffer = inputHandler.getByteBuffer();
                 try {
-                    int n = socketIn.read(buffer, offset, buffer.length - offset);
+                    int n = socketIn.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
                     if (n > 0) {
                         if (inputActiveIndicator != null)
                             inputActiveIndicator.set(true);
@@ -170,6 +210,10 @@ public class BlockingConnection extends Thread
         } catch (IOException e) {
             if (!closed && exceptionHandler != null)
                 exceptionHandler.onException(e);
+        } catch (UncheckedIOException e) {
+            // Chunk could not be decoded by the protocol handler
+            if (!closed && exceptionHandler != null)
+                exceptionHandler.onException(e.getCause());
         }
     }
 
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import com.swiftmq.tools.prop.SystemProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM-wide memory of connect latencies and failures per router address. Used by the Reconnector to
+ * try the fastest healthy router first.
+ * <p>
+ * A router counts as unhealthy for <code>swiftmq.reconnect.race.failure.memory</code> milliseconds
+ * (default 60000) after a failed connect attempt.
+ * </p>
+ */
+public class ConnectLatencyRegistry {
+    static final long FAILURE_MEMORY = Long.parseLong(SystemProperties.get("swiftmq.reconnect.race.failure.memory", "60000"));
+    static final double ALPHA = 0.3;
+    private static final ConnectLatencyRegistry _instance = new ConnectLatencyRegistry();
+
+    final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public static ConnectLatencyRegistry getInstance() {
+        return _instance;
+    }
+
+    private static String key(ServerEntry serverEntry) {
+        return serverEntry.getHostname() + ":" + serverEntry.getPort();
+    }
+
+    /**
+     * Records a successful connect.
+     *
+     * @param serverEntry router address
+     * @param latency     connect time in milliseconds
+     */
+    public void connectSucceeded(ServerEntry serverEntry, long latency) {
+        entries.compute(key(serverEntry), (k, e) -> {
+            if (e == null)
+                e = new Entry(latency);
+            else if (e.latency < 0)
+                e.latency = latency;
+            else
+                e.latency = (long) (ALPHA * latency + (1.0 - ALPHA) * e.latency);
+            e.lastFailure = 0;
+            return e;
+        });
+    }
+
+    /**
+     * Records a failed connect.
+     *
+     * @param serverEntry router address
+     */
+    public void connectFailed(ServerEntry serverEntry) {
+        entries.compute(key(serverEntry), (k, e) -> {
+            if (e == null)
+                e = new Entry(-1);
+            e.lastFailure = System.currentTimeMillis();
+            return e;
+        });
+    }
+
+    /**
+     * Returns the average connect latency.
+     *
+     * @param serverEntry router address
+     * @return latency in milliseconds or -1 if unknown
+     */
+    public long getLatency(ServerEntry serverEntry) {
+        Entry e = entries.get(key(serverEntry));
+        return e != null ? e.latency : -1;
+    }
+
+    /**
+     * Returns whether the last connect attempt to this router failed within the failure memory.
+     *
+     * @param serverEntry router address
+     * @return true/false
+     */
+    public boolean isUnhealthy(ServerEntry serverEntry) {
+        Entry e = entries.get(key(serverEntry));
+        return e != null && e.lastFailure > 0 && System.currentTimeMillis() - e.lastFailure < FAILURE_MEMORY;
+    }
+
+    private int rank(ServerEntry serverEntry) {
+        if (isUnhealthy(serverEntry))
+            return 2;
+        return getLatency(serverEntry) >= 0 ? 0 : 1;
+    }
+
+    /**
+     * Returns the servers in the order they should be tried: healthy routers by ascending latency, then
+     * routers without a recorded latency, then recently failed routers. The order is stable otherwise.
+     *
+     * @param servers list of ServerEntry
+     * @return ordered copy
+     */
+    public List<ServerEntry> order(List servers) {
+        List<ServerEntry> list = new ArrayList<>(servers);
+        Collections.sort(list, (a, b) -> {
+            int ra = rank(a);
+            int rb = rank(b);
+            if (ra != rb)
+                return Integer.compare(ra, rb);
+            return ra == 0 ? Long.compare(getLatency(a), getLatency(b)) : 0;
+        });
+        return list;
+    }
+
+    public String toString() {
+        return "[ConnectLatencyRegistry, entries=" + entries + "]";
+    }
+
+    private static class Entry {
+        volatile long latency;
+        volatile long lastFailure = 0;
+
+        Entry(long latency) {
+            this.latency = latency;
+        }
+
+        public String toString() {
+            return "[latency=" + latency + ", lastFailure=" + lastFailure + "]";
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import com.swiftmq.tools.prop.SystemProperties;
+
+/**
+ * A JVM-wide token bucket that limits the rate at which connect attempts (and thus handshakes) are
+ * started, so that many connections in one JVM don't hit a restarted router at the same instant.
+ * <p>
+ * Configured with <code>swiftmq.reconnect.handshake.rate</code> (attempts per second, default 0 which
+ * means unlimited) and <code>swiftmq.reconnect.handshake.burst</code> (bucket size, default the rate).
+ * </p>
+ */
+public class HandshakeLimiter {
+    private static final HandshakeLimiter _instance = new HandshakeLimiter(
+            Double.parseDouble(SystemProperties.get("swiftmq.reconnect.handshake.rate", "0")),
+            Double.parseDouble(SystemProperties.get("swiftmq.reconnect.handshake.burst", "0")));
+
+    final double rate;
+    final double burst;
+    double tokens;
+    long lastRefill;
+
+    public HandshakeLimiter(double rate, double burst) {
+        this.rate = rate;
+        this.burst = burst > 0 ? burst : Math.max(1.0, rate);
+        this.tokens = this.burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public static HandshakeLimiter getInstance() {
+        return _instance;
+    }
+
+    public boolean isEnabled() {
+        return rate > 0;
+    }
+
+    /**
+     * Takes a token. If the bucket is empty, the token is borrowed from the future and the caller
+     * has to wait the returned time before it starts the attempt.
+     *
+     * @return wait time in milliseconds, 0 if a token was available
+     */
+    public synchronized long reserve() {
+        if (rate <= 0)
+            return 0;
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1.0E9);
+        lastRefill = now;
+        tokens -= 1.0;
+        if (tokens >= 0)
+            return 0;
+        return (long) Math.ceil(-tokens * 1000.0 / rate);
+    }
+
+    public String toString() {
+        return "[HandshakeLimiter, rate=" + rate + ", burst=" + burst + "]";
+    }
+}
@@ -18,7 +18,10 @@
 package com.swiftmq.net.client;
 
 import com.swiftmq.net.protocol.ChunkListener;
+import com.swiftmq.swiftlet.net.IntraVMObjectEndpoint;
 import com.swiftmq.swiftlet.net.IntraVMServerEndpoint;
+import com.swiftmq.tools.dump.Dumpable;
+import com.swiftmq.tools.dump.Dumpalizer;
 import com.swiftmq.tools.util.DataByteArrayInputStream;
 import com.swiftmq.tools.util.DataByteArrayOutputStream;
 
@@ -28,6 +31,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class IntraVMConnection implements Connection, ChunkListener {
+    public static final String PROP_OBJECT_PASSING = "swiftmq.intravm.objectpassing.enabled";
+    static final boolean OBJECT_PASSING = Boolean.valueOf(System.getProperty(PROP_OBJECT_PASSING, "true")).booleanValue();
     static AtomicInteger connectionId = new AtomicInteger(0);
 
     IntraVMServerEndpoint endpoint = null;
@@ -70,6 +75,51 @@ public class IntraVMConnection implements Connection, ChunkListener {
         inboundHandler.dataAvailable(dis);
     }
 
+    /**
+     * Returns whether objects can be passed to the server endpoint by reference.
+     * This requires an IntraVMObjectEndpoint and can be disabled with <code>swiftmq.intravm.objectpassing.enabled</code>.
+     *
+     * @return true if object passing is enabled
+     */
+    public boolean isObjectPassingEnabled() {
+        return OBJECT_PASSING && endpoint instanceof IntraVMObjectEndpoint;
+    }
+
+    /**
+     * Passes an object to the server endpoint by reference.
+     *
+     * @param obj object
+     * @throws IOException if the connection is closed
+     */
+    public void passObject(Object obj) throws IOException {
+        if (closed || endpoint.isClosed())
+            throw new IOException("Connection is closed");
+        ((IntraVMObjectEndpoint) endpoint).objectAvailable(obj);
+    }
+
+    /**
+     * Called from the server endpoint to hand over an object by reference. If the current
+     * InboundHandler does not accept objects, the object is serialized and passed as a chunk.
+     *
+     * @param obj object
+     */
+    public void objectAvailable(Object obj) {
+        InboundHandler handler = inboundHandler;
+        if (handler instanceof ObjectInboundHandler)
+            ((ObjectInboundHandler) handler).objectAvailable(obj);
+        else {
+            DataByteArrayOutputStream dos = new DataByteArrayOutputStream();
+            try {
+                Dumpalizer.dump(dos, (Dumpable) obj);
+            } catch (IOException e) {
+                if (exceptionHandler != null)
+                    exceptionHandler.onException(e);
+                return;
+            }
+            chunkCompleted(dos.getBuffer(), 0, dos.getCount());
+        }
+    }
+
     public void setInboundHandler(InboundHandler inboundHandler) {
         this.inboundHandler = inboundHandler;
     }
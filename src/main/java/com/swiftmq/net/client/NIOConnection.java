@@ -0,0 +1,456 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import com.swiftmq.client.thread.PoolManager;
+import com.swiftmq.net.HttpTunnelProperties;
+import com.swiftmq.net.PlainSocketFactory;
+import com.swiftmq.net.SocketFactory;
+import com.swiftmq.net.protocol.ChunkListener;
+import com.swiftmq.net.protocol.GatheringOutputListener;
+import com.swiftmq.net.protocol.ProtocolInputHandler;
+import com.swiftmq.net.protocol.ProtocolOutputHandler;
+import com.swiftmq.net.protocol.smqp.SMQPDirectOutputHandler;
+import com.swiftmq.net.protocol.smqp.SMQPInputHandler;
+import com.swiftmq.net.protocol.smqp.SMQPOutputHandler;
+import com.swiftmq.net.protocol.util.BufferLease;
+import com.swiftmq.net.protocol.util.ChunkDataInputStream;
+import com.swiftmq.swiftlet.threadpool.AsyncTask;
+import com.swiftmq.swiftlet.threadpool.ThreadPool;
+import com.swiftmq.tools.concurrent.Semaphore;
+import com.swiftmq.tools.prop.SystemProperties;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A Connection that is driven by a shared NIOSelectorGroup instead of a dedicated reader thread.
+ * The selector thread the connection is assigned to only detects readiness. Reads and the processing
+ * of completed chunks run in a per-connection task on the connection pool, with read interest off
+ * until the task has drained the socket. Writes are performed by the calling thread and park only
+ * if the socket send buffer is full.
+ */
+public class NIOConnection
+        implements Connection, ChunkListener, GatheringOutputListener {
+    static final int CONNECT_TIMEOUT = Integer.parseInt(SystemProperties.get("swiftmq.socket.connect.timeout", "5000"));
+    static final boolean DIRECT_BUFFERS = Boolean.valueOf(SystemProperties.get("swiftmq.socket.directbuffers.enabled", "true")).booleanValue();
+    static final String DISPATCH_TOKEN = "sys$net.client.nio.readtask";
+    // Reads of one task run before it is dispatched again, so connections share the pool threads
+    static final int MAX_READS_PER_TASK = 16;
+    SocketChannel channel = null;
+    Socket socket = null;
+    int inputBufferSize = 0;
+    int inputExtendSize = 0;
+    int outputBufferSize = 0;
+    int outputExtendSize = 0;
+    ProtocolInputHandler inputHandler = null;
+    ProtocolOutputHandler outputHandler = null;
+    ChunkDataInputStream dis = null;
+    InboundHandler inboundHandler = null;
+    ExceptionHandler exceptionHandler = null;
+    String myHostname = null;
+    volatile boolean closed = false;
+    AtomicBoolean inputActiveIndicator = null;
+    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    NIOSelectorGroup.SelectorThread selectorThread = null;
+    volatile SelectionKey selectionKey = null;
+    IOException registrationException = null;
+    Semaphore registrationSem = new Semaphore();
+    ReentrantLock writeLock = new ReentrantLock();
+    Condition writableCond = writeLock.newCondition();
+    boolean writable = true;
+    volatile boolean writeInterest = false;
+    ReentrantLock interestLock = new ReentrantLock();
+    AtomicBoolean readScheduled = new AtomicBoolean(false);
+    ThreadPool readPool = null;
+    ReadTask readTask = null;
+
+    public NIOConnection(SocketChannel channel, InboundHandler inboundHandler, ExceptionHandler exceptionHandler) throws IOException {
+        this(channel, 128 * 1024, 64 * 1024, 128 * 1024, 64 * 1024);
+        this.inboundHandler = inboundHandler;
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    public NIOConnection(SocketChannel channel, int inputBufferSize, int inputExtendSize, int outputBufferSize, int outputExtendSize) throws IOException {
+        this.channel = channel;
+        this.socket = channel.socket();
+        if (BlockingConnection.SET_SOCKET_OPTIONS) {
+            int n = outputBufferSize;
+            try {
+                if (BlockingConnection.MAX_SNDBUFSIZE > 0)
+                    n = Math.min(outputBufferSize, BlockingConnection.MAX_SNDBUFSIZE);
+                socket.setSendBufferSize(n);
+            } catch (SocketException e) {
+                System.err.println("Unable to perform 'socket.setSendBufferSize(" + n + ")', exception: " + e);
+            }
+            try {
+                n = inputBufferSize;
+                if (BlockingConnection.MAX_RCVBUFSIZE > 0)
+                    n = Math.min(inputBufferSize, BlockingConnection.MAX_RCVBUFSIZE);
+                if (socket.getReceiveBufferSize() != n)
+                    socket.setReceiveBufferSize(n);
+            } catch (SocketException e) {
+                System.err.println("Unable to perform 'socket.setReceiveBufferSize(" + n + ")', exception: " + e);
+            }
+        }
+        channel.configureBlocking(false);
+        this.inputBufferSize = inputBufferSize;
+        this.inputExtendSize = inputExtendSize;
+        this.outputBufferSize = outputBufferSize;
+        this.outputExtendSize = outputExtendSize;
+        outputHandler = createOutputHandler(outputBufferSize, outputExtendSize);
+        outputHandler.setOutputListener(this);
+        inputHandler = createInputHandler();
+        inputHandler.createInputBuffer(inputBufferSize, inputExtendSize);
+        inputHandler.setChunkListener(this);
+        if (inputHandler instanceof SMQPInputHandler)
+            ((SMQPInputHandler) inputHandler).setCompressionStatistics(outputHandler.getCompressionStatistics());
+        dis = new ChunkDataInputStream();
+        readPool = PoolManager.getInstance().getConnectionPool();
+        readTask = new ReadTask();
+        try {
+            myHostname = socket.getLocalAddress().toString();
+        } catch (Exception e) {
+            myHostname = "unknown";
+        }
+    }
+
+    /**
+     * Returns whether a connection created by this socket factory can be driven by NIO.
+     * Only plain sockets without HTTP tunneling are supported; everything else requires a BlockingConnection.
+     *
+     * @param socketFactory socket factory
+     * @param hostname      remote host
+     * @return true if NIO is supported
+     */
+    public static boolean isSupported(SocketFactory socketFactory, String hostname) {
+        if (socketFactory == null || socketFactory.getClass() != PlainSocketFactory.class)
+            return false;
+        HttpTunnelProperties tunnelProperties = HttpTunnelProperties.getInstance();
+        return !(tunnelProperties.isProxy() && tunnelProperties.isHostViaProxy(hostname));
+    }
+
+    /**
+     * Opens and connects a socket channel in blocking mode, using the same timeout as the PlainSocketFactory.
+     *
+     * @param hostname          remote host
+     * @param port              remote port
+     * @param tcpNoDelay        use TCP No Delay
+     * @param receiveBufferSize receive buffer size to set before connect or -1
+     * @return connected socket channel
+     * @throws IOException on error
+     */
+    public static SocketChannel openChannel(String hostname, int port, boolean tcpNoDelay, int receiveBufferSize) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            Socket socket = channel.socket();
+            if (receiveBufferSize > 0 && BlockingConnection.SET_SOCKET_OPTIONS) {
+                try {
+                    socket.setReceiveBufferSize(BlockingConnection.MAX_RCVBUFSIZE > 0 ? Math.min(receiveBufferSize, BlockingConnection.MAX_RCVBUFSIZE) : receiveBufferSize);
+                } catch (SocketException e) {
+                    System.err.println("Unable to set socket receive buffer size to: " + receiveBufferSize);
+                }
+            }
+            if (CONNECT_TIMEOUT > 0)
+                socket.connect(new InetSocketAddress(hostname, port), CONNECT_TIMEOUT);
+            else
+                socket.connect(new InetSocketAddress(hostname, port));
+            try {
+                socket.setTcpNoDelay(tcpNoDelay);
+            } catch (SocketException e) {
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Returns whether output handlers should store their chunks in direct buffers. Controlled by
+     * <code>swiftmq.socket.directbuffers.enabled</code> (default true).
+     *
+     * @return true/false
+     */
+    public static boolean isDirectBuffersEnabled() {
+        return DIRECT_BUFFERS;
+    }
+
+    protected ProtocolOutputHandler createOutputHandler(int outputBufferSize, int outputExtendSize) {
+        if (DIRECT_BUFFERS)
+            return new SMQPDirectOutputHandler(outputBufferSize, outputExtendSize) {
+                public void flush() throws IOException {
+                    super.flush();
+                    invokeOutputListener();
+                }
+            };
+        return new SMQPOutputHandler(outputBufferSize, outputExtendSize) {
+            public void flush() throws IOException {
+                super.flush();
+                invokeOutputListener();
+            }
+        };
+    }
+
+    protected ProtocolInputHandler createInputHandler() {
+        return new SMQPInputHandler();
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+        registrationSem.notifySingleWaiter();
+    }
+
+    void registrationFailed(IOException exception) {
+        registrationException = exception;
+        registrationSem.notifySingleWaiter();
+    }
+
+    public void setInputActiveIndicator(AtomicBoolean inputActiveIndicator) {
+        this.inputActiveIndicator = inputActiveIndicator;
+    }
+
+    public void chunkCompleted(byte[] b, int offset, int len) {
+        lock.writeLock().lock();
+        try {
+            dis.setBuffer(b, offset, len);
+            inboundHandler.dataAvailable(dis);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void chunkCompleted(byte[] b, int offset, int len, BufferLease lease) {
+        lock.writeLock().lock();
+        try {
+            dis.setBuffer(b, offset, len, lease);
+            inboundHandler.dataAvailable(dis);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called by the selector thread, suspends read interest until the read task has drained the socket
+    void readReady() {
+        if (readScheduled.compareAndSet(false, true)) {
+            updateInterestOps();
+            readPool.dispatchTask(readTask);
+        }
+    }
+
+    private void updateInterestOps() {
+        interestLock.lock();
+        try {
+            int ops = (readScheduled.get() ? 0 : SelectionKey.OP_READ) | (writeInterest ? SelectionKey.OP_WRITE : 0);
+            selectorThread.interestOps(selectionKey, ops);
+        } finally {
+            interestLock.unlock();
+        }
+    }
+
+    private void read() {
+        try {
+            for (int i = 0; i < MAX_READS_PER_TASK; i++) {
+                if (closed)
+                    return;
+                int n = channel.read(inputHandler.getByteBuffer());
+                if (n == -1)
+                    throw new IOException("End-of-Stream reached");
+                if (n == 0) {
+                    readScheduled.set(false);
+                    updateInterestOps();
+                    return;
+                }
+                if (inputActiveIndicator != null)
+                    inputActiveIndicator.set(true);
+                inputHandler.setBytesWritten(n);
+            }
+            readPool.dispatchTask(readTask);
+        } catch (IOException e) {
+            readFailed(e);
+        } catch (UncheckedIOException e) {
+            // Chunk could not be decoded by the protocol handler
+            readFailed(e.getCause());
+        }
+    }
+
+    private void readFailed(IOException e) {
+        selectionKey.cancel();
+        wakeupWriter();
+        if (!closed && exceptionHandler != null)
+            exceptionHandler.onException(e);
+    }
+
+    void writeReady() {
+        writeInterest = false;
+        updateInterestOps();
+        wakeupWriter();
+    }
+
+    private void wakeupWriter() {
+        writeLock.lock();
+        try {
+            writable = true;
+            writableCond.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        // Only the selector thread signals write readiness, it must never wait for it
+        if (Thread.currentThread() == selectorThread)
+            throw new IOException("Socket send buffer is full, unable to wait on the selector thread");
+        writeLock.lock();
+        try {
+            writable = false;
+            writeInterest = true;
+            updateInterestOps();
+            while (!writable && !closed && selectionKey.isValid())
+                writableCond.await();
+            if (!selectionKey.isValid())
+                throw new IOException("Connection is closed");
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the socket to become writable");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int performWrite(byte[] b, int offset, int len)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, offset, len);
+        while (buffer.hasRemaining()) {
+            if (closed)
+                throw new IOException("Connection is closed");
+            if (channel.write(buffer) == 0)
+                awaitWritable();
+        }
+        return len;
+    }
+
+    public long performWrite(ByteBuffer[] buffers)
+            throws IOException {
+        long total = 0;
+        int first = 0;
+        while (first < buffers.length) {
+            if (closed)
+                throw new IOException("Connection is closed");
+            long n = channel.write(buffers, first, buffers.length - first);
+            if (n == 0)
+                awaitWritable();
+            total += n;
+            while (first < buffers.length && !buffers[first].hasRemaining())
+                first++;
+        }
+        return total;
+    }
+
+    public void start() {
+        try {
+            selectorThread = NIOSelectorGroup.getInstance().register(this);
+        } catch (IOException e) {
+            registrationException = e;
+            registrationSem.notifySingleWaiter();
+        }
+        registrationSem.waitHere();
+        if (registrationException != null)
+            throw new RuntimeException("Unable to register connection at the NIO selector: " + registrationException);
+    }
+
+    public void setInboundHandler(InboundHandler inboundHandler) {
+        lock.writeLock().lock();
+        try {
+            this.inboundHandler = inboundHandler;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setExceptionHandler(ExceptionHandler exceptionHandler) {
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    public String getLocalHostname() {
+        return myHostname;
+    }
+
+    public String getHostname() {
+        return socket.getInetAddress().getHostName();
+    }
+
+    public int getPort() {
+        return socket.getPort();
+    }
+
+    public OutputStream getOutputStream() {
+        return outputHandler;
+    }
+
+    public void close() {
+        closed = true;
+        if (selectionKey != null)
+            selectionKey.cancel();
+        wakeupWriter();
+        try {
+            channel.close();
+        } catch (IOException e) {
+        }
+    }
+
+    public String toString() {
+        return "[NIOConnection, socket=" + socket + "]";
+    }
+
+    private class ReadTask implements AsyncTask {
+        public boolean isValid() {
+            return !closed;
+        }
+
+        public String getDispatchToken() {
+            return DISPATCH_TOKEN;
+        }
+
+        public String getDescription() {
+            return myHostname + "/NIOConnection/ReadTask";
+        }
+
+        public void run() {
+            read();
+        }
+
+        public void stop() {
+        }
+    }
+}
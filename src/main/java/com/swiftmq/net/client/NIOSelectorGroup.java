@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import com.swiftmq.tools.prop.SystemProperties;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A small, fixed group of selector threads shared by all NIOConnections of a JVM.
+ * Each connection is assigned round-robin to one selector thread which signals read and write
+ * readiness for that connection.
+ */
+public class NIOSelectorGroup {
+    public static final String PROP_NIO_THREADS = "swiftmq.socket.nio.threads";
+    static final int NUMBER_THREADS = Integer.parseInt(SystemProperties.get(PROP_NIO_THREADS, "2"));
+    private static final AtomicReference<NIOSelectorGroup> _instance = new AtomicReference<>();
+
+    final SelectorThread[] threads;
+    final AtomicInteger next = new AtomicInteger(0);
+
+    private NIOSelectorGroup(int nThreads) throws IOException {
+        threads = new SelectorThread[Math.max(1, nThreads)];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new SelectorThread(i);
+            threads[i].start();
+        }
+    }
+
+    public static NIOSelectorGroup getInstance() throws IOException {
+        NIOSelectorGroup group = _instance.get();
+        if (group == null) {
+            synchronized (NIOSelectorGroup.class) {
+                group = _instance.get();
+                if (group == null) {
+                    group = new NIOSelectorGroup(NUMBER_THREADS);
+                    _instance.set(group);
+                }
+            }
+        }
+        return group;
+    }
+
+    public int getNumberThreads() {
+        return threads.length;
+    }
+
+    SelectorThread register(NIOConnection connection) {
+        SelectorThread thread = threads[(next.getAndIncrement() & Integer.MAX_VALUE) % threads.length];
+        thread.register(connection);
+        return thread;
+    }
+
+    public String toString() {
+        return "[NIOSelectorGroup, threads=" + threads.length + "]";
+    }
+
+    class SelectorThread extends Thread {
+        final Selector selector;
+        final Queue<NIOConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+        SelectorThread(int id) throws IOException {
+            super("SwiftMQ NIO Selector " + id);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void register(NIOConnection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        void interestOps(SelectionKey key, int ops) {
+            try {
+                key.interestOps(ops);
+                selector.wakeup();
+            } catch (CancelledKeyException e) {
+            }
+        }
+
+        private void processRegistrations() {
+            NIOConnection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.setSelectionKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+                } catch (IOException e) {
+                    connection.registrationFailed(e);
+                }
+            }
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    processRegistrations();
+                    for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        NIOConnection connection = (NIOConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable())
+                                connection.writeReady();
+                            if (key.isValid() && key.isReadable())
+                                connection.readReady();
+                        } catch (CancelledKeyException e) {
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println(getName() + ", exception during select: " + e);
+                }
+            }
+        }
+    }
+}
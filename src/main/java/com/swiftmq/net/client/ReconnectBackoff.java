@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import com.swiftmq.tools.prop.SystemProperties;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the delay between reconnect attempts: <code>retryDelay * multiplier^step</code>, capped at a maximum
+ * and optionally randomized with full jitter, i.e. uniformly distributed between 0 and the computed delay.
+ * <p>
+ * Configured with <code>swiftmq.reconnect.backoff.multiplier</code> (default 1.0, a fixed delay),
+ * <code>swiftmq.reconnect.backoff.max</code> (default 30000 ms) and <code>swiftmq.reconnect.backoff.jitter</code>
+ * (default false).
+ * </p>
+ */
+public class ReconnectBackoff {
+    public static final String PROP_MULTIPLIER = "swiftmq.reconnect.backoff.multiplier";
+    public static final String PROP_MAX = "swiftmq.reconnect.backoff.max";
+    public static final String PROP_JITTER = "swiftmq.reconnect.backoff.jitter";
+
+    final long baseDelay;
+    final long maxDelay;
+    final double multiplier;
+    final boolean jitter;
+
+    public ReconnectBackoff(long baseDelay, double multiplier, long maxDelay, boolean jitter) {
+        this.baseDelay = baseDelay;
+        this.multiplier = Math.max(1.0, multiplier);
+        this.maxDelay = Math.max(baseDelay, maxDelay);
+        this.jitter = jitter;
+    }
+
+    public ReconnectBackoff(long baseDelay) {
+        this(baseDelay,
+                Double.parseDouble(SystemProperties.get(PROP_MULTIPLIER, "1.0")),
+                Long.parseLong(SystemProperties.get(PROP_MAX, "30000")),
+                Boolean.valueOf(SystemProperties.get(PROP_JITTER, "false")).booleanValue());
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param step number of consecutive failed attempts so far
+     * @return delay in milliseconds
+     */
+    public long getDelay(int step) {
+        if (baseDelay <= 0)
+            return 0;
+        double d = baseDelay * Math.pow(multiplier, Math.min(step, 64));
+        long delay = d >= maxDelay ? maxDelay : (long) d;
+        if (jitter)
+            delay = ThreadLocalRandom.current().nextLong(delay + 1);
+        return delay;
+    }
+
+    public String toString() {
+        return "[ReconnectBackoff, baseDelay=" + baseDelay + ", multiplier=" + multiplier + ", maxDelay=" + maxDelay + ", jitter=" + jitter + "]";
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Reconnect counters of a Reconnector: connect attempts, their outcome, the current backoff state and a
+ * histogram of the time it took to reconnect, measured from the start of a reconnect until the connection
+ * was handed over to the client.
+ */
+public class ReconnectStatistics {
+    static final long[] HISTOGRAM_BOUNDS = {100, 500, 1000, 5000, 30000, 120000, Long.MAX_VALUE};
+
+    final AtomicLong attempts = new AtomicLong(0);
+    final AtomicLong failedAttempts = new AtomicLong(0);
+    final AtomicLong reconnects = new AtomicLong(0);
+    final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BOUNDS.length);
+    volatile int consecutiveFailures = 0;
+    volatile long currentBackoff = 0;
+    volatile long lastTimeToReconnect = -1;
+
+    void attempt(boolean success) {
+        attempts.incrementAndGet();
+        if (success)
+            consecutiveFailures = 0;
+        else {
+            failedAttempts.incrementAndGet();
+            consecutiveFailures++;
+        }
+    }
+
+    void backoff(long delay) {
+        currentBackoff = delay;
+    }
+
+    void reconnected(long timeToReconnect) {
+        reconnects.incrementAndGet();
+        lastTimeToReconnect = timeToReconnect;
+        consecutiveFailures = 0;
+        currentBackoff = 0;
+        for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+            if (timeToReconnect < HISTOGRAM_BOUNDS[i]) {
+                histogram.incrementAndGet(i);
+                break;
+            }
+        }
+    }
+
+    public long getAttempts() {
+        return attempts.get();
+    }
+
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    /**
+     * Returns the number of completed (re)connects, including the initial connect.
+     *
+     * @return reconnects
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns the delay of the current or last wait between attempts, 0 after a successful reconnect.
+     *
+     * @return delay in milliseconds
+     */
+    public long getCurrentBackoff() {
+        return currentBackoff;
+    }
+
+    public long getLastTimeToReconnect() {
+        return lastTimeToReconnect;
+    }
+
+    /**
+     * Returns the upper bounds (exclusive, in milliseconds) of the histogram buckets.
+     *
+     * @return bounds
+     */
+    public long[] getHistogramBounds() {
+        return HISTOGRAM_BOUNDS.clone();
+    }
+
+    /**
+     * Returns the number of reconnects per bucket of <code>getHistogramBounds()</code>.
+     *
+     * @return counts
+     */
+    public long[] getTimeToReconnectHistogram() {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = histogram.get(i);
+        return counts;
+    }
+
+    public String toString() {
+        StringBuilder b = new StringBuilder("[ReconnectStatistics, attempts=");
+        b.append(attempts.get());
+        b.append(", failedAttempts=").append(failedAttempts.get());
+        b.append(", reconnects=").append(reconnects.get());
+        b.append(", consecutiveFailures=").append(consecutiveFailures);
+        b.append(", currentBackoff=").append(currentBackoff);
+        b.append(", lastTimeToReconnect=").append(lastTimeToReconnect);
+        b.append(", histogram={");
+        for (int i = 0; i < HISTOGRAM_BOUNDS.length; i++) {
+            if (i > 0)
+                b.append(", ");
+            b.append(HISTOGRAM_BOUNDS[i] == Long.MAX_VALUE ? "inf" : "<" + HISTOGRAM_BOUNDS[i]).append('=').append(histogram.get(i));
+        }
+        b.append("}]");
+        return b.toString();
+    }
+}
@@ -18,13 +18,19 @@
 package com.swiftmq.net.client;
 
 import com.swiftmq.tools.concurrent.Semaphore;
+import com.swiftmq.tools.prop.SystemProperties;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public abstract class Reconnector {
+    static final boolean RACE_ENABLED = Boolean.valueOf(SystemProperties.get("swiftmq.reconnect.race.enabled", "false")).booleanValue();
+    static final long RACE_STAGGER = Long.parseLong(SystemProperties.get("swiftmq.reconnect.race.stagger", "250"));
     List servers = null;
     Map parameters = null;
     boolean enabled = false;
@@ -33,11 +39,14 @@ public abstract class Reconnector {
     boolean debug = false;
     Connection active = null;
     int currentPos = 0;
-    boolean closed = false;
+    volatile boolean closed = false;
     boolean firstConnectAttempt = true;
     String debugString = null;
     ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     Semaphore waitSem = new Semaphore();
+    final ReconnectBackoff backoff;
+    final ReconnectStatistics statistics = new ReconnectStatistics();
+    int backoffStep = 0;
 
     protected Reconnector(List servers, Map parameters, boolean enabled, int maxRetries, long retryDelay, boolean debug) {
         this.servers = servers;
@@ -46,8 +55,9 @@ public abstract class Reconnector {
         this.maxRetries = maxRetries;
         this.retryDelay = retryDelay;
         this.debug = debug;
+        this.backoff = new ReconnectBackoff(retryDelay);
         if (debug)
-            System.out.println(dbg() + " created, enabled=" + enabled + ", maxRetries=" + maxRetries + ", retryDelay=" + retryDelay + ", servers=" + servers + ", parameters=" + parameters);
+            System.out.println(dbg() + " created, enabled=" + enabled + ", maxRetries=" + maxRetries + ", retryDelay=" + retryDelay + ", backoff=" + backoff + ", servers=" + servers + ", parameters=" + parameters);
     }
 
     private String dbg() {
@@ -58,6 +68,10 @@ public abstract class Reconnector {
         this.debugString = "[Reconnector, " + debugString + "]";
     }
 
+    public Map getParameters() {
+        return parameters;
+    }
+
     public List getServers() {
         return servers;
     }
@@ -74,8 +88,102 @@ public abstract class Reconnector {
         return false;
     }
 
+    public ReconnectStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Called when a connection has been handed over to the client after a successful handshake.
+     * Resets the backoff.
+     *
+     * @param timeToReconnect time since the reconnect was initiated in milliseconds
+     */
+    public void reconnected(long timeToReconnect) {
+        lock.writeLock().lock();
+        try {
+            backoffStep = 0;
+            statistics.reconnected(timeToReconnect);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void await(long delay) {
+        if (delay > 0) {
+            waitSem.waitHere(delay);
+            waitSem.reset();
+        }
+    }
+
     protected abstract Connection createConnection(ServerEntry entry, Map parameters);
 
+    /**
+     * Returns whether connect attempts to multiple servers are raced. Enabled with
+     * <code>swiftmq.reconnect.race.enabled=true</code> if there is more than one server.
+     *
+     * @return true/false
+     */
+    public boolean isRacing() {
+        return RACE_ENABLED && !isIntraVM() && servers.size() > 1;
+    }
+
+    private Connection connect(ServerEntry entry) {
+        long start = System.currentTimeMillis();
+        Connection connection = createConnection(entry, parameters);
+        statistics.attempt(connection != null);
+        if (!isIntraVM()) {
+            if (connection != null)
+                ConnectLatencyRegistry.getInstance().connectSucceeded(entry, System.currentTimeMillis() - start);
+            else
+                ConnectLatencyRegistry.getInstance().connectFailed(entry);
+        }
+        return connection;
+    }
+
+    /**
+     * Starts connect attempts to all servers, fastest healthy server first, each attempt delayed by
+     * <code>swiftmq.reconnect.race.stagger</code> milliseconds (default 250) unless the previous attempt
+     * has already failed. The first established connection wins, all others are closed.
+     *
+     * @return connection or null if all attempts failed
+     */
+    private Connection race() {
+        List<ServerEntry> ordered = ConnectLatencyRegistry.getInstance().order(servers);
+        Race race = new Race();
+        int started = 0;
+        int pending = 0;
+        long nextStart = 0;
+        Connection winner = null;
+        try {
+            while (winner == null && !closed && (pending > 0 || started < ordered.size())) {
+                long now = System.currentTimeMillis();
+                if (started < ordered.size() && (pending == 0 || now >= nextStart)) {
+                    ServerEntry entry = ordered.get(started++);
+                    if (debug) System.out.println(dbg() + ", race, attempt to create connection to: " + entry);
+                    race.start(entry);
+                    pending++;
+                    nextStart = now + RACE_STAGGER;
+                    continue;
+                }
+                Attempt attempt = started < ordered.size() ? race.results.poll(Math.max(1, nextStart - now), TimeUnit.MILLISECONDS) : race.results.take();
+                if (attempt == null)
+                    continue;
+                pending--;
+                if (debug)
+                    System.out.println(dbg() + ", race, " + attempt.entry + " returns " + attempt.connection);
+                if (attempt.connection != null)
+                    winner = attempt.connection;
+                else
+                    nextStart = 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            race.finish(winner);
+        }
+        return winner;
+    }
+
     public Connection getConnection() {
         lock.writeLock().lock();
         try {
@@ -83,17 +191,30 @@ public abstract class Reconnector {
             int nRetries = -1;
             while (!closed && active == null && nRetries < maxRetries) {
                 if (retryDelay > 0 && !firstConnectAttempt) {
+                    long delay = backoff.getDelay(backoffStep++);
+                    statistics.backoff(delay);
                     if (debug)
-                        System.out.println(dbg() + ", nRetries=" + nRetries + ", waiting " + retryDelay + " ms ...");
-                    waitSem.waitHere(retryDelay);
-                    waitSem.reset();
+                        System.out.println(dbg() + ", nRetries=" + nRetries + ", waiting " + delay + " ms ...");
+                    await(delay);
+                }
+                if (!isIntraVM()) {
+                    long wait = HandshakeLimiter.getInstance().reserve();
+                    if (debug && wait > 0)
+                        System.out.println(dbg() + ", nRetries=" + nRetries + ", handshake limit reached, waiting " + wait + " ms ...");
+                    await(wait);
+                }
+                if (closed)
+                    break;
+                if (isRacing()) {
+                    active = race();
+                } else {
+                    if (currentPos == servers.size())
+                        currentPos = 0;
+                    ServerEntry entry = (ServerEntry) servers.get(currentPos++);
+                    if (debug)
+                        System.out.println(dbg() + ", nRetries=" + nRetries + ", attempt to create connection to: " + entry);
+                    active = connect(entry);
                 }
-                if (currentPos == servers.size())
-                    currentPos = 0;
-                ServerEntry entry = (ServerEntry) servers.get(currentPos++);
-                if (debug)
-                    System.out.println(dbg() + ", nRetries=" + nRetries + ", attempt to create connection to: " + entry);
-                active = createConnection(entry, parameters);
                 if (debug)
                     System.out.println(dbg() + ", nRetries=" + nRetries + ", createConnection returns " + active);
                 if (active == null) {
@@ -126,6 +247,9 @@ public abstract class Reconnector {
     }
 
     public void close() {
+        // Abort a pending backoff wait first, getConnection holds the lock during the wait
+        closed = true;
+        waitSem.notifySingleWaiter();
         lock.writeLock().lock();
         try {
             if (debug) System.out.println(dbg() + ", close, active=" + active);
@@ -143,4 +267,48 @@ public abstract class Reconnector {
     public String toString() {
         return "Reconnector";
     }
+
+    private static class Attempt {
+        ServerEntry entry;
+        Connection connection;
+
+        Attempt(ServerEntry entry, Connection connection) {
+            this.entry = entry;
+            this.connection = connection;
+        }
+    }
+
+    private class Race {
+        final LinkedBlockingQueue<Attempt> results = new LinkedBlockingQueue<>();
+        boolean finished = false;
+
+        void start(ServerEntry entry) {
+            Thread thread = new Thread(() -> {
+                Connection connection = connect(entry);
+                synchronized (this) {
+                    if (!finished) {
+                        results.add(new Attempt(entry, connection));
+                        return;
+                    }
+                }
+                // Lost the race
+                if (connection != null)
+                    connection.close();
+            }, "SwiftMQ Connect " + entry.getHostname() + ":" + entry.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void finish(Connection winner) {
+            List<Attempt> late = new ArrayList<>();
+            synchronized (this) {
+                finished = true;
+                results.drainTo(late);
+            }
+            for (Attempt attempt : late) {
+                if (attempt.connection != null && attempt.connection != winner)
+                    attempt.connection.close();
+            }
+        }
+    }
 }
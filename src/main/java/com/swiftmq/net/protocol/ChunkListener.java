@@ -17,6 +17,8 @@
 
 package com.swiftmq.net.protocol;
 
+import com.swiftmq.net.protocol.util.BufferLease;
+
 /**
  * An ChunkListener is responsible to pass a chunk from the ProtocolInputHandler to a Swiftlet.
  * It is set at a ProtocolInputHandler and implemented by the Network Swiftlet.
@@ -34,5 +36,18 @@ public interface ChunkListener {
      * @param len    length
      */
     public void chunkCompleted(byte[] b, int offset, int len);
+
+    /**
+     * Called from a ProtocolInputHandler when a protocol-chunk in a pooled buffer has been completed. The
+     * listener may retain the lease to keep using the buffer after it returns.
+     *
+     * @param b      byte array.
+     * @param offset offset
+     * @param len    length
+     * @param lease  lease of b
+     */
+    default void chunkCompleted(byte[] b, int offset, int len, BufferLease lease) {
+        chunkCompleted(b, offset, len);
+    }
 }
 
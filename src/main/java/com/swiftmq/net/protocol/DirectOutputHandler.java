@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol;
+
+import com.swiftmq.net.protocol.util.DirectBufferPool;
+import com.swiftmq.net.protocol.util.DirectDataOutput;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A ProtocolOutputHandler that stores chunks in pooled direct ByteBuffers (see DirectDataOutput).
+ * It is a DataOutput itself, so objects can be dumped into it without an intermediate stream, and it
+ * passes its buffers to a GatheringOutputListener without a heap copy. Other OutputListeners are
+ * served from a heap copy of the chunk.
+ *
+ * @author IIT GmbH, Muenster/Germany
+ */
+public abstract class DirectOutputHandler extends ProtocolOutputHandler implements DataOutput {
+    protected final DirectDataOutput out;
+    private ByteBuffer[] pending = null;
+    private byte[] heapCopy = null;
+    private int heapOffset = 0;
+    private int heapLength = -1;
+    private int chunkCount = 0;
+
+    protected DirectOutputHandler(boolean reserveLength) {
+        out = new DirectDataOutput(DirectBufferPool.getInstance(), reserveLength);
+    }
+
+    /**
+     * Called from <code>markChunkCompleted()</code> before the buffers are prepared for the write.
+     * This is the place to fill the reserved length field.
+     */
+    protected abstract void completeChunk();
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    protected void markChunkCompleted() {
+        completeChunk();
+        pending = out.prepareForWrite();
+        chunkCount = 1;
+    }
+
+    protected ByteBuffer[] getByteBuffers() {
+        return pending;
+    }
+
+    protected void setAllBytesWritten() {
+        resetChunk();
+    }
+
+    protected byte[] getByteArray() {
+        if (heapLength == -1) {
+            int length = 0;
+            for (int i = 0; i < pending.length; i++)
+                length += pending[i].remaining();
+            if (heapCopy == null || heapCopy.length < length)
+                heapCopy = new byte[length];
+            int pos = 0;
+            for (int i = 0; i < pending.length; i++) {
+                int n = pending[i].remaining();
+                pending[i].get(heapCopy, pos, n);
+                pos += n;
+            }
+            heapOffset = 0;
+            heapLength = length;
+        }
+        return heapCopy;
+    }
+
+    protected int getOffset() {
+        return heapOffset;
+    }
+
+    protected int getLength() {
+        return heapLength - heapOffset;
+    }
+
+    protected void setBytesWritten(int written) {
+        heapOffset += written;
+        if (heapOffset >= heapLength)
+            resetChunk();
+    }
+
+    private void resetChunk() {
+        out.reset();
+        pending = null;
+        heapOffset = 0;
+        heapLength = -1;
+        chunkCount = 0;
+    }
+
+    protected void addByte(byte b) {
+        out.write(b);
+    }
+
+    protected void addBytes(byte[] b, int offset, int len) {
+        out.write(b, offset, len);
+    }
+
+    public void writeBoolean(boolean v) {
+        out.writeBoolean(v);
+    }
+
+    public void writeByte(int v) {
+        out.writeByte(v);
+    }
+
+    public void writeShort(int v) {
+        out.writeShort(v);
+    }
+
+    public void writeChar(int v) {
+        out.writeChar(v);
+    }
+
+    public void writeInt(int v) {
+        out.writeInt(v);
+    }
+
+    public void writeLong(long v) {
+        out.writeLong(v);
+    }
+
+    public void writeFloat(float v) {
+        out.writeFloat(v);
+    }
+
+    public void writeDouble(double v) {
+        out.writeDouble(v);
+    }
+
+    public void writeBytes(String s) {
+        out.writeBytes(s);
+    }
+
+    public void writeChars(String s) {
+        out.writeChars(s);
+    }
+
+    public void writeUTF(String s) throws IOException {
+        out.writeUTF(s);
+    }
+}
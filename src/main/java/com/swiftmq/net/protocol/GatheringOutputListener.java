@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A GatheringOutputListener is an OutputListener that is able to write several
+ * buffers with a single gathering write. A ProtocolOutputHandler that supports
+ * gathering writes hands all pending chunks of a flush over at once.
+ *
+ * @see ProtocolOutputHandler
+ */
+public interface GatheringOutputListener extends OutputListener {
+
+    /**
+     * Performs the write of all remaining bytes of the buffers to the network.
+     * Returns only after all bytes have been written.
+     *
+     * @param buffers buffers.
+     * @return number of bytes written.
+     * @throws IOException on error.
+     */
+    public long performWrite(ByteBuffer[] buffers)
+            throws IOException;
+}
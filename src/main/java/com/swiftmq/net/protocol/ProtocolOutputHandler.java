@@ -17,8 +17,12 @@
 
 package com.swiftmq.net.protocol;
 
+import com.swiftmq.net.protocol.compression.CompressionCodec;
+import com.swiftmq.net.protocol.compression.CompressionStatistics;
+
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A ProtocolOutputHandler is the complement to a ProtocolInputHandler and responsible
@@ -33,6 +37,7 @@ import java.io.OutputStream;
  */
 public abstract class ProtocolOutputHandler extends OutputStream {
     OutputListener listener = null;
+    long totalBytesWritten = 0;
 
 
     /**
@@ -54,8 +59,57 @@ public abstract class ProtocolOutputHandler extends OutputStream {
      */
     public final void invokeOutputListener()
             throws IOException {
-        while (getChunkCount() > 0)
-            setBytesWritten(listener.performWrite(getByteArray(), getOffset(), getLength()));
+        if (listener instanceof GatheringOutputListener && getChunkCount() > 0) {
+            ByteBuffer[] buffers = getByteBuffers();
+            if (buffers != null) {
+                totalBytesWritten += ((GatheringOutputListener) listener).performWrite(buffers);
+                setAllBytesWritten();
+                return;
+            }
+        }
+        while (getChunkCount() > 0) {
+            int written = listener.performWrite(getByteArray(), getOffset(), getLength());
+            totalBytesWritten += written;
+            setBytesWritten(written);
+        }
+    }
+
+
+    /**
+     * Returns the total number of bytes handed over to the OutputListener since creation.
+     *
+     * @return total bytes written.
+     */
+    public long getTotalBytesWritten() {
+        return totalBytesWritten;
+    }
+
+    /**
+     * Enables compression of chunks with at least <code>threshold</code> bytes. Must only be called
+     * after the peer has agreed to the codec. The default does nothing as compression is protocol specific.
+     *
+     * @param codec     codec or null to disable compression
+     * @param threshold minimum chunk size to compress
+     */
+    public void setCompression(CompressionCodec codec, int threshold) {
+    }
+
+    /**
+     * Returns the active compression codec.
+     *
+     * @return codec or null if chunks are not compressed.
+     */
+    public CompressionCodec getCompressionCodec() {
+        return null;
+    }
+
+    /**
+     * Returns the compression statistics.
+     *
+     * @return statistics or null if the protocol doesn't support compression.
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        return null;
     }
 
     public void write(int b) throws IOException {
@@ -124,6 +178,26 @@ public abstract class ProtocolOutputHandler extends OutputStream {
     protected abstract int getLength();
 
 
+    /**
+     * Returns all pending chunks as buffers for a gathering write.
+     * Called during <code>invokeOutputListener()</code> if the OutputListener is a GatheringOutputListener.
+     * The default returns null which means that gathering writes are not supported by this handler.
+     *
+     * @return buffers or null.
+     */
+    protected ByteBuffer[] getByteBuffers() {
+        return null;
+    }
+
+
+    /**
+     * Called after a gathering write has transmitted all buffers returned from <code>getByteBuffers()</code>.
+     * All pending chunks can be destroyed or marked for reuse.
+     */
+    protected void setAllBytesWritten() {
+    }
+
+
     /**
      * Sets the number of bytes written from the OutputListener.
      * This is the actual number of bytes written from the OutputListener to the network.
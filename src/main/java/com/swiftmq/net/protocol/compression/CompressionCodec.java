@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.compression;
+
+import java.io.IOException;
+
+/**
+ * A CompressionCodec compresses and decompresses single protocol chunks.
+ * <p>
+ * Codecs are identified on the wire by their id, which must be between 1 and 127 and
+ * unique within a CompressionCodecFactory. A codec instance is used by one thread at a time;
+ * every protocol handler creates its own instances.
+ * </p>
+ *
+ * @see CompressionCodecFactory
+ */
+public interface CompressionCodec {
+
+    /**
+     * Returns the wire id of this codec.
+     *
+     * @return id.
+     */
+    public int getId();
+
+
+    /**
+     * Returns the name of this codec.
+     *
+     * @return name.
+     */
+    public String getName();
+
+
+    /**
+     * Returns the maximum size of the compressed data for an input of the given length.
+     *
+     * @param length input length.
+     * @return max compressed length.
+     */
+    public int maxCompressedLength(int length);
+
+
+    /**
+     * Compresses the input into the output array.
+     *
+     * @param in        input array.
+     * @param inOffset  input offset.
+     * @param inLength  input length.
+     * @param out       output array, at least <code>maxCompressedLength(inLength)</code> bytes from outOffset.
+     * @param outOffset output offset.
+     * @return number of compressed bytes.
+     * @throws IOException on error.
+     */
+    public int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset)
+            throws IOException;
+
+
+    /**
+     * Decompresses the input into the output array.
+     *
+     * @param in        input array.
+     * @param inOffset  input offset.
+     * @param inLength  input length.
+     * @param out       output array.
+     * @param outOffset output offset.
+     * @param outLength exact length of the decompressed data.
+     * @throws IOException on error.
+     */
+    public void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength)
+            throws IOException;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.compression;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the available CompressionCodecs. The DeflateCodec is always registered;
+ * additional (faster) codecs can be registered under a new id and name before connections are created.
+ */
+public class CompressionCodecFactory {
+    public static final String NONE = "none";
+    static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    static final Map<Integer, Supplier<CompressionCodec>> suppliers = new ConcurrentHashMap<>();
+
+    static {
+        register(DeflateCodec.ID, DeflateCodec.NAME, DeflateCodec::new);
+    }
+
+    /**
+     * Registers a codec.
+     *
+     * @param id       wire id, 1..127
+     * @param name     name
+     * @param supplier creates new codec instances
+     */
+    public static void register(int id, String name, Supplier<CompressionCodec> supplier) {
+        if (id < 1 || id > 127)
+            throw new IllegalArgumentException("Codec id must be between 1 and 127: " + id);
+        ids.put(name.toLowerCase(), id);
+        suppliers.put(id, supplier);
+    }
+
+    /**
+     * Returns the id of the codec with this name.
+     *
+     * @param name name
+     * @return id or 0 if the name is null, "none" or unknown
+     */
+    public static int getId(String name) {
+        if (name == null)
+            return 0;
+        Integer id = ids.get(name.toLowerCase());
+        return id == null ? 0 : id;
+    }
+
+    public static boolean isSupported(int id) {
+        return suppliers.containsKey(id);
+    }
+
+    /**
+     * Creates a new codec instance.
+     *
+     * @param id wire id
+     * @return codec or null if unknown
+     */
+    public static CompressionCodec create(int id) {
+        Supplier<CompressionCodec> supplier = suppliers.get(id);
+        return supplier == null ? null : supplier.get();
+    }
+}
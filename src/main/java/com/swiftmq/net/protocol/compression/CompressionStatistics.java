@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.compression;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compression counters of a connection, shared by its input and output handler.
+ */
+public class CompressionStatistics {
+    final AtomicLong compressedChunks = new AtomicLong(0);
+    final AtomicLong skippedChunks = new AtomicLong(0);
+    final AtomicLong uncompressedBytesOut = new AtomicLong(0);
+    final AtomicLong compressedBytesOut = new AtomicLong(0);
+    final AtomicLong compressNanos = new AtomicLong(0);
+    final AtomicLong decompressedChunks = new AtomicLong(0);
+    final AtomicLong compressedBytesIn = new AtomicLong(0);
+    final AtomicLong uncompressedBytesIn = new AtomicLong(0);
+    final AtomicLong decompressNanos = new AtomicLong(0);
+
+    public void chunkCompressed(int uncompressedLength, int compressedLength, long nanos) {
+        compressedChunks.incrementAndGet();
+        uncompressedBytesOut.addAndGet(uncompressedLength);
+        compressedBytesOut.addAndGet(compressedLength);
+        compressNanos.addAndGet(nanos);
+    }
+
+    public void chunkSkipped(long nanos) {
+        skippedChunks.incrementAndGet();
+        compressNanos.addAndGet(nanos);
+    }
+
+    public void chunkDecompressed(int compressedLength, int uncompressedLength, long nanos) {
+        decompressedChunks.incrementAndGet();
+        compressedBytesIn.addAndGet(compressedLength);
+        uncompressedBytesIn.addAndGet(uncompressedLength);
+        decompressNanos.addAndGet(nanos);
+    }
+
+    public long getCompressedChunks() {
+        return compressedChunks.get();
+    }
+
+    /**
+     * Returns the number of chunks above the threshold which were sent uncompressed because compression didn't pay off.
+     *
+     * @return skipped chunks
+     */
+    public long getSkippedChunks() {
+        return skippedChunks.get();
+    }
+
+    public long getUncompressedBytesOut() {
+        return uncompressedBytesOut.get();
+    }
+
+    public long getCompressedBytesOut() {
+        return compressedBytesOut.get();
+    }
+
+    public long getDecompressedChunks() {
+        return decompressedChunks.get();
+    }
+
+    public long getCompressedBytesIn() {
+        return compressedBytesIn.get();
+    }
+
+    public long getUncompressedBytesIn() {
+        return uncompressedBytesIn.get();
+    }
+
+    /**
+     * Returns compressed / uncompressed bytes of all compressed outbound chunks.
+     *
+     * @return ratio or 1.0 if nothing was compressed
+     */
+    public double getCompressionRatioOut() {
+        long u = uncompressedBytesOut.get();
+        return u == 0 ? 1.0 : (double) compressedBytesOut.get() / u;
+    }
+
+    /**
+     * Returns compressed / uncompressed bytes of all compressed inbound chunks.
+     *
+     * @return ratio or 1.0 if nothing was decompressed
+     */
+    public double getCompressionRatioIn() {
+        long u = uncompressedBytesIn.get();
+        return u == 0 ? 1.0 : (double) compressedBytesIn.get() / u;
+    }
+
+    /**
+     * Returns the CPU time spent to compress, including attempts that didn't pay off.
+     *
+     * @return nanoseconds
+     */
+    public long getCompressTime() {
+        return compressNanos.get();
+    }
+
+    /**
+     * Returns the CPU time spent to decompress.
+     *
+     * @return nanoseconds
+     */
+    public long getDecompressTime() {
+        return decompressNanos.get();
+    }
+
+    public String toString() {
+        return "[CompressionStatistics, compressedChunks=" + compressedChunks.get() + ", skippedChunks=" + skippedChunks.get() +
+                ", ratioOut=" + getCompressionRatioOut() + ", compressTime=" + compressNanos.get() +
+                ", decompressedChunks=" + decompressedChunks.get() + ", ratioIn=" + getCompressionRatioIn() + ", decompressTime=" + decompressNanos.get() + "]";
+    }
+}
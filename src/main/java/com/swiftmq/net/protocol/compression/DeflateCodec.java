@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.compression;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressionCodec based on the JDK Deflater/Inflater (raw deflate, no zlib header).
+ * The compression level is taken from <code>swiftmq.smqp.compression.deflate.level</code> (default 1, fastest).
+ */
+public class DeflateCodec implements CompressionCodec {
+    public static final int ID = 1;
+    public static final String NAME = "deflate";
+    public static final String PROP_LEVEL = "swiftmq.smqp.compression.deflate.level";
+    static final int LEVEL = Integer.parseInt(System.getProperty(PROP_LEVEL, "1"));
+
+    Deflater deflater = null;
+    Inflater inflater = null;
+
+    public int getId() {
+        return ID;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public int maxCompressedLength(int length) {
+        // zlib's deflateBound plus some headroom for the final block
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 64;
+    }
+
+    public int compress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset)
+            throws IOException {
+        if (deflater == null)
+            deflater = new Deflater(LEVEL, true);
+        deflater.reset();
+        deflater.setInput(in, inOffset, inLength);
+        deflater.finish();
+        int n = 0;
+        int max = out.length - outOffset;
+        while (!deflater.finished()) {
+            if (n == max)
+                throw new IOException("Output buffer too small for compressed data");
+            n += deflater.deflate(out, outOffset + n, max - n);
+        }
+        return n;
+    }
+
+    public void decompress(byte[] in, int inOffset, int inLength, byte[] out, int outOffset, int outLength)
+            throws IOException {
+        if (inflater == null)
+            inflater = new Inflater(true);
+        inflater.reset();
+        inflater.setInput(in, inOffset, inLength);
+        int n = 0;
+        try {
+            while (n < outLength) {
+                int r = inflater.inflate(out, outOffset + n, outLength - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data: " + e.getMessage());
+        }
+        if (n != outLength)
+            throw new IOException("Decompressed length mismatch, expected=" + outLength + ", actual=" + n);
+    }
+
+    public String toString() {
+        return "[DeflateCodec, level=" + LEVEL + "]";
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.raw;
+
+import com.swiftmq.net.protocol.DirectOutputHandler;
+import com.swiftmq.net.protocol.ProtocolOutputHandler;
+
+/**
+ * A RawDirectOutputHandler is the off-heap variant of the RawOutputHandler. The data is passed
+ * without any protocol specific actions. Buffer sizes are determined by the DirectBufferPool.
+ *
+ * @author IIT GmbH, Muenster/Germany
+ */
+public class RawDirectOutputHandler extends DirectOutputHandler {
+
+    public RawDirectOutputHandler(int bufferSize, int extendSize) {
+        super(false);
+    }
+
+    public RawDirectOutputHandler() {
+        this(0, 0);
+    }
+
+    public ProtocolOutputHandler create(int bufferSize, int extendSize) {
+        return new RawDirectOutputHandler(bufferSize, extendSize);
+    }
+
+    protected void completeChunk() {
+    }
+
+    public String toString() {
+        return "[RawDirectOutputHandler]";
+    }
+}
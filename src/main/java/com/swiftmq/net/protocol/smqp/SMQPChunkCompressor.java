@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.smqp;
+
+import com.swiftmq.net.protocol.compression.CompressionCodec;
+import com.swiftmq.net.protocol.compression.CompressionStatistics;
+
+import java.io.IOException;
+
+/**
+ * Compression state of a SMQP output handler: the negotiated codec, the threshold and the work buffers.
+ * The handler copies a completed chunk into <code>getPlainBuffer(length)</code>, calls <code>compress</code>
+ * and, on success, replaces the chunk by a compressed frame (see SMQPCompression).
+ */
+final class SMQPChunkCompressor {
+    final CompressionStatistics statistics = new CompressionStatistics();
+    volatile CompressionCodec codec = null;
+    volatile int threshold = Integer.MAX_VALUE;
+    byte[] plainBuffer = null;
+    byte[] compressBuffer = null;
+
+    void setCompression(CompressionCodec codec, int threshold) {
+        this.threshold = threshold;
+        this.codec = codec;
+        if (codec == null) {
+            plainBuffer = null;
+            compressBuffer = null;
+        }
+    }
+
+    /**
+     * Returns the codec if a chunk of this length should be compressed.
+     *
+     * @param length chunk length
+     * @return codec or null
+     */
+    CompressionCodec codecFor(int length) {
+        CompressionCodec c = codec;
+        return c != null && length >= threshold ? c : null;
+    }
+
+    byte[] getPlainBuffer(int length) {
+        if (plainBuffer == null || plainBuffer.length < length)
+            plainBuffer = new byte[length];
+        return plainBuffer;
+    }
+
+    byte[] getCompressBuffer() {
+        return compressBuffer;
+    }
+
+    /**
+     * Compresses the first <code>length</code> bytes of the plain buffer into the compress buffer.
+     *
+     * @param codec  codec
+     * @param length chunk length
+     * @param start  start time in nanos, for the statistics
+     * @return compressed length or -1 if the chunk should be sent uncompressed
+     */
+    int compress(CompressionCodec codec, int length, long start) {
+        try {
+            int max = codec.maxCompressedLength(length);
+            if (compressBuffer == null || compressBuffer.length < max)
+                compressBuffer = new byte[max];
+            int n = codec.compress(plainBuffer, 0, length, compressBuffer, 0);
+            if (n + SMQPCompression.FRAME_HEADER_SIZE >= length) {
+                statistics.chunkSkipped(System.nanoTime() - start);
+                return -1;
+            }
+            statistics.chunkCompressed(length, n + SMQPCompression.FRAME_HEADER_SIZE, System.nanoTime() - start);
+            return n;
+        } catch (IOException e) {
+            // Chunk stays uncompressed
+            statistics.chunkSkipped(System.nanoTime() - start);
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.smqp;
+
+import com.swiftmq.net.protocol.util.FragmentedOutputStream;
+
+/**
+ * Framing of compressed SMQP chunks. A compressed chunk has the highest bit of its length field set and
+ * its content starts with the codec id (1 byte) and the uncompressed length (4 bytes), followed by the
+ * compressed data. Plain chunks never have this bit set, so both kinds can be mixed on one connection.
+ */
+final class SMQPCompression {
+    static final int COMPRESSED_FLAG = 0x80000000;
+    static final int LENGTH_MASK = 0x7fffffff;
+    static final int FRAME_HEADER_SIZE = 5;
+
+    private SMQPCompression() {
+    }
+
+    static void writeInt(int v, FragmentedOutputStream out) {
+        out.write((v >>> 24) & 0xFF);
+        out.write((v >>> 16) & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        out.write(v & 0xFF);
+    }
+
+    static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xff) << 24) + ((b[offset + 1] & 0xff) << 16) + ((b[offset + 2] & 0xff) << 8) + (b[offset + 3] & 0xff);
+    }
+
+    static void markCompressed(byte[] lengthField) {
+        lengthField[0] |= (byte) 0x80;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.smqp;
+
+import com.swiftmq.net.protocol.DirectOutputHandler;
+import com.swiftmq.net.protocol.ProtocolOutputHandler;
+import com.swiftmq.net.protocol.compression.CompressionCodec;
+import com.swiftmq.net.protocol.compression.CompressionStatistics;
+
+/**
+ * A SMQPDirectOutputHandler is the off-heap variant of the SMQPOutputHandler. It produces the same
+ * wire format, including compressed chunks. Buffer sizes are determined by the DirectBufferPool.
+ *
+ * @author IIT GmbH, Muenster/Germany
+ */
+public class SMQPDirectOutputHandler extends DirectOutputHandler {
+    private final SMQPChunkCompressor compressor = new SMQPChunkCompressor();
+
+    public SMQPDirectOutputHandler(int bufferSize, int extendSize) {
+        super(true);
+    }
+
+    public ProtocolOutputHandler create(int bufferSize, int extendSize) {
+        return new SMQPDirectOutputHandler(bufferSize, extendSize);
+    }
+
+    public void setCompression(CompressionCodec codec, int threshold) {
+        compressor.setCompression(codec, threshold);
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressor.codec;
+    }
+
+    public CompressionStatistics getCompressionStatistics() {
+        return compressor.statistics;
+    }
+
+    private boolean compressChunk(CompressionCodec codec, int length) {
+        long start = System.nanoTime();
+        out.copyTo(compressor.getPlainBuffer(length), 0);
+        int n = compressor.compress(codec, length, start);
+        if (n == -1)
+            return false;
+        out.reset();
+        out.write(codec.getId());
+        out.writeInt(length);
+        out.write(compressor.getCompressBuffer(), 0, n);
+        return true;
+    }
+
+    protected void completeChunk() {
+        boolean compressed = false;
+        CompressionCodec c = compressor.codecFor(out.size());
+        if (c != null)
+            compressed = compressChunk(c, out.size());
+        out.putLength(compressed ? SMQPCompression.COMPRESSED_FLAG | out.size() : out.size());
+    }
+
+    public String toString() {
+        return "[SMQPDirectOutputHandler, chunkCount=" + getChunkCount() + "]";
+    }
+}
@@ -19,7 +19,15 @@ package com.swiftmq.net.protocol.smqp;
 
 import com.swiftmq.net.protocol.ChunkListener;
 import com.swiftmq.net.protocol.ProtocolInputHandler;
+import com.swiftmq.net.protocol.compression.CompressionCodec;
+import com.swiftmq.net.protocol.compression.CompressionCodecFactory;
+import com.swiftmq.net.protocol.compression.CompressionStatistics;
+import com.swiftmq.net.protocol.util.BufferLease;
+import com.swiftmq.net.protocol.util.ChunkBufferPool;
+import com.swiftmq.tools.prop.SystemProperties;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -28,15 +36,29 @@ import java.nio.ByteBuffer;
  * @author IIT GmbH, Bremen/Germany, Copyright (c) 2000-2002, All Rights Reserved
  */
 public class SMQPInputHandler implements ProtocolInputHandler {
+    public static final String PROP_MAX_UNCOMPRESSED_SIZE = "swiftmq.smqp.compression.maxuncompressedsize";
+    static final int MIN_BUFFER_SIZE = 1024;
+    static final int MAX_UNCOMPRESSED_SIZE = Integer.parseInt(SystemProperties.get(PROP_MAX_UNCOMPRESSED_SIZE, String.valueOf(256 * 1024 * 1024)));
+    static final int RESIDENT_DECOMPRESS_SIZE = 64 * 1024;
     ChunkListener listener = null;
-    byte[] lengthField = new byte[4];
+    ChunkBufferPool bufferPool = ChunkBufferPool.getInstance();
+    // Read-ahead buffer; complete chunks are passed to the listener directly from here
     byte[] buffer = null;
-    byte[] prevBuffer = null;
     ByteBuffer byteBuffer = null;
-    int bufferOffset = 0;
-    boolean lengthComplete = false;
-    int lengthByteCount = 0;
+    int readPos = 0;
+    int writePos = 0;
+    int minReadSize = 0;
+    // Dedicated array for chunks that don't fit into the read-ahead buffer
+    byte[] largeChunk = null;
+    ByteBuffer largeChunkBuffer = null;
+    int largeChunkOffset = 0;
     int chunkLength = 0;
+    boolean largeChunkCompressed = false;
+    // Compressed chunks, see SMQPCompression
+    CompressionCodec[] codecs = new CompressionCodec[128];
+    CompressionStatistics compressionStatistics = null;
+    // Small resident target; larger chunks decompress into a buffer leased from the pool
+    byte[] decompressBuffer = null;
 
     public ProtocolInputHandler create() {
         return new SMQPInputHandler();
@@ -46,29 +68,42 @@ public class SMQPInputHandler implements ProtocolInputHandler {
         this.listener = listener;
     }
 
+    /**
+     * Sets the statistics to record decompressed chunks to, usually those of the connection's output handler.
+     *
+     * @param compressionStatistics statistics
+     */
+    public void setCompressionStatistics(CompressionStatistics compressionStatistics) {
+        this.compressionStatistics = compressionStatistics;
+    }
+
     public void createInputBuffer(int initialSize, int ensureSize) {
-        // Initialize the lengthField buffer and the associated ByteBuffer.
-        buffer = lengthField;
+        buffer = new byte[Math.max(initialSize, MIN_BUFFER_SIZE)];
         byteBuffer = ByteBuffer.wrap(buffer);
-        // Reset the offset to 0 as we are starting to read a new length field.
-        bufferOffset = 0;
-        // Reset the byte count for the length field as we haven't read any part of the length yet.
-        lengthByteCount = 0;
-        // Indicate that we're not complete with the length field.
-        lengthComplete = false;
+        minReadSize = buffer.length / 8;
+        readPos = 0;
+        writePos = 0;
     }
 
     public ByteBuffer getByteBuffer() {
-        byteBuffer.position(bufferOffset);
+        if (largeChunk != null) {
+            largeChunkBuffer.position(largeChunkOffset);
+            return largeChunkBuffer;
+        }
+        ensureSpace();
+        byteBuffer.position(writePos);
         return byteBuffer;
     }
 
     public byte[] getBuffer() {
+        if (largeChunk != null)
+            return largeChunk;
+        ensureSpace();
         return buffer;
     }
 
     public int getOffset() {
-        return bufferOffset;
+        return largeChunk != null ? largeChunkOffset : writePos;
     }
 
     private int readLength(byte[] b, int offset) {
@@ -80,39 +115,119 @@ public class SMQPInputHandler implements ProtocolInputHandler {
         return i;
     }
 
+    private void ensureSpace() {
+        if (readPos == 0)
+            return;
+        int available = writePos - readPos;
+        boolean compact = buffer.length - writePos < minReadSize;
+        if (!compact) {
+            // Compact if the pending chunk cannot be completed in place
+            int needed = available >= 4 ? 4 + (readLength(buffer, readPos) & SMQPCompression.LENGTH_MASK) : 4;
+            compact = readPos + needed > buffer.length;
+        }
+        if (compact) {
+            System.arraycopy(buffer, readPos, buffer, 0, available);
+            readPos = 0;
+            writePos = available;
+        }
+    }
+
     public void setBytesWritten(int written) {
-        if (lengthComplete) {
-            bufferOffset += written;
-            // If we have read as many bytes as the chunkLength, the chunk is complete.
-            if (bufferOffset == chunkLength) {
-                listener.chunkCompleted(buffer, 0, chunkLength);
-                lengthComplete = false;
-                lengthByteCount = 0;
-                bufferOffset = 0; // Reset bufferOffset for the next length/chunk read.
-                prevBuffer = buffer;
-                buffer = lengthField;
-                byteBuffer = ByteBuffer.wrap(buffer);
+        if (largeChunk != null) {
+            largeChunkOffset += written;
+            if (largeChunkOffset == chunkLength) {
+                byte[] b = largeChunk;
+                largeChunk = null;
+                largeChunkBuffer = null;
+                if (largeChunkCompressed) {
+                    // The listener decodes the chunk synchronously, so the buffer can be reused afterwards
+                    try {
+                        deliverChunk(b, 0, chunkLength, true);
+                    } finally {
+                        bufferPool.release(b);
+                    }
+                } else {
+                    // The listener may retain the lease to keep slices of the buffer
+                    BufferLease lease = new BufferLease(bufferPool, b);
+                    try {
+                        listener.chunkCompleted(b, 0, chunkLength, lease);
+                    } finally {
+                        lease.release();
+                    }
+                }
             }
-        } else {
-            lengthByteCount += written;
-            bufferOffset += written;
-            // Check if we have completed the length field
-            if (lengthByteCount == 4) {
-                chunkLength = readLength(buffer, 0); // Assuming lengthFieldPos is always 0 here
-                if (prevBuffer != null && prevBuffer.length == chunkLength)
-                    buffer = prevBuffer;
-                else
-                    buffer = new byte[chunkLength];
-                byteBuffer = ByteBuffer.wrap(buffer);
-                lengthComplete = true;
-                bufferOffset = 0; // Reset bufferOffset for the chunk read.
-                lengthByteCount = 0; // Reset lengthByteCount for the next length read.
+            return;
+        }
+        writePos += written;
+        // Carve out as many complete chunks as the read-ahead buffer holds
+        while (writePos - readPos >= 4) {
+            int available = writePos - readPos - 4;
+            int header = readLength(buffer, readPos);
+            int len = header & SMQPCompression.LENGTH_MASK;
+            boolean compressed = (header & SMQPCompression.COMPRESSED_FLAG) != 0;
+            if (available >= len) {
+                int offset = readPos + 4;
+                readPos += 4 + len;
+                deliverChunk(buffer, offset, len, compressed);
+            } else {
+                if (4 + len > buffer.length) {
+                    // Oversized chunk, continue to read directly into a dedicated array
+                    chunkLength = len;
+                    largeChunkCompressed = compressed;
+                    largeChunk = bufferPool.lease(len);
+                    largeChunkBuffer = ByteBuffer.wrap(largeChunk, 0, len);
+                    System.arraycopy(buffer, readPos + 4, largeChunk, 0, available);
+                    largeChunkOffset = available;
+                    readPos = writePos;
+                }
+                break;
             }
         }
+        if (readPos == writePos) {
+            readPos = 0;
+            writePos = 0;
+        }
+    }
+
+    private void deliverChunk(byte[] b, int offset, int len, boolean compressed) {
+        if (!compressed) {
+            listener.chunkCompleted(b, offset, len);
+            return;
+        }
+        long start = System.nanoTime();
+        int codecId = b[offset] & 0xff;
+        int uncompressedLength = SMQPCompression.readInt(b, offset + 1);
+        byte[] target = null;
+        try {
+            CompressionCodec codec = codecId < codecs.length ? codecs[codecId] : null;
+            if (codec == null && codecId < codecs.length) {
+                codec = CompressionCodecFactory.create(codecId);
+                codecs[codecId] = codec;
+            }
+            if (codec == null)
+                throw new IOException("Unknown compression codec: " + codecId);
+            if (uncompressedLength < 0 || uncompressedLength > MAX_UNCOMPRESSED_SIZE)
+                throw new IOException("Invalid uncompressed chunk length: " + uncompressedLength + " (max " + MAX_UNCOMPRESSED_SIZE + ")");
+            if (uncompressedLength <= RESIDENT_DECOMPRESS_SIZE) {
+                if (decompressBuffer == null)
+                    decompressBuffer = new byte[RESIDENT_DECOMPRESS_SIZE];
+                target = decompressBuffer;
+            } else
+                target = bufferPool.lease(uncompressedLength);
+            codec.decompress(b, offset + SMQPCompression.FRAME_HEADER_SIZE, len - SMQPCompression.FRAME_HEADER_SIZE, target, 0, uncompressedLength);
+            if (compressionStatistics != null)
+                compressionStatistics.chunkDecompressed(len, uncompressedLength, System.nanoTime() - start);
+            // The listener decodes the chunk before returning, so a leased target can go back right after
+            listener.chunkCompleted(target, 0, uncompressedLength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (target != null && target != decompressBuffer)
+                bufferPool.release(target);
+        }
     }
 
     public String toString() {
         return "[SMQPInputHandler]";
     }
 }
-
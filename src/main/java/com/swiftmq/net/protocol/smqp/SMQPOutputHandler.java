@@ -18,8 +18,12 @@
 package com.swiftmq.net.protocol.smqp;
 
 import com.swiftmq.net.protocol.ProtocolOutputHandler;
+import com.swiftmq.net.protocol.compression.CompressionCodec;
+import com.swiftmq.net.protocol.compression.CompressionStatistics;
 import com.swiftmq.net.protocol.util.FragmentedOutputStream;
 
+import java.nio.ByteBuffer;
+
 /**
  * A SMQPOutputHandler handles SMQP output.
  *
@@ -33,6 +37,8 @@ public class SMQPOutputHandler extends ProtocolOutputHandler {
     private int currentOffset = 0;
     private int chunkCount = 0;
     private int currentFragmentIndex = 0;
+    private ByteBuffer[] gatherBuffers = new ByteBuffer[1];
+    private final SMQPChunkCompressor compressor = new SMQPChunkCompressor();
 
     public SMQPOutputHandler(int bufferSize, int extendSize) {
         fragmentedOutputStream = new FragmentedOutputStream(bufferSize, true);
@@ -43,6 +49,18 @@ public class SMQPOutputHandler extends ProtocolOutputHandler {
         return new SMQPOutputHandler(bufferSize, extendSize);
     }
 
+    public void setCompression(CompressionCodec codec, int threshold) {
+        compressor.setCompression(codec, threshold);
+    }
+
+    public CompressionCodec getCompressionCodec() {
+        return compressor.codec;
+    }
+
+    public CompressionStatistics getCompressionStatistics() {
+        return compressor.statistics;
+    }
+
     public int getChunkCount() {
         return chunkCount;
     }
@@ -77,6 +95,22 @@ public class SMQPOutputHandler extends ProtocolOutputHandler {
         }
     }
 
+    protected ByteBuffer[] getByteBuffers() {
+        int n = fragmentedOutputStream.getFragmentCount() - currentFragmentIndex;
+        if (gatherBuffers.length != n)
+            gatherBuffers = new ByteBuffer[n];
+        for (int i = 0; i < n; i++)
+            gatherBuffers[i] = fragmentedOutputStream.getFragment(currentFragmentIndex + i).getByteBuffer();
+        gatherBuffers[0].position(currentOffset);
+        return gatherBuffers;
+    }
+
+    protected void setAllBytesWritten() {
+        for (int i = 0; i < gatherBuffers.length; i++)
+            gatherBuffers[i] = null;
+        resetFragmentedOutputStream();
+    }
+
     private void resetFragmentedOutputStream() {
         fragmentedOutputStream.reset();
         currentFragment = null;
@@ -93,8 +127,30 @@ public class SMQPOutputHandler extends ProtocolOutputHandler {
         fragmentedOutputStream.write(b, offset, len);
     }
 
+    private boolean compressChunk(CompressionCodec codec, int length) {
+        long start = System.nanoTime();
+        fragmentedOutputStream.copyTo(compressor.getPlainBuffer(length), 0);
+        int n = compressor.compress(codec, length, start);
+        if (n == -1)
+            return false;
+        fragmentedOutputStream.reset();
+        fragmentedOutputStream.write(codec.getId());
+        SMQPCompression.writeInt(length, fragmentedOutputStream);
+        fragmentedOutputStream.write(compressor.getCompressBuffer(), 0, n);
+        return true;
+    }
+
     protected void markChunkCompleted() {
+        boolean compressed = false;
+        if (compressor.codec != null) {
+            int length = fragmentedOutputStream.getTotalLength();
+            CompressionCodec c = compressor.codecFor(length);
+            if (c != null)
+                compressed = compressChunk(c, length);
+        }
         fragmentedOutputStream.finish();
+        if (compressed)
+            SMQPCompression.markCompressed(fragmentedOutputStream.getFragment(0).getData());
         currentFragment = fragmentedOutputStream.getFragment(0);
         currentOffset = 0;
         chunkCount = fragmentedOutputStream.getFragmentCount();
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.net.protocol.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted lease of a pooled chunk buffer. The buffer returns to its pool when the last reference is
+ * released. Whoever keeps a slice of the buffer beyond the chunk delivery must retain the lease first.
+ */
+public class BufferLease {
+    final ChunkBufferPool pool;
+    final byte[] buffer;
+    final AtomicInteger refCount = new AtomicInteger(1);
+
+    public BufferLease(ChunkBufferPool pool, byte[] buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Adds a reference.
+     *
+     * @return false if the buffer has already been released
+     */
+    public boolean retain() {
+        for (; ; ) {
+            int n = refCount.get();
+            if (n == 0)
+                return false;
+            if (refCount.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Drops a reference and returns the buffer to the pool if it was the last one.
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0)
+            pool.release(buffer);
+    }
+
+    public int getRefCount() {
+        return refCount.get();
+    }
+
+    public String toString() {
+        return "[BufferLease, length=" + buffer.length + ", refCount=" + refCount.get() + "]";
+    }
+}
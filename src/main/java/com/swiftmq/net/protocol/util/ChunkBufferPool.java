@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.util;
+
+import com.swiftmq.tools.prop.SystemProperties;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JVM-wide pool of inbound chunk buffers, organized in power-of-two size classes.
+ * <p>
+ * The total number of bytes held by the pool is bounded by <code>swiftmq.chunkbuffer.pool.maxsize</code>
+ * (default 16 MB, 0 disables pooling). Buffers larger than the largest size class
+ * (<code>swiftmq.chunkbuffer.pool.maxchunksize</code>, default 1 MB) are never pooled.
+ * </p>
+ */
+public class ChunkBufferPool {
+    public static final String PROP_MAX_SIZE = "swiftmq.chunkbuffer.pool.maxsize";
+    public static final String PROP_MAX_CHUNK_SIZE = "swiftmq.chunkbuffer.pool.maxchunksize";
+    static final int MIN_SHIFT = 6;
+    private static final ChunkBufferPool _instance = new ChunkBufferPool(
+            Long.parseLong(SystemProperties.get(PROP_MAX_SIZE, String.valueOf(16 * 1024 * 1024))),
+            Integer.parseInt(SystemProperties.get(PROP_MAX_CHUNK_SIZE, String.valueOf(1024 * 1024))));
+
+    final long maxPoolSize;
+    final int maxShift;
+    final ConcurrentLinkedQueue<byte[]>[] slabs;
+    final AtomicLong pooledBytes = new AtomicLong(0);
+    final AtomicLong hits = new AtomicLong(0);
+    final AtomicLong misses = new AtomicLong(0);
+    final AtomicLong discards = new AtomicLong(0);
+
+    public ChunkBufferPool(long maxPoolSize, int maxChunkSize) {
+        this.maxPoolSize = maxPoolSize;
+        this.maxShift = Math.max(MIN_SHIFT, shiftFor(maxChunkSize));
+        slabs = new ConcurrentLinkedQueue[maxShift - MIN_SHIFT + 1];
+        for (int i = 0; i < slabs.length; i++)
+            slabs[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    public static ChunkBufferPool getInstance() {
+        return _instance;
+    }
+
+    private static int shiftFor(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * Leases a buffer with a capacity of at least <code>size</code> bytes. The returned
+     * array may be larger than requested; callers must track the used length themselves.
+     *
+     * @param size minimum capacity
+     * @return buffer
+     */
+    public byte[] lease(int size) {
+        int shift = Math.max(MIN_SHIFT, shiftFor(size));
+        if (maxPoolSize <= 0 || shift > maxShift) {
+            misses.incrementAndGet();
+            return new byte[size];
+        }
+        byte[] buffer = slabs[shift - MIN_SHIFT].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.length);
+            hits.incrementAndGet();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return new byte[1 << shift];
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that do not match a size class or that would
+     * exceed the maximum pool size are left to the garbage collector.
+     *
+     * @param buffer buffer, previously leased
+     */
+    public void release(byte[] buffer) {
+        int len = buffer.length;
+        if (maxPoolSize <= 0 || len < (1 << MIN_SHIFT) || len > (1 << maxShift) || Integer.bitCount(len) != 1)
+            return;
+        if (pooledBytes.addAndGet(len) > maxPoolSize) {
+            pooledBytes.addAndGet(-len);
+            discards.incrementAndGet();
+            return;
+        }
+        slabs[shiftFor(len) - MIN_SHIFT].offer(buffer);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getDiscardCount() {
+        return discards.get();
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public long getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public String toString() {
+        return "[ChunkBufferPool, maxPoolSize=" + maxPoolSize + ", pooledBytes=" + pooledBytes.get() + ", hits=" + hits.get() + ", misses=" + misses.get() + ", discards=" + discards.get() + "]";
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.net.protocol.util;
+
+import com.swiftmq.tools.util.DataByteArrayInputStream;
+
+/**
+ * A DataByteArrayInputStream over a received chunk that carries the lease of the chunk buffer, if it is pooled.
+ */
+public class ChunkDataInputStream extends DataByteArrayInputStream {
+    BufferLease lease = null;
+
+    public void setBuffer(byte[] b, int off, int len, BufferLease lease) {
+        setBuffer(b, off, len);
+        this.lease = lease;
+    }
+
+    public void setBuffer(byte[] b, int off, int len) {
+        super.setBuffer(b, off, len);
+        lease = null;
+    }
+
+    /**
+     * Returns the lease of the current chunk buffer or null if the buffer is reused after the chunk has been
+     * processed.
+     *
+     * @return lease
+     */
+    public BufferLease getLease() {
+        return lease;
+    }
+}
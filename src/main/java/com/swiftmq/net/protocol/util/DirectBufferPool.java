@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.util;
+
+import com.swiftmq.tools.prop.SystemProperties;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JVM-wide pool of direct (off-heap) ByteBuffers of one fixed size, used as outbound buffers.
+ * <p>
+ * The buffer size is <code>swiftmq.directbuffer.size</code> (default 64 KB), the total number of bytes
+ * held by the pool is bounded by <code>swiftmq.directbuffer.pool.maxsize</code> (default 16 MB).
+ * Buffers that don't fit into the pool are left to the garbage collector.
+ * </p>
+ */
+public class DirectBufferPool {
+    public static final String PROP_BUFFER_SIZE = "swiftmq.directbuffer.size";
+    public static final String PROP_MAX_SIZE = "swiftmq.directbuffer.pool.maxsize";
+    private static final DirectBufferPool _instance = new DirectBufferPool(
+            Integer.parseInt(SystemProperties.get(PROP_BUFFER_SIZE, String.valueOf(64 * 1024))),
+            Long.parseLong(SystemProperties.get(PROP_MAX_SIZE, String.valueOf(16 * 1024 * 1024))));
+
+    final int bufferSize;
+    final long maxPoolSize;
+    final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    final AtomicLong pooledBytes = new AtomicLong(0);
+    final AtomicLong hits = new AtomicLong(0);
+    final AtomicLong misses = new AtomicLong(0);
+
+    public DirectBufferPool(int bufferSize, long maxPoolSize) {
+        this.bufferSize = Math.max(64, bufferSize);
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public static DirectBufferPool getInstance() {
+        return _instance;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Leases a cleared direct buffer of <code>getBufferSize()</code> bytes.
+     *
+     * @return buffer
+     */
+    public ByteBuffer lease() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-bufferSize);
+            hits.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer buffer, previously leased
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize || !buffer.isDirect())
+            return;
+        if (pooledBytes.addAndGet(bufferSize) > maxPoolSize) {
+            pooledBytes.addAndGet(-bufferSize);
+            return;
+        }
+        buffers.offer(buffer);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    public String toString() {
+        return "[DirectBufferPool, bufferSize=" + bufferSize + ", maxPoolSize=" + maxPoolSize + ", pooledBytes=" + pooledBytes.get() + ", hits=" + hits.get() + ", misses=" + misses.get() + "]";
+    }
+}
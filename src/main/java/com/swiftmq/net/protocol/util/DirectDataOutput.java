@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.protocol.util;
+
+import com.swiftmq.tools.util.UTFUtils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A DataOutput that encodes directly into a chain of pooled direct ByteBuffers, so the encoded
+ * data can be handed to a channel without an intermediate heap copy.
+ * <p>
+ * Optionally, space for a 4 byte length field is reserved at the start of the first buffer.
+ * The usage cycle is: write, <code>prepareForWrite()</code> which returns the buffers ready to be
+ * written to a channel, then <code>reset()</code> which returns all but the first buffer to the pool.
+ * </p>
+ */
+public class DirectDataOutput extends OutputStream implements DataOutput {
+    private final DirectBufferPool pool;
+    private final int reserved;
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private ByteBuffer current = null;
+    private ByteBuffer[] prepared = new ByteBuffer[1];
+    private int size = 0;
+
+    public DirectDataOutput(DirectBufferPool pool, boolean reserveLength) {
+        this.pool = pool;
+        this.reserved = reserveLength ? 4 : 0;
+        current = pool.lease();
+        current.position(reserved);
+        buffers.add(current);
+    }
+
+    private ByteBuffer nextBuffer() {
+        current = pool.lease();
+        buffers.add(current);
+        return current;
+    }
+
+    /**
+     * Returns the number of bytes written since the last reset, without the reserved length field.
+     *
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    public void write(int b) {
+        ByteBuffer buffer = current.hasRemaining() ? current : nextBuffer();
+        buffer.put((byte) b);
+        size++;
+    }
+
+    public void write(byte[] b, int off, int len) {
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+            throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            ByteBuffer buffer = current.hasRemaining() ? current : nextBuffer();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    public void writeShort(int v) {
+        if (current.remaining() >= 2) {
+            current.putShort((short) v);
+            size += 2;
+        } else {
+            write(v >>> 8);
+            write(v);
+        }
+    }
+
+    public void writeChar(int v) {
+        writeShort(v);
+    }
+
+    public void writeInt(int v) {
+        if (current.remaining() >= 4) {
+            current.putInt(v);
+            size += 4;
+        } else {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+    }
+
+    public void writeLong(long v) {
+        if (current.remaining() >= 8) {
+            current.putLong(v);
+            size += 8;
+        } else {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+    }
+
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    public void writeBytes(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++)
+            write(s.charAt(i));
+    }
+
+    public void writeChars(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++)
+            writeChar(s.charAt(i));
+    }
+
+    public void writeUTF(String str) throws IOException {
+        int utfCount = UTFUtils.countUTFBytes(str);
+        if (utfCount > 65535)
+            throw new UTFDataFormatException();
+        writeShort(utfCount);
+        int length = str.length();
+        if (utfCount == length && current.remaining() >= length) {
+            // ASCII only and fits, encode in place
+            for (int i = 0; i < length; i++)
+                current.put((byte) str.charAt(i));
+            size += length;
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            int charValue = str.charAt(i);
+            if (charValue > 0 && charValue <= 127) {
+                write(charValue);
+            } else if (charValue <= 2047) {
+                write(0xc0 | (0x1f & (charValue >> 6)));
+                write(0x80 | (0x3f & charValue));
+            } else {
+                write(0xe0 | (0x0f & (charValue >> 12)));
+                write(0x80 | (0x3f & (charValue >> 6)));
+                write(0x80 | (0x3f & charValue));
+            }
+        }
+    }
+
+    /**
+     * Writes an int into the reserved length field.
+     *
+     * @param v value
+     */
+    public void putLength(int v) {
+        if (reserved == 0)
+            throw new IllegalStateException("No length field reserved");
+        buffers.get(0).putInt(0, v);
+    }
+
+    /**
+     * Copies the bytes written since the last reset, without the reserved length field, into a heap array.
+     *
+     * @param b      destination array, at least <code>size()</code> bytes from offset
+     * @param offset destination offset
+     * @return number of bytes copied
+     */
+    public int copyTo(byte[] b, int offset) {
+        int pos = offset;
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer buffer = buffers.get(i).duplicate();
+            buffer.flip();
+            if (i == 0)
+                buffer.position(reserved);
+            int len = buffer.remaining();
+            buffer.get(b, pos, len);
+            pos += len;
+        }
+        return pos - offset;
+    }
+
+    /**
+     * Flips all buffers, including the reserved length field, for a write to a channel.
+     * No further data must be written until <code>reset()</code> is called.
+     *
+     * @return buffers
+     */
+    public ByteBuffer[] prepareForWrite() {
+        int n = buffers.size();
+        if (prepared.length != n)
+            prepared = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            ByteBuffer buffer = buffers.get(i);
+            buffer.flip();
+            prepared[i] = buffer;
+        }
+        return prepared;
+    }
+
+    /**
+     * Discards all data. The first buffer is kept, all others are returned to the pool.
+     */
+    public void reset() {
+        for (int i = buffers.size() - 1; i > 0; i--)
+            pool.release(buffers.remove(i));
+        for (int i = 0; i < prepared.length; i++)
+            prepared[i] = null;
+        current = buffers.get(0);
+        current.clear();
+        current.position(reserved);
+        size = 0;
+    }
+
+    public String toString() {
+        return "[DirectDataOutput, size=" + size + ", buffers=" + buffers.size() + "]";
+    }
+}
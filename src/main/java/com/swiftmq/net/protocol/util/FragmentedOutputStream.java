@@ -122,6 +122,37 @@ public class FragmentedOutputStream {
         totalLength = 0;
     }
 
+    /**
+     * Returns the number of bytes written since the last reset, without the length field.
+     *
+     * @return total length
+     */
+    public int getTotalLength() {
+        int length = 0;
+        for (int i = 0; i < fragments.size(); i++)
+            length += fragments.get(i).length;
+        return includeLength ? length - 4 : length;
+    }
+
+    /**
+     * Copies the bytes written since the last reset, without the length field, into a contiguous array.
+     *
+     * @param b      destination array, at least <code>getTotalLength()</code> bytes from offset
+     * @param offset destination offset
+     * @return number of bytes copied
+     */
+    public int copyTo(byte[] b, int offset) {
+        int pos = offset;
+        for (int i = 0; i < fragments.size(); i++) {
+            Fragment fragment = fragments.get(i);
+            int start = i == 0 && includeLength ? 4 : 0;
+            int len = fragment.length - start;
+            System.arraycopy(fragment.data, start, b, pos, len);
+            pos += len;
+        }
+        return pos - offset;
+    }
+
     public int getFragmentCount() {
         return fragments.size();
     }
@@ -136,6 +167,7 @@ public class FragmentedOutputStream {
     public class Fragment {
         byte[] data;
         int length;
+        ByteBuffer byteBuffer = null;
 
         public Fragment(byte[] data, int length) {
             this.data = data;
@@ -150,6 +182,14 @@ public class FragmentedOutputStream {
             return length;
         }
 
+        public ByteBuffer getByteBuffer() {
+            if (byteBuffer == null)
+                byteBuffer = ByteBuffer.wrap(data);
+            byteBuffer.limit(length);
+            byteBuffer.position(0);
+            return byteBuffer;
+        }
+
         public boolean isFull() {
             return length == data.length;
         }
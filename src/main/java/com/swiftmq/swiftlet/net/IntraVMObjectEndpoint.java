@@ -0,0 +1,28 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.swiftlet.net;
+
+/**
+ * An IntraVMServerEndpoint which accepts objects by reference instead of serialized chunks.
+ * An IntraVMConnection passes requests to such an endpoint without serializing them.
+ * Ownership of a passed object moves to the endpoint; the client does not modify it afterwards.
+ * Messages contained in passed objects are snapshots.
+ */
+public interface IntraVMObjectEndpoint extends IntraVMServerEndpoint {
+    public void objectAvailable(Object obj);
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.tools.collection;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded log of 64-bit fingerprints that remembers roughly the most recent <code>max</code> of them.
+ * <p>
+ * The log is split into stripes, selected by the high bits of a fingerprint, each with its own lock. A stripe keeps
+ * its fingerprints in insertion order in a ring of primitive longs and indexes them in an open-addressing table;
+ * when the ring is full, the oldest fingerprint is evicted. Stripes are sized with some headroom so that a
+ * fingerprint survives at least about <code>max</code> younger ones. Memory use is fixed at about 24 bytes per
+ * entry. 0 is not a valid fingerprint, use {@link #fingerprint} to compute them.
+ * </p>
+ */
+public class FingerprintLog {
+    static final int STRIPE_BITS = 4;
+    static final int STRIPES = 1 << STRIPE_BITS;
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private volatile int max;
+
+    public FingerprintLog(int max) {
+        this.max = max;
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe(stripeCapacity(max));
+    }
+
+    /**
+     * Continues a 64-bit hash over the characters of a string, starting with {@link #hash(CharSequence)}.
+     *
+     * @param hash hash so far
+     * @param s    string
+     * @return hash
+     */
+    public static long hash(long hash, CharSequence s) {
+        for (int i = 0, n = s.length(); i < n; i++)
+            hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+        return hash;
+    }
+
+    public static long hash(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+
+    public static long hash(CharSequence s) {
+        return hash(FNV_OFFSET, s);
+    }
+
+    /**
+     * Finishes a hash into a fingerprint.
+     *
+     * @param hash hash
+     * @return fingerprint, never 0
+     */
+    public static long fingerprint(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    static int stripeCapacity(int max) {
+        int n = (max + STRIPES - 1) / STRIPES;
+        return Math.max(1, n + n / 4 + 8);
+    }
+
+    private Stripe stripe(long fingerprint) {
+        return stripes[(int) (fingerprint >>> (64 - STRIPE_BITS))];
+    }
+
+    /**
+     * Adds a fingerprint.
+     *
+     * @param fingerprint fingerprint
+     * @return true if the fingerprint was already in the log
+     */
+    public boolean add(long fingerprint) {
+        return stripe(fingerprint).add(fingerprint);
+    }
+
+    public void addAll(LongHashSet set) {
+        set.forEach(this::add);
+    }
+
+    public boolean contains(long fingerprint) {
+        return stripe(fingerprint).contains(fingerprint);
+    }
+
+    public boolean remove(long fingerprint) {
+        return stripe(fingerprint).remove(fingerprint);
+    }
+
+    public synchronized void increaseSize(int extend) {
+        setMax(max + extend);
+    }
+
+    public synchronized void decreaseSize(int reduce, int minSize) {
+        setMax(Math.max(minSize, max - reduce));
+    }
+
+    public synchronized void resize(int newSize) {
+        setMax(newSize);
+    }
+
+    private void setMax(int newMax) {
+        if (newMax == max)
+            return;
+        max = newMax;
+        int capacity = stripeCapacity(newMax);
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i].setCapacity(capacity);
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public int size() {
+        int n = 0;
+        for (int i = 0; i < STRIPES; i++)
+            n += stripes[i].size();
+        return n;
+    }
+
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i].clear();
+    }
+
+    public String toString() {
+        return "[FingerprintLog, max=" + max + ", size=" + size() + "]";
+    }
+
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        // Fingerprints in insertion order, removed ones are 0
+        long[] ring;
+        int first = 0;
+        int count = 0;
+        int size = 0;
+        long[] table;
+        int mask;
+
+        Stripe(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            ring = new long[capacity];
+            int n = LongHashSet.tableSize(capacity);
+            table = new long[n];
+            mask = n - 1;
+            first = 0;
+            count = 0;
+            size = 0;
+        }
+
+        private int find(long fingerprint) {
+            int i = LongHashSet.spread(fingerprint) & mask;
+            long v;
+            while ((v = table[i]) != 0) {
+                if (v == fingerprint)
+                    return i;
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        private void append(long fingerprint) {
+            if (count == ring.length) {
+                long oldest = ring[first];
+                first = (first + 1) % ring.length;
+                count--;
+                if (oldest != 0) {
+                    LongHashSet.deleteSlot(table, mask, find(oldest));
+                    size--;
+                }
+            }
+            ring[(first + count) % ring.length] = fingerprint;
+            count++;
+            int slot = find(fingerprint);
+            table[-1 - slot] = fingerprint;
+            size++;
+        }
+
+        boolean add(long fingerprint) {
+            lock.lock();
+            try {
+                if (find(fingerprint) >= 0)
+                    return true;
+                append(fingerprint);
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean contains(long fingerprint) {
+            lock.lock();
+            try {
+                return find(fingerprint) >= 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean remove(long fingerprint) {
+            lock.lock();
+            try {
+                int slot = find(fingerprint);
+                if (slot < 0)
+                    return false;
+                LongHashSet.deleteSlot(table, mask, slot);
+                size--;
+                for (int i = 0; i < count; i++) {
+                    int idx = (first + i) % ring.length;
+                    if (ring[idx] == fingerprint) {
+                        ring[idx] = 0;
+                        break;
+                    }
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void setCapacity(int capacity) {
+            lock.lock();
+            try {
+                if (capacity == ring.length)
+                    return;
+                long[] oldRing = ring;
+                int oldFirst = first;
+                int oldCount = count;
+                allocate(capacity);
+                // Keep the youngest fingerprints
+                for (int i = Math.max(0, oldCount - capacity); i < oldCount; i++) {
+                    long v = oldRing[(oldFirst + i) % oldRing.length];
+                    if (v != 0)
+                        append(v);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                Arrays.fill(ring, 0);
+                Arrays.fill(table, 0);
+                first = 0;
+                count = 0;
+                size = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
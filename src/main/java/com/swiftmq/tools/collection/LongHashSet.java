@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.tools.collection;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A set of longs, stored in an open-addressing table with linear probing. 0 is not a valid element.
+ * Not thread-safe.
+ */
+public class LongHashSet {
+    private long[] table;
+    private int mask;
+    private int size = 0;
+
+    public LongHashSet(int capacityHint) {
+        allocate(tableSize(capacityHint));
+    }
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    static int tableSize(int capacity) {
+        int n = 16;
+        while (n < capacity * 2 && n < (1 << 30))
+            n <<= 1;
+        return n;
+    }
+
+    static int spread(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int tableSize) {
+        table = new long[tableSize];
+        mask = tableSize - 1;
+    }
+
+    public boolean add(long value) {
+        int i = spread(value) & mask;
+        long v;
+        while ((v = table[i]) != 0) {
+            if (v == value)
+                return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        if (++size * 2 > table.length)
+            rehash(table.length * 2);
+        return true;
+    }
+
+    public boolean contains(long value) {
+        int i = spread(value) & mask;
+        long v;
+        while ((v = table[i]) != 0) {
+            if (v == value)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    public boolean remove(long value) {
+        int i = spread(value) & mask;
+        long v;
+        while ((v = table[i]) != 0) {
+            if (v == value) {
+                deleteSlot(table, mask, i);
+                size--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Empties a slot and shifts the following entries of its probe sequence back, so that no tombstones are needed.
+     */
+    static void deleteSlot(long[] table, int mask, int slot) {
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            long v = table[i];
+            if (v == 0)
+                break;
+            int home = spread(v) & mask;
+            // Move the entry into the gap unless its home slot lies cyclically in (gap, i]
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                table[gap] = v;
+                gap = i;
+            }
+        }
+        table[gap] = 0;
+    }
+
+    public void addAll(LongHashSet set) {
+        long[] t = set.table;
+        for (int i = 0; i < t.length; i++) {
+            if (t[i] != 0)
+                add(t[i]);
+        }
+    }
+
+    public void removeAll(LongHashSet set) {
+        long[] t = set.table;
+        for (int i = 0; i < t.length && size > 0; i++) {
+            if (t[i] != 0)
+                remove(t[i]);
+        }
+    }
+
+    public void forEach(LongConsumer consumer) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != 0)
+                consumer.accept(table[i]);
+        }
+    }
+
+    private void rehash(int tableSize) {
+        long[] old = table;
+        allocate(tableSize);
+        size = 0;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] != 0)
+                add(old[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0)
+            return;
+        // A set that grew large for one transaction shouldn't stay large
+        if (table.length > 1024)
+            allocate(1024);
+        else
+            Arrays.fill(table, 0);
+        size = 0;
+    }
+
+    public String toString() {
+        return "[LongHashSet, size=" + size + "]";
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.tools.collection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free single-producer/single-consumer ring buffer with park/unpark signalling.
+ * <p>
+ * Elements are stored in fixed-size chunks; if the consumer falls behind, the producer links a further chunk
+ * instead of blocking, and drained chunks are handed back to the producer for reuse. Calls to <code>add</code> must
+ * be serialized by the caller, as must calls to <code>remove</code> and <code>await</code>; the two sides may run
+ * concurrently. <code>clear</code> may be called from any thread. It discards everything added before the call;
+ * the consumer drops the discarded elements on its next <code>remove</code>.
+ * </p>
+ */
+public class SpscRingBuffer {
+    private final int chunkSize;
+    private final int mask;
+    private final AtomicReference<Chunk> spare = new AtomicReference<>();
+    // Producer side
+    private Chunk tailChunk;
+    private volatile long produced = 0;
+    // Only grows, so concurrent clears keep the largest position
+    private final AtomicLong clearedUpTo = new AtomicLong(0);
+    // Consumer side
+    private Chunk headChunk;
+    private volatile long consumed = 0;
+    private volatile Thread waiter = null;
+    private volatile boolean signalled = false;
+
+    public SpscRingBuffer(int capacityHint) {
+        int size = 16;
+        while (size < capacityHint && size < 1024)
+            size <<= 1;
+        chunkSize = size;
+        mask = size - 1;
+        tailChunk = headChunk = new Chunk(size);
+    }
+
+    /**
+     * Adds an element. Producer side.
+     *
+     * @param obj element
+     */
+    public void add(Object obj) {
+        long p = produced;
+        int idx = (int) (p & mask);
+        if (idx == 0 && p != 0) {
+            Chunk chunk = spare.getAndSet(null);
+            if (chunk == null)
+                chunk = new Chunk(chunkSize);
+            tailChunk.next = chunk;
+            tailChunk = chunk;
+        }
+        tailChunk.slots[idx] = obj;
+        // Publishes the element
+        produced = p + 1;
+    }
+
+    /**
+     * Removes the oldest element. Consumer side.
+     *
+     * @return element or null if empty
+     */
+    public Object remove() {
+        long c = consumed;
+        long cleared = clearedUpTo.get();
+        while (c < cleared)
+            take(c++);
+        if (c >= produced) {
+            consumed = c;
+            return null;
+        }
+        Object obj = take(c);
+        consumed = c + 1;
+        return obj;
+    }
+
+    private Object take(long position) {
+        int idx = (int) (position & mask);
+        if (idx == 0 && position != 0) {
+            Chunk drained = headChunk;
+            headChunk = drained.next;
+            drained.next = null;
+            spare.lazySet(drained);
+        }
+        Object obj = headChunk.slots[idx];
+        headChunk.slots[idx] = null;
+        return obj;
+    }
+
+    public int getSize() {
+        long c = Math.max(consumed, clearedUpTo.get());
+        return (int) Math.max(0, produced - c);
+    }
+
+    /**
+     * Discards all elements added before the call. Any thread.
+     */
+    public void clear() {
+        long p = produced;
+        long cleared;
+        do {
+            cleared = clearedUpTo.get();
+        } while (cleared < p && !clearedUpTo.compareAndSet(cleared, p));
+    }
+
+    /**
+     * Wakes up the consumer waiting in <code>await</code>. A signal without a waiter is kept for the next
+     * <code>await</code>.
+     */
+    public void signal() {
+        signalled = true;
+        Thread t = waiter;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    /**
+     * Parks the consumer until it is signalled, an element is available or the timeout is reached. The size is
+     * checked again after every wakeup, so an element added without a signal is not missed. Interrupts are
+     * deferred until the method returns.
+     *
+     * @param timeout timeout in milliseconds, 0 waits until signalled
+     */
+    public void await(long timeout) {
+        boolean wasInterrupted = Thread.interrupted();
+        long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        waiter = Thread.currentThread();
+        try {
+            while (!signalled && getSize() == 0) {
+                if (timeout > 0) {
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0)
+                        break;
+                    LockSupport.parkNanos(this, nanos);
+                } else
+                    LockSupport.park(this);
+                if (Thread.interrupted())
+                    wasInterrupted = true;
+            }
+        } finally {
+            waiter = null;
+            signalled = false;
+            if (wasInterrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    public String toString() {
+        return "[SpscRingBuffer, chunkSize=" + chunkSize + ", size=" + getSize() + "]";
+    }
+
+    private static class Chunk {
+        final Object[] slots;
+        Chunk next = null;
+
+        Chunk(int size) {
+            slots = new Object[size];
+        }
+    }
+}
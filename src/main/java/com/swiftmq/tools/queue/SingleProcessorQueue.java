@@ -74,8 +74,8 @@ public abstract class SingleProcessorQueue {
         size++;
     }
 
-    private void clearBulk() {
-        System.arraycopy(nullArray, 0, bulkWrapper, 0, bulkWrapper.length); // To force GC!
+    private void clearBulk(int n) {
+        System.arraycopy(nullArray, 0, bulkWrapper, 0, n); // To force GC!
     }
 
     public void enqueue(Object obj) {
@@ -93,6 +93,28 @@ public abstract class SingleProcessorQueue {
         }
     }
 
+    /**
+     * Enqueues several elements at once, so that the processor sees them together.
+     *
+     * @param objs elements
+     * @param n    number of elements
+     */
+    public void enqueue(Object[] objs, int n) {
+        lock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            for (int i = 0; i < n; i++)
+                doEnqueue(objs[i]);
+            if (n > 0 && !processorActive && started) {
+                startProcessor();
+                processorActive = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     public boolean dequeue() {
         int n = 0;
         lock.writeLock().lock();
@@ -106,7 +128,7 @@ public abstract class SingleProcessorQueue {
             lock.writeLock().unlock();
         }
         process(bulkWrapper, n);
-        clearBulk();
+        clearBulk(n);
         boolean rc;
         lock.writeLock().lock();
         try {
@@ -122,7 +144,7 @@ public abstract class SingleProcessorQueue {
 
     private int getBulk() {
         int n = 0;
-        int bl = Math.min(size, bulkWrapper.length);
+        int bl = Math.min(size, Math.min(bulkWrapper.length, Math.max(1, getBulkLimit())));
         for (int i = 0; i < bl; i++) {
             if (size > 0) {
                 bulkWrapper[n++] = elements[first];
@@ -138,6 +160,17 @@ public abstract class SingleProcessorQueue {
         return n;
     }
 
+    /**
+     * Returns the maximum number of elements to pass to the next <code>process</code> call.
+     * Subclasses may override this to adapt the bulk size at runtime; values above the bulk
+     * size given at construction are capped.
+     *
+     * @return bulk limit
+     */
+    protected int getBulkLimit() {
+        return bulkWrapper.length;
+    }
+
     protected abstract void startProcessor();
 
     protected abstract void process(Object[] bulk, int n);
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.tools.requestreply;
+
+/**
+ * A ReplyListener receives the reply of a request sent with <code>RequestRegistry.requestAsync</code>.
+ * It is called from the thread that delivers the reply, possibly while the registry holds its lock,
+ * and must therefore return quickly and must not send further requests.
+ */
+public interface ReplyListener {
+    /**
+     * Called exactly once per request.
+     *
+     * @param request the request
+     * @param reply   the reply, a reply with an exception if the request was cancelled or timed out,
+     *                or null if the request was cancelled without a reply
+     */
+    public void replyReceived(Request request, Reply reply);
+}
@@ -19,5 +19,16 @@ package com.swiftmq.tools.requestreply;
 
 public interface RequestHandler {
     public void performRequest(Request request);
+
+    /**
+     * Performs a batch of requests in order. Handlers may pass them on in one piece.
+     *
+     * @param requests requests
+     * @param n        number of requests
+     */
+    default void performRequests(Request[] requests, int n) {
+        for (int i = 0; i < n; i++)
+            performRequest(requests[i]);
+    }
 }
 
@@ -25,6 +25,8 @@ import com.swiftmq.tools.timer.TimerRegistry;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -137,6 +139,86 @@ public class RequestRegistry implements TimerListener {
         return req.getReply();
     }
 
+    /**
+     * Sends a request without waiting for the reply. The listener is called once the reply has arrived,
+     * the request was cancelled or timed out. After a reconnect, the request is validated and retried
+     * like a synchronous request.
+     *
+     * @param req      request, reply required
+     * @param listener listener
+     */
+    public void requestAsync(Request req, ReplyListener listener) {
+        req._sem = new AsyncSemaphore(req, listener);
+        processRequest(req);
+    }
+
+    /**
+     * Sends a batch of requests in order, in a single hand-over to the request handler. Requests that require
+     * a reply are tracked like <code>requestAsync</code> and reported to the listener, the others are sent
+     * without a reply.
+     *
+     * @param reqs     requests
+     * @param n        number of requests
+     * @param listener listener for the requests that require a reply
+     */
+    public void requestBatch(Request[] reqs, int n, ReplyListener listener) {
+        lock.writeLock().lock();
+        try {
+            if (!valid.get())
+                throw new RuntimeException("Invalid request (connection might be closed already)");
+            long timeout = requestTimeoutEnabled.get() ? System.currentTimeMillis() + SWIFTMQ_REQUEST_TIMEOUT : 0;
+            for (int i = 0; i < n; i++) {
+                Request req = reqs[i];
+                if (!req.isReplyRequired())
+                    continue;
+                req._sem = new AsyncSemaphore(req, listener);
+                req.setReply(null);
+                req.setDoRetry(false);
+                if (timeout != 0)
+                    req.setTimeout(timeout);
+                req.setRequestNumber(requestList.add(req));
+            }
+            if (!paused.get())
+                requestHandler.performRequests(reqs, n);
+            else {
+                // Tracked requests are sent on retry
+                for (int i = 0; i < n; i++) {
+                    if (!reqs[i].isReplyRequired())
+                        requestHandler.performRequest(reqs[i]);
+                }
+                if (DEBUG) System.out.println(debugString + ": Paused, batch NOT sent");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void retryAsync(Request req) {
+        if (DEBUG) System.out.println(debugString + ": Retry async: " + req);
+        RequestRetryValidator validator = req.getValidator();
+        ValidationException validateException = null;
+        if (validator != null) {
+            try {
+                validator.validate(req);
+            } catch (ValidationException e) {
+                validateException = e;
+            }
+        }
+        if (req.isCancelledByValidator()) {
+            Reply reply = req.createReply();
+            if (validateException != null) {
+                reply.setOk(false);
+                reply.setException(validateException);
+            } else
+                reply.setOk(true);
+            req.setReply(reply);
+            req.setDoRetry(false);
+            retrySet.remove(req);
+            req._sem.notifySingleWaiter();
+        } else
+            processRequest(req);
+    }
+
     private void processRequest(Request req) {
         lock.writeLock().lock();
         try {
@@ -178,7 +260,7 @@ public class RequestRegistry implements TimerListener {
                     if (req.isWasRetry()) {
                         if (DEBUG) System.out.println(debugString + ": Reply from Retry: " + reply);
                         retrySet.remove(req);
-                        if (retrySet.size() == 0) {
+                        if (retrySet.size() == 0 && retrySem != null) {
                             retrySem.notifySingleWaiter();
                             retrySem = null;
                         }
@@ -247,15 +329,26 @@ public class RequestRegistry implements TimerListener {
         try {
             this.retrySem = rSem;
             retrySet.clear();
+            List<Request> asyncRetries = null;
             for (int i = 0; i < requestList.size(); i++) {
                 Request req = (Request) requestList.get(i);
                 if (req != null) {
                     retrySet.add(req);
                     req.setDoRetry(true);
-                    req._sem.notifySingleWaiter();
+                    if (req._sem instanceof AsyncSemaphore) {
+                        // No thread waits for it, retry it here
+                        if (asyncRetries == null)
+                            asyncRetries = new ArrayList<>();
+                        asyncRetries.add(req);
+                    } else
+                        req._sem.notifySingleWaiter();
                 }
             }
             requestList.clear();
+            if (asyncRetries != null) {
+                for (int i = 0; i < asyncRetries.size(); i++)
+                    retryAsync(asyncRetries.get(i));
+            }
             if (retrySet.isEmpty()) {
                 retrySem.notifySingleWaiter();
                 retrySem = null;
@@ -319,6 +412,26 @@ public class RequestRegistry implements TimerListener {
             TimerRegistry.Singleton().removeTimerListener(TIMEOUT_CHECKINTERVAL, this);
     }
 
+    private static class AsyncSemaphore extends Semaphore {
+        final Request request;
+        final ReplyListener listener;
+        final AtomicBoolean done = new AtomicBoolean(false);
+
+        AsyncSemaphore(Request request, ReplyListener listener) {
+            super(false);
+            this.request = request;
+            this.listener = listener;
+        }
+
+        public void notifySingleWaiter() {
+            super.notifySingleWaiter();
+            if (request.getReply() == null && request.isDoRetry())
+                return;
+            if (done.compareAndSet(false, true))
+                listener.replyReceived(request, request.getReply());
+        }
+    }
+
     private static class PrivilegedRequestHandler implements RequestHandler {
         RequestHandler realHandler = null;
 
@@ -334,6 +447,13 @@ public class RequestRegistry implements TimerListener {
                 }
             });
         }
+
+        public void performRequests(Request[] requests, int n) {
+            AccessController.doPrivileged((PrivilegedAction) () -> {
+                realHandler.performRequests(requests, n);
+                return null;
+            });
+        }
     }
 
     private abstract static class PrivilegedRequestAction implements PrivilegedAction {
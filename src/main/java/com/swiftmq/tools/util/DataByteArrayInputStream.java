@@ -78,6 +78,14 @@ public class DataByteArrayInputStream extends InputStream implements LengthCaptu
         return max;
     }
 
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getPosition() {
+        return pos;
+    }
+
     public int available() throws IOException {
         return max - pos;
     }
@@ -190,7 +198,7 @@ public class DataByteArrayInputStream extends InputStream implements LengthCaptu
     }
 
     public void reset() throws IOException {
-        pos = 0;
+        pos = _offset;
         captureLength = 0;
     }
 }
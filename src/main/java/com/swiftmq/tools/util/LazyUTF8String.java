@@ -18,21 +18,44 @@
 package com.swiftmq.tools.util;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * A String that is converted from/to its length-prefixed modified UTF-8 form on demand only.
+ * <p>
+ * Both forms are held in plain volatile fields and published with VarHandle CAS, so an instance is a single
+ * object besides its String and byte array. The length is taken from the 2 byte prefix of the buffer.
+ * </p>
+ */
 public class LazyUTF8String implements Serializable {
-    private AtomicReference<String> s = new AtomicReference<>();
-    private AtomicReference<byte[]> buffer = new AtomicReference<>();
-    private int utfLength;
+    private static final VarHandle S;
+    private static final VarHandle BUFFER;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            S = lookup.findVarHandle(LazyUTF8String.class, "s", String.class);
+            BUFFER = lookup.findVarHandle(LazyUTF8String.class, "buffer", byte[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private volatile String s;
+    private volatile byte[] buffer;
 
     public LazyUTF8String(DataInput in) throws IOException {
-        utfLength = in.readUnsignedShort();
+        int utfLength = in.readUnsignedShort();
         byte[] b = new byte[utfLength + 2];
         in.readFully(b, 2, utfLength);
         b[0] = (byte) ((utfLength >>> 8) & 0xFF);
         b[1] = (byte) ((utfLength) & 0xFF);
-        buffer.set(b);
+        buffer = b;
+    }
+
+    protected LazyUTF8String() {
     }
 
     public LazyUTF8String(String s) {
@@ -46,22 +69,22 @@ public class LazyUTF8String implements Serializable {
             e.printStackTrace();
             throw e;
         }
-        this.s.set(s);
+        this.s = s;
     }
 
-    private String bufferToString() throws Exception {
-        return UTFUtils.convertFromUTF8(buffer.get(), 2, utfLength);
+    private static String bufferToString(byte[] b) throws Exception {
+        return UTFUtils.convertFromUTF8(b, 2, ((b[0] & 0xFF) << 8) | (b[1] & 0xFF));
     }
 
-    private byte[] stringToBuffer() throws Exception {
-        utfLength = UTFUtils.countUTFBytes(s.get());
+    private static byte[] stringToBuffer(String s) throws Exception {
+        int utfLength = UTFUtils.countUTFBytes(s);
         if (utfLength > 65535)
             throw new UTFDataFormatException();
 
         byte[] b = new byte[utfLength + 2];
         int count = 0;
         count = UTFUtils.writeShortToBuffer(utfLength, b, count);
-        UTFUtils.writeUTFBytesToBuffer(s.get(), b, count);
+        UTFUtils.writeUTFBytesToBuffer(s, b, count);
         return b;
     }
 
@@ -71,16 +94,18 @@ public class LazyUTF8String implements Serializable {
 
     public String getString(boolean clear) {
         try {
-            String currentString = s.get();
+            String currentString = s;
             if (currentString == null) {
-                currentString = bufferToString();
-                if (s.compareAndSet(null, currentString)) {
-                    if (clear) {
-                        buffer.set(null);
-                        utfLength = 0;
-                    }
+                byte[] b = buffer;
+                // The buffer is only dropped after the String has been set
+                if (b == null)
+                    return s;
+                currentString = bufferToString(b);
+                if (S.compareAndSet(this, null, currentString)) {
+                    if (clear)
+                        buffer = null;
                 } else {
-                    currentString = s.get();
+                    currentString = s;
                 }
             }
             return currentString;
@@ -91,11 +116,11 @@ public class LazyUTF8String implements Serializable {
 
     public byte[] getBuffer() {
         try {
-            byte[] currentBuffer = buffer.get();
+            byte[] currentBuffer = buffer;
             if (currentBuffer == null) {
-                currentBuffer = stringToBuffer();
-                if (!buffer.compareAndSet(null, currentBuffer)) {
-                    currentBuffer = buffer.get();
+                currentBuffer = stringToBuffer(s);
+                if (!BUFFER.compareAndSet(this, null, currentBuffer)) {
+                    currentBuffer = buffer;
                 }
             }
             return currentBuffer;
@@ -109,7 +134,7 @@ public class LazyUTF8String implements Serializable {
     }
 
     public String toString() {
-        return "[LazyUTF8String, s=" + s.get() + ", buffer=" + Arrays.toString(buffer.get()) + "]";
+        return "[LazyUTF8String, s=" + s + ", buffer=" + Arrays.toString(buffer) + "]";
     }
 
 }
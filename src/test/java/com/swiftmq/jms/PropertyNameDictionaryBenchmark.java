@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.jms;
+
+import com.swiftmq.tools.util.DataByteArrayOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes on the wire and decode cost of a property block with 15 properties, plain and encoded with a
+ * PropertyNameDictionary that already knows all names. Both benchmarks read every property after decoding.
+ * The sizes of both blocks are printed on setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PropertyNameDictionaryBenchmark {
+    static final int NUMBER_PROPERTIES = 15;
+    String[] names;
+    byte[] plain;
+    byte[] encoded;
+    PropertyNameDictionary dictionary;
+
+    private static byte[] encode(PropertyNameDictionary dictionary, byte[] plain) throws IOException {
+        DataByteArrayOutputStream dos = new DataByteArrayOutputStream();
+        dictionary.encode(plain, 0, plain.length, dos);
+        // Without the length prefix
+        return Arrays.copyOfRange(dos.getBuffer(), 4, dos.getCount());
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        MessageProperties props = new MessageProperties();
+        names = new String[NUMBER_PROPERTIES];
+        for (int i = 0; i < NUMBER_PROPERTIES; i++) {
+            names[i] = "orderProperty" + i;
+            if (i % 3 == 0)
+                props.setString(names[i], "value-" + i);
+            else if (i % 3 == 1)
+                props.setLong(names[i], 1000000L * i);
+            else
+                props.setBoolean(names[i], i % 2 == 0);
+        }
+        DataByteArrayOutputStream dos = new DataByteArrayOutputStream();
+        props.writeContent(dos);
+        plain = Arrays.copyOf(dos.getBuffer(), dos.getCount());
+        PropertyNameDictionary encoder = new PropertyNameDictionary();
+        dictionary = new PropertyNameDictionary();
+        // The first block defines the names, later blocks reference them
+        byte[] first = encode(encoder, plain);
+        dictionary.decode(first, 0, first.length);
+        encoded = encode(encoder, plain);
+        System.out.println("plain block: " + plain.length + " bytes, first encoded block: " + first.length + " bytes, encoded block: " + encoded.length + " bytes");
+    }
+
+    private void readAll(MessageProperties props, Blackhole bh) throws Exception {
+        for (int i = 0; i < NUMBER_PROPERTIES; i++)
+            bh.consume(props.getObject(names[i]));
+    }
+
+    @Benchmark
+    public void plain(Blackhole bh) throws Exception {
+        readAll(new MessageProperties(plain, 0, plain.length), bh);
+    }
+
+    @Benchmark
+    public void dictionary(Blackhole bh) throws Exception {
+        readAll(dictionary.decode(encoded, 0, encoded.length), bh);
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.swiftmq.net.client;
+
+import com.swiftmq.tools.util.DataStreamOutputStream;
+import com.swiftmq.tools.util.LengthCaptureDataInput;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip latency and footprint of NIOConnection and BlockingConnection with 100, 1000 and 5000 open
+ * connections against an in-process echo server. SMQP framing is the same in both directions, so the
+ * echoed bytes arrive as a chunk again. Each invocation sends a 64 byte chunk on the next connection and
+ * waits for the echo; the sample mode reports the p99. The heap, thread and RSS growth caused by opening
+ * the connections, with the factory's default buffer sizes, is printed on setup.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+@State(Scope.Benchmark)
+public class ConnectionScalingBenchmark {
+    static final int INPUT_BUFFER_SIZE = 131072;
+    static final int INPUT_EXTEND_SIZE = 65536;
+    static final int OUTPUT_BUFFER_SIZE = 1400;
+    static final int OUTPUT_EXTEND_SIZE = 1400;
+    static final int PAYLOAD_SIZE = 64;
+
+    @Param({"nio", "blocking"})
+    String transport;
+
+    @Param({"100", "1000", "5000"})
+    int connections;
+
+    EchoServer server;
+    Connection[] clients;
+    DataStreamOutputStream[] outs;
+    Semaphore[] replies;
+    byte[] payload = new byte[PAYLOAD_SIZE];
+    int next = 0;
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long rss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.substring(6).trim().split("\\s+")[0]) * 1024;
+            }
+        } catch (Exception ignored) {
+        }
+        return -1;
+    }
+
+    private Connection connect(int port) throws IOException {
+        if (transport.equals("nio"))
+            return new NIOConnection(NIOConnection.openChannel("localhost", port, true, INPUT_BUFFER_SIZE), INPUT_BUFFER_SIZE, INPUT_EXTEND_SIZE, OUTPUT_BUFFER_SIZE, OUTPUT_EXTEND_SIZE);
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        return new BlockingConnection(socket, INPUT_BUFFER_SIZE, INPUT_EXTEND_SIZE, OUTPUT_BUFFER_SIZE, OUTPUT_EXTEND_SIZE);
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new EchoServer();
+        server.start();
+        long heapBefore = usedHeap();
+        long rssBefore = rss();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        clients = new Connection[connections];
+        outs = new DataStreamOutputStream[connections];
+        replies = new Semaphore[connections];
+        for (int i = 0; i < connections; i++) {
+            final Semaphore reply = new Semaphore(0);
+            replies[i] = reply;
+            clients[i] = connect(server.getPort());
+            clients[i].setInboundHandler(new InboundHandler() {
+                public void dataAvailable(LengthCaptureDataInput in) {
+                    try {
+                        in.readInt();
+                        in.skipBytes(PAYLOAD_SIZE);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    reply.release();
+                }
+            });
+            clients[i].setExceptionHandler(new ExceptionHandler() {
+                public void onException(IOException exception) {
+                    reply.release();
+                }
+            });
+            clients[i].start();
+            outs[i] = new DataStreamOutputStream(clients[i].getOutputStream());
+        }
+        // One round trip per connection so that lazily allocated state is counted as well
+        for (int i = 0; i < connections; i++)
+            roundTrip(i);
+        long heap = usedHeap() - heapBefore;
+        long rss = rss();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        System.out.println(transport + ", " + connections + " connections: heap +" + (heap / 1024 / 1024) + " MB ("
+                + (heap / connections / 1024) + " KB/connection), threads +" + threads
+                + ", rss +" + (rss < 0 ? "n/a" : ((rss - rssBefore) / 1024 / 1024) + " MB"));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        for (Connection client : clients) {
+            if (client != null)
+                client.close();
+        }
+        server.close();
+    }
+
+    private void roundTrip(int i) throws Exception {
+        outs[i].writeInt(i);
+        outs[i].write(payload);
+        outs[i].flush();
+        if (!replies[i].tryAcquire(10, TimeUnit.SECONDS))
+            throw new IOException("No echo on connection " + i);
+    }
+
+    @Benchmark
+    public void roundTrip() throws Exception {
+        int i = next;
+        next = (i + 1) % connections;
+        roundTrip(i);
+    }
+
+    /**
+     * Single threaded NIO server that writes back whatever it reads.
+     */
+    static class EchoServer extends Thread {
+        final Selector selector;
+        final ServerSocketChannel serverChannel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        volatile boolean closed = false;
+
+        EchoServer() throws IOException {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress("localhost", 0), 8192);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            setDaemon(true);
+            setName("EchoServer");
+        }
+
+        int getPort() {
+            return serverChannel.socket().getLocalPort();
+        }
+
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        if (key.isAcceptable()) {
+                            SocketChannel channel = serverChannel.accept();
+                            if (channel != null) {
+                                channel.configureBlocking(false);
+                                channel.socket().setTcpNoDelay(true);
+                                channel.register(selector, SelectionKey.OP_READ);
+                            }
+                        } else if (key.isReadable())
+                            echo(key);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    e.printStackTrace();
+            } finally {
+                // Channels are closed by the selector thread only, close() just stops it
+                try {
+                    for (SelectionKey key : selector.keys())
+                        key.channel().close();
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void echo(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            try {
+                buffer.clear();
+                if (channel.read(buffer) < 0) {
+                    key.cancel();
+                    channel.close();
+                    return;
+                }
+                buffer.flip();
+                // Replies are small, the socket buffer takes them at once
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            } catch (IOException e) {
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        void close() throws InterruptedException {
+            closed = true;
+            selector.wakeup();
+            join();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 IIT Software GmbH
+ *
+ * IIT Software GmbH licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.swiftmq.tools.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode cost and retained size of a LazyUTF8String read from a message header.
+ * <p>
+ * Each operation decodes one header string from a reused input stream, so everything it allocates is retained by
+ * the result. With <code>-prof gc</code>, <code>gc.alloc.rate.norm</code> of <code>decode</code> is therefore the
+ * retained size of one inbound header string; <code>decodeAndGet</code> adds the String created on first access.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LazyUTF8StringBenchmark {
+    byte[] header;
+    DataByteArrayInputStream dis;
+
+    @Setup
+    public void setup() throws IOException {
+        DataByteArrayOutputStream dos = new DataByteArrayOutputStream();
+        new LazyUTF8String("ID:router1/6b2f1e0c-73a4-4d1a-9f0e-2c8b5d7a4e91/1729150000000/42").writeContent(dos);
+        header = Arrays.copyOf(dos.getBuffer(), dos.getCount());
+        dis = new DataByteArrayInputStream();
+    }
+
+    @Benchmark
+    public LazyUTF8String decode() throws IOException {
+        dis.setBuffer(header);
+        return new LazyUTF8String(dis);
+    }
+
+    @Benchmark
+    public String decodeAndGet() throws IOException {
+        dis.setBuffer(header);
+        return new LazyUTF8String(dis).getString(true);
+    }
+}